@@ -24,6 +24,7 @@
 package opendial;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -52,10 +53,13 @@ import opendial.domains.rules.Rule;
 import opendial.domains.rules.distribs.AnchoredRule;
 import opendial.domains.rules.distribs.EquivalenceDistribution;
 import opendial.domains.rules.distribs.OutputDistribution;
+import opendial.inference.Query;
+import opendial.inference.QueryCache;
 import opendial.inference.SwitchingAlgorithm;
 import opendial.inference.approximate.SamplingAlgorithm;
 import opendial.modules.StatePruner;
 import opendial.templates.Template;
+import opendial.templates.Template.MatchResult;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -88,6 +92,9 @@ public class DialogueState extends BNetwork {
 	/** Subset of variables that are currently incrementally constructed */
 	Set<String> incrementalVars;
 
+	// cache of inference results for the current revision of the state
+	final QueryCache queryCache = new QueryCache();
+
 	// ===================================
 	// DIALOGUE STATE CONSTRUCTION
 	// ===================================
@@ -157,6 +164,7 @@ public class DialogueState extends BNetwork {
 		if (network instanceof DialogueState) {
 			evidence.addAssignment(((DialogueState) network).getEvidence());
 		}
+		incrementRevision();
 	}
 
 	/**
@@ -166,6 +174,7 @@ public class DialogueState extends BNetwork {
 	 */
 	public void clearEvidence(Collection<String> variables) {
 		evidence.removePairs(variables);
+		incrementRevision();
 	}
 
 	/**
@@ -175,6 +184,7 @@ public class DialogueState extends BNetwork {
 	 */
 	public void addEvidence(Assignment assignment) {
 		evidence.addAssignment(assignment);
+		incrementRevision();
 	}
 
 	/**
@@ -288,6 +298,7 @@ public class DialogueState extends BNetwork {
 	public synchronized void addToState(DialogueState newState) {
 		addToState((BNetwork) newState);
 		evidence.addAssignment(newState.getEvidence().addPrimes());
+		incrementRevision();
 	}
 
 	/**
@@ -333,23 +344,18 @@ public class DialogueState extends BNetwork {
 	 */
 	public void applyRule(Rule r) {
 		Set<Assignment> slots = getMatchingSlots(r.getInputVariables()).linearise();
-		log.info("slots size is " + slots.size());
-		for (Assignment a : slots) {
-			log.info("xtpan: rule is " + r.toString() + "; rule slot is " + r.getInputVariables().stream().map(t -> t.toString()).collect(Collectors.toSet()) + "; slot is " + a.getPairs().keySet());
-		}
+		log.fine("slots size is " + slots.size());
 		for (Assignment filledSlot : slots) {
 			AnchoredRule arule = new AnchoredRule(r, this, filledSlot);
 			if (arule.isRelevant()) {
-				log.info("prev graph model is " + getChanceNodes().stream().map(c -> c.getId()).collect(Collectors.toSet()) + "; rule is " + r.toString());
-				log.info("applyRule(): r is " + r.toString() + "; filledSlot is " + filledSlot.toString());
+				log.fine("applyRule(): r is " + r.getRuleId() + "; filledSlot is "
+						+ filledSlot);
 				switch (r.getRuleType()) {
 				case PROB:
 					addProbabilityRule(arule);
-					log.info("after graph model is " + getChanceNodes().stream().map(c -> c.getId()).collect(Collectors.toSet()) + "; rule is " + r.toString());
 					break;
 				case UTIL:
 					addUtilityRule(arule);
-					log.info("after graph model is " + getChanceNodes().stream().map(c -> c.getId()).collect(Collectors.toSet()) + "; rule is " + r.toString());
 					break;
 				}
 			}
@@ -372,6 +378,16 @@ public class DialogueState extends BNetwork {
 	// GETTERS
 	// ===================================
 
+	/**
+	 * Returns the cache of inference results for the dialogue state. The cache is
+	 * automatically cleared upon each modification of the state.
+	 * 
+	 * @return the query cache
+	 */
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+
 	/**
 	 * Returns the evidence associated with the dialogue state.
 	 * 
@@ -418,8 +434,16 @@ public class DialogueState extends BNetwork {
 				try {
 					Assignment queryEvidence =
 							(includeEvidence) ? evidence : new Assignment();
-					return new SwitchingAlgorithm().queryProb(this, variable,
-							queryEvidence);
+					Query.ProbQuery query = new Query.ProbQuery(this,
+							Arrays.asList(variable), queryEvidence);
+					IndependentDistribution result =
+							queryCache.get(query, IndependentDistribution.class);
+					if (result == null) {
+						result = new SwitchingAlgorithm().queryProb(this, variable,
+								queryEvidence);
+						queryCache.put(query, IndependentDistribution.class, result);
+					}
+					return result.copy();
 				}
 				catch (RuntimeException e) {
 					log.warning("Error querying variable " + variable + " : " + e);
@@ -449,7 +473,14 @@ public class DialogueState extends BNetwork {
 		}
 		// else, perform the inference operation
 		try {
-			return new SwitchingAlgorithm().queryProb(this, variables, evidence);
+			Query.ProbQuery query = new Query.ProbQuery(this, variables, evidence);
+			MultivariateDistribution result =
+					queryCache.get(query, MultivariateDistribution.class);
+			if (result == null) {
+				result = new SwitchingAlgorithm().queryProb(query);
+				queryCache.put(query, MultivariateDistribution.class, result);
+			}
+			return result.copy();
 		}
 
 		// if everything fails, returns an empty table
@@ -469,7 +500,13 @@ public class DialogueState extends BNetwork {
 	 */
 	public UtilityTable queryUtil(Collection<String> variables) {
 		try {
-			return new SwitchingAlgorithm().queryUtil(this, variables, evidence);
+			Query.UtilQuery query = new Query.UtilQuery(this, variables, evidence);
+			UtilityTable result = queryCache.get(query, UtilityTable.class);
+			if (result == null) {
+				result = new SwitchingAlgorithm().queryUtil(query);
+				queryCache.put(query, UtilityTable.class, result);
+			}
+			return result.copy();
 		}
 		catch (Exception e) {
 			log.warning("cannot perform inference: " + e);
@@ -507,13 +544,16 @@ public class DialogueState extends BNetwork {
 			if (!t.isUnderspecified()) {
 				continue;
 			}
-			getChanceNodeIds().stream().filter(c -> !c.endsWith("'"))
-					.map(c -> t.match(c)).filter(r -> r.isMatching())
-					.forEach(r -> range.addAssign(r));
+			// only the variables starting with the literal prefix can match
+			for (String c : getChanceNodeIds(t.getLiteralPrefix())) {
+				if (!c.endsWith("'")) {
+					MatchResult r = t.match(c);
+					if (r.isMatching()) {
+						range.addAssign(r);
+					}
+				}
+			}
 		}
-
-		log.info("getMatchingSlots() range size is " + range.getNbCombinations());
-		log.info("getMatchingSlots() range value variables is " + range.getVariables());
 		return range;
 	}
 
@@ -711,7 +751,8 @@ public class DialogueState extends BNetwork {
 			// else, simply add an additional edge
 			else {
 				outputNode = getChanceNode(updatedVar);
-				outputDistrib = (OutputDistribution) outputNode.getDistrib();
+				outputDistrib =
+						(OutputDistribution) outputNode.getDistribForUpdate();
 			}
 			outputNode.addInputNode(ruleNode);
 			outputDistrib.addAnchoredRule(arule);
@@ -33,6 +33,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -62,6 +63,7 @@ import opendial.plugins.NuanceSpeech;
 import opendial.plugins.SphinxASR;
 import opendial.readers.XMLDomainReader;
 import opendial.readers.XMLDialogueReader;
+import opendial.utils.RandomUtils;
 
 import javax.xml.soap.Text;
 
@@ -339,7 +341,11 @@ public class DialogueSystem {
 	 */
 	public void changeSettings(Settings settings) {
 
-		this.settings.fillSettings(settings.getSpecifiedMapping());
+		Properties mapping = settings.getSpecifiedMapping();
+		this.settings.fillSettings(mapping);
+		if (mapping.containsKey("seed")) {
+			setRandomSeed(Settings.randomSeed);
+		}
 
 		for (Class<Module> toAttach : settings.modules) {
 			if (getModule(toAttach) == null) {
@@ -349,6 +355,23 @@ public class DialogueSystem {
 		}
 	}
 
+	/**
+	 * Fixes the seed of the random numbers employed for sampling, such that the
+	 * inference results can be reproduced from one run to the next. If the seed is
+	 * null, the default (unseeded) random generators are used.
+	 * 
+	 * @param seed the seed (or null)
+	 */
+	public void setRandomSeed(Long seed) {
+		Settings.randomSeed = seed;
+		if (seed != null) {
+			RandomUtils.setSeed(seed);
+		}
+		else {
+			RandomUtils.reset();
+		}
+	}
+
 	/**
 	 * Enables or disables speech input for the system.
 	 * 
@@ -710,15 +733,11 @@ public class DialogueSystem {
 				curState.reduce();
 
 				// applying the domain models
-				for (Model model : domain.getModels()) {
-					// log.info("update(): model id is " + model.getId());
-					// if (model.isTriggered(curState, toProcess)) {
-					if (model.isTriggered(toProcess)) {
-						log.info("trigger model is " + model.getId());
-						boolean change = model.trigger(curState);
-						if (change && model.isBlocking()) {
-							break;
-						}
+				for (Model model : domain.getTriggeredModels(toProcess)) {
+					log.info("trigger model is " + model.getId());
+					boolean change = model.trigger(curState);
+					if (change && model.isBlocking()) {
+						break;
 					}
 				}
 				for (ChanceNode cn : curState.getChanceNodes()) {
@@ -38,7 +38,10 @@ import java.util.stream.Collectors;
 import javax.sound.sampled.Mixer;
 
 import opendial.bn.values.Value;
+import opendial.inference.SwitchingAlgorithm;
+import opendial.inference.exact.EliminationOrdering;
 import opendial.modules.Module;
+import opendial.templates.TemplateCache;
 import opendial.utils.AudioUtils;
 import opendial.utils.StringUtils;
 import opendial.utils.XMLUtils;
@@ -66,9 +69,32 @@ public class Settings {
 	/** maximum sampling time (in milliseconds) */
 	public static long maxSamplingTime = 250;
 
+	/**
+	 * tolerance (maximum standard error of the estimates) to stop the sampling
+	 * once the estimates have converged (0.0 to always collect all samples)
+	 */
+	public static double samplingTolerance = 0.0;
+
 	/** Number of discretisation buckets to convert continuous distributions */
 	public static int discretisationBuckets = 50;
 
+	/** Heuristic for the elimination ordering in variable elimination */
+	public static EliminationOrdering.Heuristic eliminationOrdering =
+			EliminationOrdering.Heuristic.MIN_FILL;
+
+	/** Selection mode for the inference engine (auto, exact or sampling) */
+	public static SwitchingAlgorithm.Mode inferenceMode =
+			SwitchingAlgorithm.Mode.AUTO;
+
+	/** Maximum size of an intermediate factor for exact inference */
+	public static double maxFactorSize = 500000;
+
+	/** Cost of sampling one node, relative to the cost of one factor operation */
+	public static double samplingCostRatio = 20;
+
+	/** Seed for the random numbers (null for unseeded, non-reproducible sampling) */
+	public static Long randomSeed = null;
+
 	/** Whether to show the GUI */
 	public boolean showGUI;
 
@@ -211,9 +237,31 @@ public class Settings {
 			else if (key.equalsIgnoreCase("timeout")) {
 				maxSamplingTime = Integer.parseInt(mapping.getProperty(key));
 			}
+			else if (key.equalsIgnoreCase("tolerance")) {
+				samplingTolerance = Double.parseDouble(mapping.getProperty(key));
+			}
 			else if (key.equalsIgnoreCase("discretisation")) {
 				discretisationBuckets = Integer.parseInt(mapping.getProperty(key));
 			}
+			else if (key.equalsIgnoreCase("ordering")) {
+				eliminationOrdering =
+						EliminationOrdering.parseHeuristic(mapping.getProperty(key));
+			}
+			else if (key.equalsIgnoreCase("inference")) {
+				inferenceMode = SwitchingAlgorithm.Mode
+						.valueOf(mapping.getProperty(key).trim().toUpperCase());
+			}
+			else if (key.equalsIgnoreCase("maxfactor")) {
+				maxFactorSize = Double.parseDouble(mapping.getProperty(key));
+			}
+			else if (key.equalsIgnoreCase("samplingcost")) {
+				samplingCostRatio = Double.parseDouble(mapping.getProperty(key));
+			}
+			else if (key.equalsIgnoreCase("seed")) {
+				String seed = mapping.getProperty(key).trim();
+				randomSeed = (seed.isEmpty() || seed.equalsIgnoreCase("none")) ? null
+						: Long.parseLong(seed);
+			}
 
 			else if (key.equalsIgnoreCase("recording")) {
 				if (mapping.getProperty(key).trim().equalsIgnoreCase("last")) {
@@ -278,6 +326,7 @@ public class Settings {
 	public static void addFunction(String name, Function<List<String>, Value> function) {
 		CustomFunction cf = new CustomFunction(name, function);
 		functions.put(name, cf);
+		TemplateCache.clear();
 	}
 
 	public static boolean isFunction(String string) {
@@ -323,7 +372,14 @@ public class Settings {
 		mapping.setProperty("monitor", StringUtils.join(varsToMonitor, ","));
 		mapping.setProperty("samples", "" + nbSamples);
 		mapping.setProperty("timeout", "" + maxSamplingTime);
+		mapping.setProperty("tolerance", "" + samplingTolerance);
 		mapping.setProperty("discretisation", "" + discretisationBuckets);
+		mapping.setProperty("ordering",
+				eliminationOrdering.toString().toLowerCase().replace("_", "-"));
+		mapping.setProperty("inference", inferenceMode.toString().toLowerCase());
+		mapping.setProperty("maxfactor", "" + maxFactorSize);
+		mapping.setProperty("samplingcost", "" + samplingCostRatio);
+		mapping.setProperty("seed", (randomSeed != null) ? "" + randomSeed : "none");
 		mapping.setProperty("modules", "" + modules.stream()
 				.map(m -> m.getCanonicalName()).collect(Collectors.joining(",")));
 		mapping.setProperty("connect",
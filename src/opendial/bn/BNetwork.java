@@ -25,14 +25,19 @@ package opendial.bn;
 import java.util.logging.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import opendial.bn.distribs.ProbDistribution;
@@ -40,6 +45,7 @@ import opendial.bn.nodes.ActionNode;
 import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
 import opendial.bn.nodes.UtilityNode;
+import opendial.utils.StringUtils;
 
 /**
  * Representation of a Bayesian Network augmented with value and action nodes. The
@@ -65,6 +71,26 @@ public class BNetwork {
 	// the action nodes
 	Map<String, ActionNode> actionNodes;
 
+	// the chance node identifiers, indexed by their lower-case form (for prefix
+	// searches)
+	TreeMap<String, Set<String>> chanceNodeLabels;
+
+	// revision number, incremented at each modification of the network
+	long revision = 0;
+
+	// structure revision, incremented at each modification of the graph
+	long structureRevision = 0;
+
+	// cached topological ordering of the nodes (for a given structure revision)
+	volatile Ordering ordering;
+
+	// maximum number of entries in the cache of derived data
+	public static int MAX_DERIVED_DATA = 200;
+
+	// data derived from the network by the inference algorithms (such as the
+	// relevant nodes for a query), cleared upon each modification of the network
+	final Map<Object, Object> derivedData = new ConcurrentHashMap<Object, Object>();
+
 	// ===================================
 	// NETWORK CONSTRUCTION
 	// ===================================
@@ -77,6 +103,7 @@ public class BNetwork {
 		chanceNodes = new HashMap<String, ChanceNode>();
 		utilityNodes = new HashMap<String, UtilityNode>();
 		actionNodes = new HashMap<String, ActionNode>();
+		chanceNodeLabels = new TreeMap<String, Set<String>>();
 	}
 
 	/**
@@ -112,10 +139,13 @@ public class BNetwork {
 		}
 		nodes.put(node.getId(), node);
 		node.setNetwork(this);
+		incrementStructureRevision();
 
 		// adding the node in the type-specific collections
 		if (node instanceof ChanceNode) {
 			chanceNodes.put(node.getId(), (ChanceNode) node);
+			chanceNodeLabels.computeIfAbsent(normalise(node.getId()),
+					l -> new HashSet<String>(1)).add(node.getId());
 		}
 		else if (node instanceof UtilityNode) {
 			utilityNodes.put(node.getId(), (UtilityNode) node);
@@ -200,6 +230,7 @@ public class BNetwork {
 			// remove the node from the type-specific collections
 			if (node instanceof ChanceNode) {
 				chanceNodes.remove(nodeId);
+				removeLabel(nodeId);
 			}
 			else if (node instanceof UtilityNode) {
 				utilityNodes.remove(nodeId);
@@ -207,6 +238,7 @@ public class BNetwork {
 			else if (node instanceof ActionNode) {
 				actionNodes.remove(nodeId);
 			}
+			incrementStructureRevision();
 		}
 
 		return nodes.remove(nodeId);
@@ -235,7 +267,9 @@ public class BNetwork {
 	 */
 	public void modifyVariableId(String oldNodeId, String newNodeId) {
 		BNode node = nodes.remove(oldNodeId);
-		chanceNodes.remove(oldNodeId);
+		if (chanceNodes.remove(oldNodeId) != null) {
+			removeLabel(oldNodeId);
+		}
 		utilityNodes.remove(oldNodeId);
 		actionNodes.remove(oldNodeId);
 		if (node != null) {
@@ -257,8 +291,10 @@ public class BNetwork {
 		if (System.identityHashCode(this) != System.identityHashCode(network)) {
 			nodes.clear();
 			chanceNodes.clear();
+			chanceNodeLabels.clear();
 			utilityNodes.clear();
 			actionNodes.clear();
+			incrementStructureRevision();
 			for (BNode node : network.getNodes()) {
 				addNode(node);
 			}
@@ -266,10 +302,81 @@ public class BNetwork {
 
 	}
 
+	/**
+	 * Increments the revision number of the network. The method is called upon each
+	 * modification of the network (or of one of its nodes), and can be used to
+	 * invalidate the inference results computed on a previous version of the
+	 * network.
+	 */
+	public void incrementRevision() {
+		revision++;
+		derivedData.clear();
+	}
+
+	/**
+	 * Increments the structure revision number of the network (as well as its
+	 * revision number). The method is called upon each addition or removal of a
+	 * node or relation, and invalidates the cached topological ordering of the
+	 * nodes.
+	 */
+	public void incrementStructureRevision() {
+		structureRevision++;
+		revision++;
+		derivedData.clear();
+	}
+
+	/**
+	 * Returns the data associated with the key in the cache of derived data for
+	 * the network, computing it with the function if it is absent. The cache is
+	 * used by the inference algorithms to store the data they derive from the
+	 * network (such as the relevant nodes for a query), and is cleared upon each
+	 * modification of the network. As it is attached to the network, the cache is
+	 * discarded together with it. The function is called outside of any lock, and
+	 * the keys should include the revision number of the network, such that data
+	 * computed while the network is being modified is never retrieved.
+	 * 
+	 * @param key the key for the data
+	 * @param function the function computing the data (if absent)
+	 * @return the (possibly cached) data
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getDerivedData(Object key, Function<Object, T> function) {
+		Object data = derivedData.get(key);
+		if (data == null) {
+			data = function.apply(key);
+			if (derivedData.size() >= MAX_DERIVED_DATA) {
+				derivedData.clear();
+			}
+			Object existing = derivedData.putIfAbsent(key, data);
+			data = (existing != null) ? existing : data;
+		}
+		return (T) data;
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
 
+	/**
+	 * Returns the revision number of the network, which is incremented at each
+	 * modification of the network structure or of the node distributions.
+	 * 
+	 * @return the revision number
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Returns the structure revision number of the network, which is incremented
+	 * at each addition or removal of a node or relation.
+	 * 
+	 * @return the structure revision number
+	 */
+	public long getStructureRevision() {
+		return structureRevision;
+	}
+
 	/**
 	 * Returns true if the network contains a node with the given identifier
 	 * 
@@ -402,6 +509,27 @@ public class BNetwork {
 		return chanceNodes.keySet();
 	}
 
+	/**
+	 * Returns the identifiers of the chance nodes that start with the given prefix
+	 * (ignoring case). The identifiers are looked up in a sorted index of the chance
+	 * nodes, which is updated upon each addition or removal of a node.
+	 * 
+	 * @param prefix the prefix
+	 * @return the identifiers of the chance nodes starting with the prefix
+	 */
+	public Set<String> getChanceNodeIds(String prefix) {
+		if (prefix.isEmpty()) {
+			return new HashSet<String>(chanceNodes.keySet());
+		}
+		String normalised = normalise(prefix);
+		Set<String> ids = new HashSet<String>();
+		for (Set<String> labelIds : chanceNodeLabels.subMap(normalised, true,
+				normalised + Character.MAX_VALUE, false).values()) {
+			ids.addAll(labelIds);
+		}
+		return ids;
+	}
+
 	/**
 	 * Returns the collection of node identifiers currently in the network and that
 	 * have a distribution or utility function of a certain class
@@ -543,14 +671,13 @@ public class BNetwork {
 	 * 
 	 * <p>
 	 * This ordering is used in particular for various inference algorithms relying
-	 * on a topological ordering of the nodes (e.g. variable elimination).
+	 * on a topological ordering of the nodes (e.g. variable elimination). It is
+	 * cached and only recomputed when the structure of the network changes.
 	 * 
 	 * @return the ordered list of nodes
 	 */
 	public List<BNode> getSortedNodes() {
-		List<BNode> nodesList = new ArrayList<BNode>(nodes.values());
-		Collections.sort(nodesList);
-		return nodesList;
+		return new ArrayList<BNode>(getOrdering().nodes);
 	}
 
 	/**
@@ -559,11 +686,7 @@ public class BNetwork {
 	 * @return the ordered list of node identifiers.
 	 */
 	public List<String> getSortedNodesIds() {
-		List<String> sorted = new ArrayList<String>();
-		for (BNode n : getSortedNodes()) {
-			sorted.add(n.getId());
-		}
-		return sorted;
+		return new ArrayList<String>(getOrdering().ids);
 	}
 
 	/**
@@ -729,4 +852,175 @@ public class BNetwork {
 		return s;
 	}
 
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the topological ordering of the nodes for the current structure of
+	 * the network (recomputing it if the structure has changed).
+	 * 
+	 * <p>
+	 * The ordering is maintained lazily rather than updated upon each mutation:
+	 * the methods modifying the graph only increment the structure revision, and
+	 * the ordering is recomputed (in O(n + e) bitset operations and an O(n log n)
+	 * sort on precomputed keys) when it is first requested afterwards. As the
+	 * ordering is sorted on the number of ancestors, each new relation changes the
+	 * position of all the descendants of the node, such that an incremental update
+	 * would not be cheaper than a recomputation, and would be paid for each of the
+	 * successive mutations performed when a rule is applied (while a single
+	 * recomputation is performed before the next query).
+	 * 
+	 * @return the ordering
+	 */
+	private Ordering getOrdering() {
+		Ordering current = ordering;
+		long rev = structureRevision;
+		if (current == null || current.structureRevision != rev) {
+			current = new Ordering(rev, computeSortedNodes());
+			ordering = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Sorts the nodes according to the ordering defined in BNode.compareTo. Instead
+	 * of comparing the ancestor lists of each pair of nodes, the number of ancestors
+	 * of every node is first computed in a single topological pass (propagating the
+	 * ancestor sets along the relations), which makes the sort itself cheap. If the
+	 * graph contains a cycle or relations to nodes outside the network, the method
+	 * reverts to BNode.compareTo.
+	 * 
+	 * @return the sorted list of nodes
+	 */
+	private List<BNode> computeSortedNodes() {
+		List<BNode> nodesList = new ArrayList<BNode>(nodes.values());
+		int nbNodes = nodesList.size();
+		Map<BNode, Integer> indices = new IdentityHashMap<BNode, Integer>(nbNodes);
+		for (int i = 0; i < nbNodes; i++) {
+			indices.put(nodesList.get(i), i);
+		}
+
+		// counting the number of unprocessed input nodes
+		int[] nbInputs = new int[nbNodes];
+		Stack<Integer> toProcess = new Stack<Integer>();
+		for (int i = 0; i < nbNodes; i++) {
+			for (BNode inputNode : nodesList.get(i).getInputNodes()) {
+				if (!indices.containsKey(inputNode)) {
+					Collections.sort(nodesList);
+					return nodesList;
+				}
+				nbInputs[i]++;
+			}
+			if (nbInputs[i] == 0) {
+				toProcess.push(i);
+			}
+		}
+
+		// propagating the ancestor sets from the root nodes
+		BitSet[] ancestors = new BitSet[nbNodes];
+		for (int i = 0; i < nbNodes; i++) {
+			ancestors[i] = new BitSet(nbNodes);
+		}
+		int nbProcessed = 0;
+		while (!toProcess.isEmpty()) {
+			int i = toProcess.pop();
+			nbProcessed++;
+			for (BNode outputNode : nodesList.get(i).getOutputNodes()) {
+				Integer j = indices.get(outputNode);
+				if (j == null) {
+					continue;
+				}
+				ancestors[j].or(ancestors[i]);
+				ancestors[j].set(i);
+				if (--nbInputs[j] == 0) {
+					toProcess.push(j);
+				}
+			}
+		}
+		if (nbProcessed < nbNodes) {
+			Collections.sort(nodesList);
+			return nodesList;
+		}
+
+		Map<BNode, Integer> nbAncestors = new IdentityHashMap<BNode, Integer>(nbNodes);
+		for (int i = 0; i < nbNodes; i++) {
+			nbAncestors.put(nodesList.get(i), ancestors[i].cardinality());
+		}
+		Collections.sort(nodesList, (n1, n2) -> {
+			int nb1 = nbAncestors.get(n1);
+			int nb2 = nbAncestors.get(n2);
+			if (nb1 == 0 && nb2 == 0) {
+				boolean action1 = n1 instanceof ActionNode;
+				boolean action2 = n2 instanceof ActionNode;
+				if (action1 != action2) {
+					return (action1) ? +10 : -10;
+				}
+			}
+			else if (nb1 == 0 || nb2 == 0) {
+				return (nb1 == 0) ? +100 : -100;
+			}
+			else if (nb1 != nb2) {
+				return nb2 - nb1;
+			}
+			return StringUtils.compare(n1.getId(), n2.getId());
+		});
+		return nodesList;
+	}
+
+	/**
+	 * Topological ordering of the nodes for a given structure revision.
+	 */
+	private static final class Ordering {
+
+		// the structure revision for the ordering
+		final long structureRevision;
+
+		// the sorted nodes
+		final List<BNode> nodes;
+
+		// the sorted node identifiers
+		final List<String> ids;
+
+		Ordering(long structureRevision, List<BNode> nodes) {
+			this.structureRevision = structureRevision;
+			this.nodes = nodes;
+			this.ids = new ArrayList<String>(nodes.size());
+			for (BNode node : nodes) {
+				ids.add(node.getId());
+			}
+		}
+	}
+
+	/**
+	 * Removes the chance node identifier from the index of labels
+	 * 
+	 * @param nodeId the node identifier
+	 */
+	private void removeLabel(String nodeId) {
+		String normalised = normalise(nodeId);
+		Set<String> labelIds = chanceNodeLabels.get(normalised);
+		if (labelIds != null) {
+			labelIds.remove(nodeId);
+			if (labelIds.isEmpty()) {
+				chanceNodeLabels.remove(normalised);
+			}
+		}
+	}
+
+	/**
+	 * Converts the identifier to lower case, character by character (such that
+	 * the prefixes of the identifier are preserved).
+	 * 
+	 * @param id the identifier
+	 * @return the lower-case form
+	 */
+	private static String normalise(String id) {
+		char[] chars = id.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
 }
@@ -25,6 +25,7 @@ package opendial.bn.distribs;
 
 import java.util.logging.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -38,7 +39,7 @@ import opendial.bn.values.DoubleVal;
 import opendial.bn.values.NoneVal;
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
-import opendial.inference.approximate.Intervals;
+import opendial.inference.approximate.AliasTable;
 import opendial.utils.InferenceUtils;
 import opendial.utils.MathUtils;
 import opendial.utils.StringUtils;
@@ -55,6 +56,13 @@ import org.w3c.dom.Node;
  * builder = new CategoricalTable.Builder("variable name"); builder.addRow(...);
  * CategoricalTable table = builder.build();
  * 
+ * <p>
+ * The table is stored in a primitive form: the values are mapped to integer
+ * positions, and the probabilities are stored in a double array indexed by these
+ * positions. Sampling relies on an alias table (created upon the first sample)
+ * and runs in constant time. The arrays are never modified in place, and can
+ * therefore be shared between copies of the table.
+ * 
  * @author Pierre Lison (plison@ifi.uio.no)
  *
  */
@@ -66,11 +74,17 @@ public class CategoricalTable implements IndependentDistribution {
 	// the variable name
 	String variable;
 
-	// the probability table
-	Map<Value, Double> table;
+	// the values in the table (indexed by position)
+	Value[] values;
+
+	// the probabilities of the values (indexed by position)
+	double[] probs;
+
+	// mapping from values to their position in the table
+	Map<Value, Integer> positions;
 
-	// probability intervals (used for binary search in sampling)
-	Intervals<Value> intervals;
+	// alias table (used for constant-time sampling)
+	AliasTable aliases;
 
 	// ===================================
 	// TABLE CONSTRUCTION
@@ -86,7 +100,21 @@ public class CategoricalTable implements IndependentDistribution {
 	 */
 	protected CategoricalTable(String variable, Map<Value, Double> headTable) {
 		this.variable = variable;
-		this.table = headTable;
+		setTable(headTable);
+	}
+
+	/**
+	 * Constructs a copy of the table. Since the arrays of the table are never
+	 * modified in place, they are shared with the copy.
+	 * 
+	 * @param table the table to copy
+	 */
+	private CategoricalTable(CategoricalTable table) {
+		this.variable = table.variable;
+		this.values = table.values;
+		this.probs = table.probs;
+		this.positions = table.positions;
+		this.aliases = table.aliases;
 	}
 
 	/**
@@ -143,10 +171,9 @@ public class CategoricalTable implements IndependentDistribution {
 	public boolean pruneValues(double threshold) {
 		Map<Value, Double> newTable = new HashMap<Value, Double>();
 		boolean changed = false;
-		for (Value row : table.keySet()) {
-			double prob = table.get(row);
-			if (prob >= threshold) {
-				newTable.put(row, prob);
+		for (int i = 0; i < values.length; i++) {
+			if (probs[i] >= threshold) {
+				newTable.put(values[i], probs[i]);
 			}
 			else {
 				changed = true;
@@ -154,9 +181,8 @@ public class CategoricalTable implements IndependentDistribution {
 		}
 
 		if (changed) {
-			table = InferenceUtils.normalise(newTable);
+			setTable(InferenceUtils.normalise(newTable));
 		}
-		intervals = null;
 		return changed;
 	}
 
@@ -173,34 +199,45 @@ public class CategoricalTable implements IndependentDistribution {
 	@Override
 	public double getProb(Value val) {
 
-		if (table.containsKey(val)) {
-			return table.get(val);
+		Integer position = positions.get(val);
+		if (position != null) {
+			return probs[position];
 		}
 
 		// if the distribution has continuous values, search for the closest
 		// element
 		else if (val instanceof DoubleVal && isContinuous()) {
 			double toFind = ((DoubleVal) val).getDouble();
-			Value closest = table.keySet().stream()
-					.filter(v -> v instanceof DoubleVal)
-					.min((v1, v2) -> Double.compare(
-							Math.abs(((DoubleVal) v1).getDouble() - toFind),
-							Math.abs(((DoubleVal) v2).getDouble() - toFind)))
-					.get();
-			return getProb(closest);
+			int closest = -1;
+			double minDistance = Double.MAX_VALUE;
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] instanceof DoubleVal) {
+					double distance =
+							Math.abs(((DoubleVal) values[i]).getDouble() - toFind);
+					if (distance < minDistance) {
+						minDistance = distance;
+						closest = i;
+					}
+				}
+			}
+			return (closest >= 0) ? probs[closest] : 0.0f;
 		}
 
 		else if (val instanceof ArrayVal && isContinuous()) {
 			double[] toFind = ((ArrayVal) val).getArray();
-			Value closest =
-					table.keySet().stream().filter(v -> v instanceof ArrayVal)
-							.min((v1, v2) -> Double.compare(
-									MathUtils.getDistance(((ArrayVal) v1).getArray(),
-											toFind),
-							MathUtils.getDistance(((ArrayVal) v2).getArray(),
-									toFind)))
-							.get();
-			return getProb(closest);
+			int closest = -1;
+			double minDistance = Double.MAX_VALUE;
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] instanceof ArrayVal) {
+					double distance = MathUtils
+							.getDistance(((ArrayVal) values[i]).getArray(), toFind);
+					if (distance < minDistance) {
+						minDistance = distance;
+						closest = i;
+					}
+				}
+			}
+			return (closest >= 0) ? probs[closest] : 0.0f;
 		}
 		return 0.0f;
 	}
@@ -212,7 +249,7 @@ public class CategoricalTable implements IndependentDistribution {
 	 * @return true if the table contains a row for the assignment, false otherwise
 	 */
 	public boolean hasProb(Value head) {
-		return table.containsKey(head);
+		return positions.containsKey(head);
 	}
 
 	/**
@@ -223,19 +260,16 @@ public class CategoricalTable implements IndependentDistribution {
 	 */
 	@Override
 	public Value sample() {
-		if (intervals == null) {
-			if (table.isEmpty()) {
-				log.warning("creating intervals for an empty table");
-			}
-			intervals = new Intervals<Value>(table);
-		}
-		if (intervals.isEmpty()) {
-			log.warning("interval is empty, table: " + table);
+		if (values.length == 0) {
+			log.warning("cannot sample from an empty table");
 			return ValueFactory.none();
 		}
-
-		Value sample = intervals.sample();
-		return sample;
+		AliasTable aliasTable = aliases;
+		if (aliasTable == null) {
+			aliasTable = new AliasTable(probs);
+			aliases = aliasTable;
+		}
+		return values[aliasTable.sample()];
 	}
 
 	/**
@@ -291,12 +325,11 @@ public class CategoricalTable implements IndependentDistribution {
 	 * @return true if empty, false otherwise
 	 */
 	public boolean isEmpty() {
-		if (table.isEmpty()) {
+		if (values.length == 0) {
 			return true;
 		}
 		else
-			return (table.size() == 1
-					&& table.keySet().iterator().next().equals(ValueFactory.none()));
+			return (values.length == 1 && values[0].equals(ValueFactory.none()));
 	}
 
 	/**
@@ -306,7 +339,7 @@ public class CategoricalTable implements IndependentDistribution {
 	 * @return the distribution with the subset of values
 	 */
 	public CategoricalTable getNBest(int nbest) {
-		Map<Value, Double> ntable = InferenceUtils.getNBest(table, nbest);
+		Map<Value, Double> ntable = InferenceUtils.getNBest(getTable(), nbest);
 		Builder builder = new Builder(variable);
 		for (Value v : ntable.keySet()) {
 			builder.addRow(v, ntable.get(v));
@@ -322,14 +355,13 @@ public class CategoricalTable implements IndependentDistribution {
 	 */
 	@Override
 	public Value getBest() {
-		if (table.size() > 0) {
+		if (values.length > 0) {
 			double maxprob = -10;
 			Value maxVal = ValueFactory.none();
-			for (Value v : table.keySet()) {
-				double prob = table.get(v);
-				if (prob > maxprob) {
-					maxprob = prob;
-					maxVal = v;
+			for (int i = 0; i < values.length; i++) {
+				if (probs[i] > maxprob) {
+					maxprob = probs[i];
+					maxVal = values[i];
 				}
 			}
 			return maxVal;
@@ -346,17 +378,17 @@ public class CategoricalTable implements IndependentDistribution {
 	 * @return the size of the table
 	 */
 	public int size() {
-		return table.size();
+		return values.length;
 	}
 
 	/**
-	 * Returns the rows of the table.
+	 * Returns the rows of the table (as an unmodifiable set).
 	 * 
 	 * @return the table rows
 	 */
 	@Override
 	public Set<Value> getValues() {
-		return table.keySet();
+		return Collections.unmodifiableSet(positions.keySet());
 	}
 
 	// ===================================
@@ -368,7 +400,11 @@ public class CategoricalTable implements IndependentDistribution {
 	 */
 	@Override
 	public int hashCode() {
-		return table.hashCode();
+		int hash = 0;
+		for (int i = 0; i < values.length; i++) {
+			hash += values[i].hashCode() ^ Double.hashCode(probs[i]);
+		}
+		return hash;
 	}
 
 	/**
@@ -380,7 +416,7 @@ public class CategoricalTable implements IndependentDistribution {
 	public String toString() {
 
 		Map<Value, Double> sortedTable =
-				InferenceUtils.getNBest(table, Math.max(table.size(), 1));
+				InferenceUtils.getNBest(getTable(), Math.max(values.length, 1));
 
 		String str = "";
 		for (Entry<Value, Double> entry : sortedTable.entrySet()) {
@@ -420,11 +456,7 @@ public class CategoricalTable implements IndependentDistribution {
 	 */
 	@Override
 	public CategoricalTable copy() {
-		Map<Value, Double> newTable = new HashMap<Value, Double>();
-		for (Value v : table.keySet()) {
-			newTable.put(v, table.get(v));
-		}
-		return new CategoricalTable(variable, newTable);
+		return new CategoricalTable(this);
 	}
 
 	/**
@@ -439,6 +471,7 @@ public class CategoricalTable implements IndependentDistribution {
 		Attr id = doc.createAttribute("id");
 		id.setValue(variable.replace("'", ""));
 		var.setAttributeNode(id);
+		Map<Value, Double> table = getTable();
 		for (Value v : InferenceUtils.getNBest(table, table.size()).keySet()) {
 			if (!v.equals(ValueFactory.none())) {
 				Element valueNode = doc.createElement("value");
@@ -455,11 +488,16 @@ public class CategoricalTable implements IndependentDistribution {
 	}
 
 	/**
-	 * Returns the table of values with their probability.
+	 * Returns the table of values with their probability. The table is a new map
+	 * created from the arrays of values and probabilities.
 	 * 
 	 * @return the table
 	 */
 	public Map<Value, Double> getTable() {
+		Map<Value, Double> table = new HashMap<Value, Double>(values.length * 2);
+		for (int i = 0; i < values.length; i++) {
+			table.put(values[i], probs[i]);
+		}
 		return table;
 	}
 
@@ -474,20 +512,44 @@ public class CategoricalTable implements IndependentDistribution {
 	 * @return true if convertible to continuous, false otherwise.
 	 */
 	private boolean isContinuous() {
-		if (!table.keySet().isEmpty()) {
-			for (Value v : getValues()) {
+		if (values.length > 0) {
+			for (Value v : values) {
 				if (!(v instanceof ArrayVal) && !(v instanceof DoubleVal)
 						&& !(v instanceof NoneVal)) {
 					return false;
 				}
 			}
-			if (getValues().size() > 1) {
+			if (values.length > 1) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * Fills the arrays of values and probabilities (and the mapping from values to
+	 * positions) from the given table.
+	 * 
+	 * @param table the mapping between values and probabilities
+	 */
+	private void setTable(Map<Value, Double> table) {
+		Value[] newValues = new Value[table.size()];
+		double[] newProbs = new double[table.size()];
+		Map<Value, Integer> newPositions =
+				new HashMap<Value, Integer>(table.size() * 2);
+		int i = 0;
+		for (Entry<Value, Double> entry : table.entrySet()) {
+			newValues[i] = entry.getKey();
+			newProbs[i] = entry.getValue();
+			newPositions.put(entry.getKey(), i);
+			i++;
+		}
+		values = newValues;
+		probs = newProbs;
+		positions = newPositions;
+		aliases = null;
+	}
+
 	// ===================================
 	// BUILDER CLASS
 	// ===================================
@@ -27,6 +27,7 @@ import java.util.logging.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -50,6 +51,13 @@ import opendial.utils.StringUtils;
  * This class represent a generic conditional distribution in which the distribution
  * for the head variable X can be represented using arbitrary distributions of type
  * IndependentProbDistribution.
+ * 
+ * <p>
+ * When all conditions are defined on the same variables, lookups go through a
+ * dense index (created upon the first lookup) in which the values of each
+ * conditional variable are mapped to integer positions, and the distributions are
+ * stored in a flat array addressed by these positions. This avoids trimming and
+ * hashing the conditional assignment on every sample.
  *
  * @author Pierre Lison (plison@ifi.uio.no)
  *
@@ -68,6 +76,9 @@ public class ConditionalTable implements ProbDistribution {
 	// the probability table
 	protected HashMap<Assignment, IndependentDistribution> table;
 
+	// dense index over the conditions (null if not yet created)
+	ConditionIndex index;
+
 	// ===================================
 	// TABLE CONSTRUCTION
 	// ===================================
@@ -112,12 +123,13 @@ public class ConditionalTable implements ProbDistribution {
 		for (Assignment condition : new ArrayList<Assignment>(table.keySet())) {
 			table.get(condition).modifyVariableId(oldVarId, newVarId);
 			if (condition.containsVar(oldVarId)) {
+				// the condition is not modified in place, since it may be shared
+				// with copies of the table
 				IndependentDistribution distrib = table.remove(condition);
-				Value v = condition.removePair(oldVarId);
-				condition.addPair(newVarId, v);
-				table.put(condition, distrib);
+				table.put(condition.renameVar(oldVarId, newVarId), distrib);
 			}
 		}
+		index = null;
 
 		if (conditionalVars.contains(oldVarId)) {
 			conditionalVars.remove(oldVarId);
@@ -144,6 +156,7 @@ public class ConditionalTable implements ProbDistribution {
 					+ distrib.getVariable());
 		}
 		conditionalVars.addAll(condition.getVariables());
+		index = null;
 	}
 
 	/**
@@ -185,6 +198,11 @@ public class ConditionalTable implements ProbDistribution {
 	@Override
 	public Value sample(Assignment condition) {
 
+		IndependentDistribution indexed = getIndex().get(condition);
+		if (indexed != null) {
+			return indexed.sample();
+		}
+
 		if (condition.size() != conditionalVars.size()) {
 			condition = condition.getTrimmed(conditionalVars);
 		}
@@ -210,6 +228,10 @@ public class ConditionalTable implements ProbDistribution {
 	 */
 	@Override
 	public double getProb(Assignment condition, Value head) {
+		IndependentDistribution indexed = getIndex().get(condition);
+		if (indexed != null) {
+			return indexed.getProb(head);
+		}
 		if (condition.size() > conditionalVars.size()) {
 			condition = condition.getTrimmed(conditionalVars);
 		}
@@ -240,6 +262,12 @@ public class ConditionalTable implements ProbDistribution {
 	 */
 	@Override
 	public IndependentDistribution getProbDistrib(Assignment condition) {
+		if (condition.size() == conditionalVars.size()) {
+			IndependentDistribution indexed = getIndex().get(condition);
+			if (indexed != null) {
+				return indexed;
+			}
+		}
 		if (table.containsKey(condition)) {
 			return table.get(condition);
 		}
@@ -390,6 +418,134 @@ public class ConditionalTable implements ProbDistribution {
 		return false;
 	}
 
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the dense index over the conditions of the table, creating it if
+	 * necessary.
+	 * 
+	 * @return the index
+	 */
+	private ConditionIndex getIndex() {
+		ConditionIndex idx = index;
+		if (idx == null) {
+			idx = new ConditionIndex(table, conditionalVars);
+			index = idx;
+		}
+		return idx;
+	}
+
+	/**
+	 * Dense index over the conditions of a table. The values of each conditional
+	 * variable are mapped to integer positions, and the distributions are stored in
+	 * a flat array, at the offset obtained by summing the positions multiplied by
+	 * the strides of the variables. The index is left empty (and all lookups
+	 * return null) if the conditions are not all defined on the same variables, or
+	 * if the array would be much larger than the table.
+	 */
+	static final class ConditionIndex {
+
+		// the conditional variables
+		final String[] vars;
+
+		// mapping from values to positions, for each variable
+		final List<Map<Value, Integer>> positions;
+
+		// strides of the variables in the array
+		final int[] strides;
+
+		// distributions (indexed by offset, null for missing conditions)
+		final IndependentDistribution[] distribs;
+
+		/**
+		 * Creates the index for the table and its conditional variables.
+		 * 
+		 * @param table the table
+		 * @param conditionalVars the conditional variables
+		 */
+		ConditionIndex(Map<Assignment, IndependentDistribution> table,
+				Set<String> conditionalVars) {
+			vars = conditionalVars.toArray(new String[conditionalVars.size()]);
+			positions = new ArrayList<Map<Value, Integer>>(vars.length);
+			strides = new int[vars.length];
+			for (int i = 0; i < vars.length; i++) {
+				positions.add(new HashMap<Value, Integer>());
+			}
+
+			boolean dense = !table.isEmpty();
+			for (Assignment condition : table.keySet()) {
+				if (condition.size() != vars.length) {
+					dense = false;
+					break;
+				}
+				for (int i = 0; i < vars.length; i++) {
+					Map<Value, Integer> varPositions = positions.get(i);
+					varPositions.putIfAbsent(condition.getValue(vars[i]),
+							varPositions.size());
+				}
+			}
+
+			long size = 1;
+			for (int i = vars.length - 1; i >= 0 && dense; i--) {
+				strides[i] = (int) size;
+				size *= positions.get(i).size();
+				dense = size <= 4L * table.size() + 16;
+			}
+
+			if (!dense) {
+				distribs = null;
+				return;
+			}
+			distribs = new IndependentDistribution[(int) size];
+			for (Map.Entry<Assignment, IndependentDistribution> entry : table
+					.entrySet()) {
+				distribs[getOffset(entry.getKey())] = entry.getValue();
+			}
+		}
+
+		/**
+		 * Returns the distribution associated with the values of the conditional
+		 * variables in the assignment, or null if the assignment does not specify
+		 * all conditional variables, or if no distribution is defined for these
+		 * values.
+		 * 
+		 * @param condition the conditional assignment
+		 * @return the distribution (or null)
+		 */
+		IndependentDistribution get(Assignment condition) {
+			if (distribs == null) {
+				return null;
+			}
+			int offset = getOffset(condition);
+			return (offset >= 0) ? distribs[offset] : null;
+		}
+
+		/**
+		 * Returns the offset of the assignment in the array, or -1 if one of the
+		 * conditional variables is missing or has an unknown value.
+		 * 
+		 * @param condition the conditional assignment
+		 * @return the offset (or -1)
+		 */
+		private int getOffset(Assignment condition) {
+			int offset = 0;
+			for (int i = 0; i < vars.length; i++) {
+				if (!condition.containsVar(vars[i])) {
+					return -1;
+				}
+				Integer position =
+						positions.get(i).get(condition.getValue(vars[i]));
+				if (position == null) {
+					return -1;
+				}
+				offset += position * strides[i];
+			}
+			return offset;
+		}
+	}
+
 	// ===================================
 	// TABLE CONSTRUCTION
 	// ===================================
@@ -535,12 +691,8 @@ public class ConditionalTable implements ProbDistribution {
 		public void fillConditionalHoles() {
 			ValueRange possibleCondPairs = new ValueRange(table.keySet());
 			if (possibleCondPairs.getNbCombinations() < 500) {
-				Set<Assignment> possibleCondAssignments =
-						possibleCondPairs.linearise();
-				possibleCondAssignments.remove(new Assignment());
-
-				for (Assignment possibleCond : possibleCondAssignments) {
-					if (!table.containsKey(possibleCond)) {
+				for (Assignment possibleCond : possibleCondPairs.getCombinations()) {
+					if (!possibleCond.isEmpty() && !table.containsKey(possibleCond)) {
 						addRow(possibleCond, ValueFactory.none(), 1.0);
 					}
 				}
@@ -29,9 +29,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 
 import opendial.bn.distribs.ConditionalTable.Builder;
@@ -39,7 +39,10 @@ import opendial.bn.distribs.densityfunctions.KernelDensityFunction;
 import opendial.bn.values.ArrayVal;
 import opendial.bn.values.DoubleVal;
 import opendial.bn.values.Value;
+import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.inference.approximate.SampleStore;
+import opendial.utils.RandomUtils;
 
 /**
  * Distribution defined "empirically" in terms of a set of samples on a collection of
@@ -54,16 +57,20 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	// logger
 	public final static Logger log = Logger.getLogger("OpenDial");
 
-	// list of samples for the empirical distribution
+	// list of samples for the empirical distribution (created on demand if the
+	// distribution is backed by a sample store)
 	protected List<Assignment> samples;
 
-	// random sampler
-	Random sampler;
+	// the store backing the distribution (null if the samples are in the list)
+	SampleStore store;
 
 	// cache for the discrete and continuous distributions
 	MultivariateTable discreteCache;
 	ContinuousDistribution continuousCache;
 
+	// columnar representation of the samples (created on demand)
+	Columns columns;
+
 	// the names of the random variables
 	Set<String> variables;
 
@@ -77,7 +84,6 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	public EmpiricalDistribution() {
 		this.samples = new ArrayList<Assignment>();
 		this.variables = new HashSet<String>();
-		sampler = new Random();
 	}
 
 	/**
@@ -92,15 +98,28 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 		}
 	}
 
+	/**
+	 * Constructs a new empirical distribution backed by the samples of the store.
+	 * The samples are only converted to assignments if the list of samples is
+	 * requested or modified.
+	 * 
+	 * @param store the sample store
+	 */
+	public EmpiricalDistribution(SampleStore store) {
+		this.store = store;
+		this.variables = store.getVariables();
+	}
+
 	/**
 	 * Adds a new sample to the distribution
 	 * 
 	 * @param sample the sample to add
 	 */
 	public void addSample(Assignment sample) {
-		samples.add(sample);
+		getSampleList().add(sample);
 		discreteCache = null;
 		continuousCache = null;
+		columns = null;
 		variables.addAll(sample.getVariables());
 	}
 
@@ -113,7 +132,8 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 		variables.remove(varId);
 		discreteCache = null;
 		continuousCache = null;
-		for (Assignment s : samples) {
+		columns = null;
+		for (Assignment s : getSampleList()) {
 			s.removePair(varId);
 		}
 	}
@@ -131,9 +151,11 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	@Override
 	public Assignment sample() {
 
-		if (!samples.isEmpty()) {
-			int selection = sampler.nextInt(samples.size());
-			Assignment selected = samples.get(selection);
+		int size = size();
+		if (size > 0) {
+			int selection = RandomUtils.getRandom().nextInt(size);
+			Assignment selected = (store != null) ? store.getSample(selection)
+					: samples.get(selection);
 			return selected;
 		}
 		else {
@@ -156,7 +178,7 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	 * @return the collection of samples
 	 */
 	public Collection<Assignment> getSamples() {
-		return samples;
+		return getSampleList();
 	}
 
 	/**
@@ -165,7 +187,7 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	 * @return the number of samples.
 	 */
 	public int size() {
-		return samples.size();
+		return (store != null) ? store.size() : samples.size();
 	}
 
 	/**
@@ -176,8 +198,10 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	@Override
 	public Set<Assignment> getValues() {
 		Set<Assignment> possible = new HashSet<Assignment>();
-		for (Assignment sample : samples) {
-			possible.add(sample);
+		Columns cols = getColumns();
+		int[] all = cols.getAllColumns();
+		for (int[] group : cols.group(all).values()) {
+			possible.add(cols.getAssignment(group[0], all));
 		}
 		return possible;
 	}
@@ -210,10 +234,12 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	public MultivariateTable toDiscrete() {
 		if (discreteCache == null) {
 			MultivariateTable.Builder probs = new MultivariateTable.Builder();
-			double incr = 1.0 / samples.size();
-			for (Assignment sample : samples) {
-				Assignment trimmed = sample.getTrimmed(variables);
-				probs.incrementRow(trimmed, incr);
+			Columns cols = getColumns();
+			int[] all = cols.getAllColumns();
+			double incr = 1.0 / cols.nbSamples;
+			for (int[] group : cols.group(all).values()) {
+				probs.incrementRow(cols.getAssignment(group[0], all),
+						group[1] * incr);
 			}
 
 			discreteCache = probs.build();
@@ -243,15 +269,17 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 
 	/**
 	 * Returns an independent probability distribution on a single random variable
-	 * based on the samples. This distribution may be a categorical table or a
-	 * continuous distribution.
+	 * based on the samples. This distribution is a continuous distribution if the
+	 * variable has continuous values and at least 5 distinct values, and a
+	 * categorical table otherwise.
 	 * 
 	 * @return the probability distribution resulting from the marginalisation.
 	 */
 	@Override
 	public IndependentDistribution getMarginal(String var) {
-		if (sample().getTrimmed(Arrays.asList(var)).containContinuousValues()
-				&& samples.stream().distinct().limit(5).count() == 5) {
+		Columns cols = getColumns();
+		Integer k = cols.varIndices.get(var);
+		if (k != null && cols.isContinuous(k) && cols.domains.get(k).size() >= 5) {
 			return createContinuous(var);
 		}
 		else {
@@ -275,11 +303,18 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 		}
 		else {
 			Builder builder = new ConditionalTable.Builder(var);
-			double incr = 1.0 / samples.size();
-			for (Assignment sample : samples) {
-				Assignment condition = sample.getTrimmed(condVars);
-				Value val = sample.getValue(var);
-				builder.incrementRow(condition, val, incr);
+			Columns cols = getColumns();
+			int[] condCols = condVars.stream().filter(cols.varIndices::containsKey)
+					.mapToInt(cols.varIndices::get).toArray();
+			Integer headCol = cols.varIndices.get(var);
+			int[] groupCols = Arrays.copyOf(condCols, condCols.length + 1);
+			groupCols[condCols.length] = (headCol != null) ? headCol : -1;
+			double incr = 1.0 / cols.nbSamples;
+			for (int[] group : cols.group(groupCols).values()) {
+				Assignment condition = cols.getAssignment(group[0], condCols);
+				Value val = (headCol != null) ? cols.getValue(headCol, group[0])
+						: ValueFactory.none();
+				builder.incrementRow(condition, val, group[1] * incr);
 			}
 			builder.normalise();
 			return builder.build();
@@ -295,12 +330,24 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	public IndependentDistribution createDiscrete(String headVar) {
 
 		CategoricalTable.Builder probs = new CategoricalTable.Builder(headVar);
+		if (size() == 0) {
+			return probs.build();
+		}
 
-		double incr = 1.0 / samples.size();
-
-		for (Assignment sample : samples) {
-			Value val = sample.getValue(headVar);
-			probs.incrementRow(val, incr);
+		Columns cols = getColumns();
+		Integer k = cols.varIndices.get(headVar);
+		double incr = 1.0 / cols.nbSamples;
+		if (k == null) {
+			probs.incrementRow(ValueFactory.none(), cols.nbSamples * incr);
+			return probs.build();
+		}
+		int[] counts = cols.counts[k];
+		for (int idx = 0; idx < counts.length; idx++) {
+			if (counts[idx] > 0) {
+				Value val = (idx == 0) ? ValueFactory.none()
+						: cols.domains.get(k).get(idx - 1);
+				probs.incrementRow(val, counts[idx] * incr);
+			}
 		}
 
 		return probs.build();
@@ -315,8 +362,10 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	public ContinuousDistribution createContinuous(String headVar) {
 
 		List<double[]> values = new ArrayList<double[]>();
-		for (Assignment a : samples) {
-			Value v = a.getValue(headVar);
+		Columns cols = getColumns();
+		Integer k = cols.varIndices.get(headVar);
+		for (int i = 0; k != null && i < cols.nbSamples; i++) {
+			Value v = cols.getValue(k, i);
 			if (v instanceof ArrayVal) {
 				values.add(((ArrayVal) v).getArray());
 			}
@@ -341,40 +390,39 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	@Override
 	public boolean pruneValues(double threshold) {
 
-		Map<String, Map<Value, Integer>> frequencies =
-				new HashMap<String, Map<Value, Integer>>();
-
-		for (Assignment sample : samples) {
-			for (String var : sample.getVariables()) {
-				Value val = sample.getValue(var);
-				if (!frequencies.containsKey(var)) {
-					frequencies.put(var, new HashMap<Value, Integer>());
-				}
-				Map<Value, Integer> valFreq = frequencies.get(var);
-				if (!valFreq.containsKey(val)) {
-					valFreq.put(val, 1);
-				}
-				else {
-					valFreq.put(val, valFreq.get(val) + 1);
-				}
+		Columns cols = getColumns();
+		int minNumber = (int) (cols.nbSamples * threshold);
+		int[] selection = new int[cols.nbSamples];
+		int nbRemaining = 0;
+		for (int i = 0; i < cols.nbSamples; i++) {
+			boolean frequent = true;
+			for (int k = 0; k < cols.vars.length && frequent; k++) {
+				int idx = cols.columns[k][i];
+				frequent = (idx == 0 || cols.counts[k][idx] >= minNumber);
+			}
+			if (frequent) {
+				selection[nbRemaining++] = i;
 			}
 		}
+		if (nbRemaining == cols.nbSamples) {
+			return false;
+		}
 
-		boolean changed = false;
-		int minNumber = (int) (samples.size() * threshold);
-		for (int i = 0; i < samples.size(); i++) {
-			Assignment sample = samples.get(i);
-			for (String var : sample.getVariables()) {
-				if (frequencies.get(var).get(sample.getValue(var)) < minNumber) {
-					samples.remove(i);
-					changed = true;
-					continue;
-				}
+		// the store only keeps the indices of the remaining samples
+		if (store != null) {
+			store = store.select(Arrays.copyOf(selection, nbRemaining));
+		}
+		else {
+			List<Assignment> remaining = new ArrayList<Assignment>(nbRemaining);
+			for (int j = 0; j < nbRemaining; j++) {
+				remaining.add(samples.get(selection[j]));
 			}
+			samples = remaining;
 		}
 		discreteCache = null;
 		continuousCache = null;
-		return changed;
+		columns = null;
+		return true;
 	}
 
 	/**
@@ -391,13 +439,17 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 			variables.add(newId);
 		}
 
-		for (Assignment a : samples) {
+		// the samples are not modified in place, since they may be shared with
+		// copies of the distribution
+		List<Assignment> sampleList = getSampleList();
+		for (int i = 0; i < sampleList.size(); i++) {
+			Assignment a = sampleList.get(i);
 			if (a.containsVar(oldId)) {
-				Value v = a.removePair(oldId);
-				a.addPair(newId, v);
+				sampleList.set(i, a.renameVar(oldId, newId));
 			}
 		}
 
+		columns = null;
 		if (discreteCache != null) {
 			discreteCache.modifyVariableId(oldId, newId);
 		}
@@ -413,7 +465,8 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 	 */
 	@Override
 	public EmpiricalDistribution copy() {
-		EmpiricalDistribution copy = new EmpiricalDistribution(samples);
+		EmpiricalDistribution copy = (store != null)
+				? new EmpiricalDistribution(store) : new EmpiricalDistribution(samples);
 		return copy;
 	}
 
@@ -440,18 +493,266 @@ public class EmpiricalDistribution implements MultivariateDistribution {
 
 	private boolean isContinuous() {
 
-		for (String var : getVariables()) {
-			Assignment a = samples.get(0);
-			if (a.containsVar(var) && a.containContinuousValues()) {
-				if (getVariables().size() == 1) {
-					return true;
+		if (variables.size() != 1 || size() == 0) {
+			return false;
+		}
+		Columns cols = getColumns();
+		Integer k = cols.varIndices.get(variables.iterator().next());
+		Value first = (k != null) ? cols.getValue(k, 0) : null;
+		return first instanceof DoubleVal || first instanceof ArrayVal;
+	}
+
+	/**
+	 * Returns the list of samples, converting the samples of the store to
+	 * assignments if necessary (in which case the distribution is no longer backed
+	 * by the store).
+	 * 
+	 * @return the list of samples
+	 */
+	private List<Assignment> getSampleList() {
+		if (store != null) {
+			samples = new ArrayList<Assignment>(store.asList());
+			store = null;
+		}
+		return samples;
+	}
+
+	/**
+	 * Returns the columnar representation of the samples, creating it if necessary.
+	 * 
+	 * @return the columnar representation
+	 */
+	private Columns getColumns() {
+		Columns cols = columns;
+		if (cols == null) {
+			cols = (store != null) ? new Columns(store)
+					: new Columns(samples, variables);
+			columns = cols;
+		}
+		return cols;
+	}
+
+	/**
+	 * Columnar representation of the samples. The values of each variable are
+	 * mapped to integer indices (starting from 1, 0 being reserved for samples
+	 * where the variable is missing), and the samples are stored as one column of
+	 * indices per variable. The value counts for each variable are computed along
+	 * with the columns, in one pass over the samples. The distributions on several
+	 * variables are then extracted by grouping the samples on their index tuples.
+	 */
+	static final class Columns {
+
+		// the variables
+		final String[] vars;
+
+		// mapping from variables to their columns
+		final Map<String, Integer> varIndices;
+
+		// the values of each variable (index i+1 in the columns refers to the
+		// i-th value)
+		final List<List<Value>> domains;
+
+		// the value indices, for each variable and sample
+		final int[][] columns;
+
+		// the number of occurrences of each value index, for each variable
+		final int[][] counts;
+
+		// the number of samples
+		final int nbSamples;
+
+		/**
+		 * Creates the columns for the samples and variables
+		 * 
+		 * @param samples the samples
+		 * @param variables the variables
+		 */
+		Columns(List<Assignment> samples, Set<String> variables) {
+			vars = variables.toArray(new String[variables.size()]);
+			nbSamples = samples.size();
+			varIndices = new HashMap<String, Integer>();
+			domains = new ArrayList<List<Value>>(vars.length);
+			columns = new int[vars.length][nbSamples];
+			List<Map<Value, Integer>> positions =
+					new ArrayList<Map<Value, Integer>>(vars.length);
+			for (int k = 0; k < vars.length; k++) {
+				varIndices.put(vars[k], k);
+				domains.add(new ArrayList<Value>());
+				positions.add(new HashMap<Value, Integer>());
+			}
+			for (int i = 0; i < nbSamples; i++) {
+				for (Map.Entry<String, Value> pair : samples.get(i).getEntrySet()) {
+					Integer k = varIndices.get(pair.getKey());
+					if (k == null) {
+						continue;
+					}
+					Map<Value, Integer> varPositions = positions.get(k);
+					Integer idx = varPositions.get(pair.getValue());
+					if (idx == null) {
+						domains.get(k).add(pair.getValue());
+						idx = domains.get(k).size();
+						varPositions.put(pair.getValue(), idx);
+					}
+					columns[k][i] = idx;
+				}
+			}
+			counts = countValues();
+		}
+
+		/**
+		 * Creates the columns for the samples in the store. The value indices of
+		 * the store are directly reused.
+		 * 
+		 * @param store the sample store
+		 */
+		Columns(SampleStore store) {
+			vars = store.getLabels();
+			nbSamples = store.size();
+			varIndices = new HashMap<String, Integer>();
+			domains = new ArrayList<List<Value>>(vars.length);
+			columns = new int[vars.length][nbSamples];
+			for (int k = 0; k < vars.length; k++) {
+				varIndices.put(vars[k], k);
+				domains.add(store.getDomain(k));
+			}
+			for (int i = 0; i < nbSamples; i++) {
+				for (int k = 0; k < vars.length; k++) {
+					columns[k][i] = store.getValueIndex(i, k) + 1;
+				}
+			}
+			counts = countValues();
+		}
+
+		/**
+		 * Returns the indices of all columns
+		 * 
+		 * @return the columns
+		 */
+		int[] getAllColumns() {
+			int[] all = new int[vars.length];
+			for (int k = 0; k < all.length; k++) {
+				all[k] = k;
+			}
+			return all;
+		}
+
+		/**
+		 * Returns the value of the variable (given by its column) in the sample, or
+		 * null if the variable is missing
+		 * 
+		 * @param k the column
+		 * @param i the sample index
+		 * @return the value (or null)
+		 */
+		Value getValue(int k, int i) {
+			int idx = columns[k][i];
+			return (idx == 0) ? null : domains.get(k).get(idx - 1);
+		}
+
+		/**
+		 * Returns true if the first value of the variable is continuous (DoubleVal
+		 * or ArrayVal).
+		 * 
+		 * @param k the column
+		 * @return true if the variable is continuous, false otherwise
+		 */
+		boolean isContinuous(int k) {
+			List<Value> domain = domains.get(k);
+			return !domain.isEmpty() && (domain.get(0) instanceof DoubleVal
+					|| domain.get(0) instanceof ArrayVal);
+		}
+
+		/**
+		 * Returns the assignment of values for the given columns in the sample
+		 * (omitting the missing variables)
+		 * 
+		 * @param i the sample index
+		 * @param cols the columns
+		 * @return the corresponding assignment
+		 */
+		Assignment getAssignment(int i, int[] cols) {
+			Assignment a = new Assignment();
+			for (int k : cols) {
+				Value v = getValue(k, i);
+				if (v != null) {
+					a.addPair(vars[k], v);
+				}
+			}
+			return a;
+		}
+
+		/**
+		 * Groups the samples according to their value indices for the given
+		 * columns (where -1 denotes a column that is always missing). Each group is
+		 * associated with an array containing the index of the first sample in the
+		 * group and the number of samples in the group.
+		 * 
+		 * @param cols the columns
+		 * @return the groups (in order of their first sample)
+		 */
+		Map<Object, int[]> group(int[] cols) {
+
+			// the index tuples are encoded in a single long if possible
+			long[] radices = new long[cols.length];
+			boolean compact = true;
+			long size = 1;
+			for (int j = 0; j < cols.length && compact; j++) {
+				radices[j] = size;
+				int base = (cols[j] >= 0) ? domains.get(cols[j]).size() + 1 : 1;
+				compact = size <= Long.MAX_VALUE / base;
+				size *= base;
+			}
+
+			Map<Object, int[]> groups = new LinkedHashMap<Object, int[]>();
+			int[] tuple = new int[cols.length];
+			for (int i = 0; i < nbSamples; i++) {
+				long code = 0;
+				for (int j = 0; j < cols.length; j++) {
+					tuple[j] = (cols[j] >= 0) ? columns[cols[j]][i] : 0;
+					code += radices[j] * tuple[j];
+				}
+				Object key =
+						compact ? (Object) code : Arrays.asList(box(tuple));
+				int[] group = groups.get(key);
+				if (group == null) {
+					groups.put(key, new int[] { i, 1 });
 				}
 				else {
-					return false;
+					group[1]++;
 				}
 			}
+			return groups;
+		}
+
+		/**
+		 * Counts the occurrences of each value index, for each variable
+		 * 
+		 * @return the counts
+		 */
+		private int[][] countValues() {
+			int[][] valueCounts = new int[vars.length][];
+			for (int k = 0; k < vars.length; k++) {
+				valueCounts[k] = new int[domains.get(k).size() + 1];
+				for (int i = 0; i < nbSamples; i++) {
+					valueCounts[k][columns[k][i]]++;
+				}
+			}
+			return valueCounts;
+		}
+
+		/**
+		 * Converts the tuple into an array of integers
+		 * 
+		 * @param tuple the tuple
+		 * @return the boxed array
+		 */
+		private static Integer[] box(int[] tuple) {
+			Integer[] boxed = new Integer[tuple.length];
+			for (int j = 0; j < tuple.length; j++) {
+				boxed[j] = tuple[j];
+			}
+			return boxed;
 		}
-		return false;
 	}
 
 }
@@ -29,7 +29,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 
 import opendial.bn.values.Value;
@@ -59,9 +58,6 @@ public class MultivariateTable implements MultivariateDistribution {
 	// probability intervals (used for binary search in sampling)
 	Intervals<Assignment> intervals;
 
-	// sampler
-	Random sampler;
-
 	// ===================================
 	// TABLE CONSTRUCTION
 	// ===================================
@@ -32,7 +32,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
+import opendial.inference.approximate.SampleStore;
 import opendial.utils.InferenceUtils;
 import opendial.utils.StringUtils;
 
@@ -94,6 +96,34 @@ public class UtilityTable implements UtilityFunction {
 		variables.addAll(sample.getVariables());
 	}
 
+	/**
+	 * Adds the utility values of all samples in the store to the estimated table.
+	 * The assignment for each sample is built directly from the columns of the
+	 * store, without creating a sample object for each row.
+	 * 
+	 * @param store the sample store
+	 */
+	public void incrementUtil(SampleStore store) {
+		String[] labels = store.getLabels();
+		for (int i = 0; i < store.size(); i++) {
+			Assignment a = new Assignment();
+			for (int k = 0; k < labels.length; k++) {
+				Value v = store.getValue(i, k);
+				if (v != null) {
+					a.addPair(labels[k], v);
+				}
+			}
+			UtilityEstimate estimate = table.get(a);
+			if (estimate == null) {
+				table.put(a, new UtilityEstimate(store.getUtility(i)));
+				variables.addAll(a.getVariables());
+			}
+			else {
+				estimate.update(store.getUtility(i));
+			}
+		}
+	}
+
 	/**
 	 * Sets the utility associated with a value assignment
 	 * 
@@ -26,13 +26,13 @@ package opendial.bn.distribs.densityfunctions;
 import java.util.logging.*;
 
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
 import opendial.utils.MathUtils;
+import opendial.utils.RandomUtils;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -55,10 +55,6 @@ public class DirichletDensityFunction implements DensityFunction {
 	// normalisation factor
 	final double C;
 
-	// random number generator
-	static final Random rng = new Random(Calendar.getInstance().getTimeInMillis()
-			+ Thread.currentThread().getId());
-
 	/**
 	 * Create a new Dirichlet density function with the provided alpha parameters
 	 * 
@@ -180,6 +176,7 @@ public class DirichletDensityFunction implements DensityFunction {
 	 * @return the sample distribution
 	 */
 	private double sampleFromGamma(double k, double theta) {
+		Random rng = RandomUtils.getRandom();
 		boolean accept = false;
 		if (k < 1) {
 			// Weibull algorithm
@@ -29,10 +29,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
 import opendial.bn.values.ValueFactory;
 import opendial.utils.MathUtils;
+import opendial.utils.RandomUtils;
 import opendial.utils.StringUtils;
 
 import org.w3c.dom.Attr;
@@ -55,9 +55,6 @@ public class DiscreteDensityFunction implements DensityFunction {
 	// the set of points for the density function
 	Map<double[], Double> points;
 
-	// the sampler
-	Random sampler;
-
 	// minimum distance between points
 	double minDistance;
 
@@ -72,7 +69,6 @@ public class DiscreteDensityFunction implements DensityFunction {
 	public DiscreteDensityFunction(Map<double[], Double> points) {
 		this.points = new HashMap<double[], Double>();
 		this.points.putAll(points);
-		sampler = new Random();
 
 		// calculate the minimum distance between points
 		this.minDistance = MathUtils.getMinEuclidianDistance(points.keySet());
@@ -124,7 +120,7 @@ public class DiscreteDensityFunction implements DensityFunction {
 	 */
 	@Override
 	public double[] sample() {
-		double sampled = sampler.nextFloat();
+		double sampled = RandomUtils.getRandom().nextFloat();
 		double sum = 0.0;
 		for (double[] point : points.keySet()) {
 			sum += points.get(point);
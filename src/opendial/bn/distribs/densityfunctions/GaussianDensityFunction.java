@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Random;
 
 import opendial.bn.values.ValueFactory;
+import opendial.utils.RandomUtils;
 import opendial.utils.StringUtils;
 
 import org.w3c.dom.Attr;
@@ -61,9 +62,6 @@ public class GaussianDensityFunction implements DensityFunction {
 	// the standard deviation of the Gaussian
 	final double[] stdDev;
 
-	// sampler object
-	static final Random sampler = new Random();
-
 	/**
 	 * Creates a new density function with the given mean and variance vector. Only
 	 * diagonal coveriance are currently supported
@@ -154,9 +152,10 @@ public class GaussianDensityFunction implements DensityFunction {
 	@Override
 	public double[] sample() {
 
+		Random random = RandomUtils.getRandom();
 		double[] result = new double[mean.length];
 		for (int i = 0; i < mean.length; i++) {
-			result[i] = (sampler.nextGaussian() * stdDev[i]) + mean[i];
+			result[i] = (random.nextGaussian() * stdDev[i]) + mean[i];
 		}
 		return result;
 	}
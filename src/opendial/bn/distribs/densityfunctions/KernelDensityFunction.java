@@ -26,7 +26,6 @@ package opendial.bn.distribs.densityfunctions;
 import java.util.logging.*;
 
 import java.util.Arrays;
-import java.util.Calendar;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +35,7 @@ import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import opendial.utils.MathUtils;
+import opendial.utils.RandomUtils;
 import opendial.utils.StringUtils;
 
 import org.w3c.dom.Document;
@@ -65,10 +65,6 @@ public class KernelDensityFunction implements DensityFunction {
 	// the points
 	final double[][] points;
 
-	// the sampler
-	static final Random sampler = new Random(Calendar.getInstance().getTimeInMillis()
-			+ Thread.currentThread().getId());
-
 	// whether the data points are bounded (if the sum of their values over the
 	// dimensions must amount o 1.0).
 	final boolean isBounded;
@@ -153,6 +149,7 @@ public class KernelDensityFunction implements DensityFunction {
 	public double[] sample() {
 
 		// step 1 : selecting one point from the available points
+		Random sampler = RandomUtils.getRandom();
 		double[] centre = points[sampler.nextInt(points.length)];
 
 		// step 2: sampling a point in its vicinity (following a Gaussian)
@@ -40,6 +40,7 @@ import java.util.regex.Pattern;
 import opendial.bn.BNetwork;
 import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Combinations;
 import opendial.datastructs.ValueRange;
 import opendial.utils.StringUtils;
 
@@ -112,6 +113,8 @@ public abstract class BNode implements Comparable<BNode> {
 
 		addInputNode_internal(inputNode);
 		inputNode.addOutputNode_internal(this);
+		signalStructureChange();
+		inputNode.signalStructureChange();
 	}
 
 	/**
@@ -136,13 +139,18 @@ public abstract class BNode implements Comparable<BNode> {
 			log.warning(
 					"node " + inputNodeId + " is not an input node for " + nodeId);
 		}
-		boolean removal1 = inputNodes.containsKey(inputNodeId)
-				&& inputNodes.get(inputNodeId).removeOutputNode_internal(nodeId);
+		BNode inputNode = inputNodes.get(inputNodeId);
+		boolean removal1 = inputNode != null
+				&& inputNode.removeOutputNode_internal(nodeId);
 		boolean removal2 = removeInputNode_internal(inputNodeId);
 		if (removal1 != removal2) {
 			log.warning("inconsistency between input and output links for "
 					+ inputNodeId + " and " + nodeId);
 		}
+		signalStructureChange();
+		if (inputNode != null) {
+			inputNode.signalStructureChange();
+		}
 
 		return removal2;
 	}
@@ -167,13 +175,18 @@ public abstract class BNode implements Comparable<BNode> {
 			log.warning(
 					"node " + outputNodeId + " is not an input node for " + nodeId);
 		}
-		boolean removal1 = outputNodes.containsKey(outputNodeId)
-				&& outputNodes.get(outputNodeId).removeInputNode_internal(nodeId);
+		BNode outputNode = outputNodes.get(outputNodeId);
+		boolean removal1 = outputNode != null
+				&& outputNode.removeInputNode_internal(nodeId);
 		boolean removal2 = removeOutputNode_internal(outputNodeId);
 		if (removal1 != removal2) {
 			log.warning("inconsistency between input and output links for "
 					+ outputNodeId + " and " + nodeId);
 		}
+		signalStructureChange();
+		if (outputNode != null) {
+			outputNode.signalStructureChange();
+		}
 
 		return removal2;
 	}
@@ -222,6 +235,26 @@ public abstract class BNode implements Comparable<BNode> {
 		this.network = network;
 	}
 
+	/**
+	 * Signals a modification of the node (structure or distribution) to the
+	 * Bayesian network that includes it, if any.
+	 */
+	protected void signalChange() {
+		if (network != null) {
+			network.incrementRevision();
+		}
+	}
+
+	/**
+	 * Signals a modification of the relations of the node to the Bayesian network
+	 * that includes it, if any.
+	 */
+	protected void signalStructureChange() {
+		if (network != null) {
+			network.incrementStructureRevision();
+		}
+	}
+
 	// ===================================
 	// GETTERS
 	// ===================================
@@ -640,6 +673,22 @@ public abstract class BNode implements Comparable<BNode> {
 		}
 	}
 
+	/**
+	 * Returns a lazy enumeration of the possible assignments of input values for
+	 * the node. Contrary to {@link #getPossibleConditions()}, the assignments are
+	 * generated on the fly and are not stored in memory. If the node has no input,
+	 * the enumeration contains a single, empty assignment.
+	 * 
+	 * @return the possible conditions
+	 */
+	public Combinations getConditionCombinations() {
+		ValueRange possibleInputValues = new ValueRange();
+		for (BNode inputNode : inputNodes.values()) {
+			possibleInputValues.addValues(inputNode.getId(), inputNode.getValues());
+		}
+		return possibleInputValues.getCombinations();
+	}
+
 	// ===================================
 	// UTILITIES
 	// ===================================
@@ -58,6 +58,10 @@ public class ChanceNode extends BNode {
 	// a discretisation procedure defined by the distribution
 	protected Set<Value> cachedValues;
 
+	// whether the distribution is shared with a copy of the node (in which case
+	// it must be copied before being modified)
+	boolean sharedDistrib = false;
+
 	// ===================================
 	// NODE CONSTRUCTION
 	// ===================================
@@ -95,10 +99,12 @@ public class ChanceNode extends BNode {
 	 */
 	public void setDistrib(ProbDistribution distrib) {
 		this.distrib = distrib;
+		sharedDistrib = false;
 		if (!distrib.getVariable().equals(nodeId)) {
 			log.warning(nodeId + "  != " + distrib.getVariable());
 		}
 		cachedValues = null;
+		signalChange();
 	}
 
 	/**
@@ -121,7 +127,7 @@ public class ChanceNode extends BNode {
 		// log.fine("changing id from " + this.nodeId + " to " + nodeId);
 		String oldId = nodeId;
 		super.setId(newId);
-		distrib.modifyVariableId(oldId, newId);
+		getDistribForUpdate().modifyVariableId(oldId, newId);
 	}
 
 	/**
@@ -130,8 +136,9 @@ public class ChanceNode extends BNode {
 	 * @param threshold the probability threshold
 	 */
 	public void pruneValues(double threshold) {
-		if (distrib.pruneValues(threshold)) {
+		if (getDistribForUpdate().pruneValues(threshold)) {
 			cachedValues = null;
+			signalChange();
 		}
 	}
 
@@ -164,9 +171,8 @@ public class ChanceNode extends BNode {
 
 		// log.fine("Must marginalise to compute P(" + nodeId + "="+ nodeValue
 		// + ")");
-		Set<Assignment> combinations = getPossibleConditions();
 		double totalProb = 0.0;
-		for (Assignment combi : combinations) {
+		for (Assignment combi : getConditionCombinations()) {
 			double prob = 1.0;
 			for (BNode inputNode : inputNodes.values()) {
 				if (inputNode instanceof ChanceNode) {
@@ -279,6 +285,21 @@ public class ChanceNode extends BNode {
 		return distrib;
 	}
 
+	/**
+	 * Returns the probability distribution attached to the node, in order to modify
+	 * it in place. If the distribution is shared with a copy of the node, it is
+	 * first copied.
+	 * 
+	 * @return the (unshared) distribution
+	 */
+	public ProbDistribution getDistribForUpdate() {
+		if (sharedDistrib) {
+			distrib = distrib.copy();
+			sharedDistrib = false;
+		}
+		return distrib;
+	}
+
 	/**
 	 * Returns the "factor matrix" mapping assignments of conditional variables + the
 	 * node variable to a probability value.
@@ -290,8 +311,7 @@ public class ChanceNode extends BNode {
 
 		Map<Assignment, Double> factor = new HashMap<Assignment, Double>();
 
-		Set<Assignment> combinations = getPossibleConditions();
-		for (Assignment combination : combinations) {
+		for (Assignment combination : getConditionCombinations()) {
 
 			IndependentDistribution posterior = distrib.getProbDistrib(combination);
 			for (Value value : posterior.getValues()) {
@@ -308,13 +328,16 @@ public class ChanceNode extends BNode {
 
 	/**
 	 * Returns a copy of the node. Note that only the node content is copied, not its
-	 * connection with other nodes.
+	 * connection with other nodes. The distribution is shared between the node and
+	 * its copy until one of them modifies it (copy-on-write).
 	 *
 	 * @return the copy
 	 */
 	@Override
 	public ChanceNode copy() {
-		ChanceNode cn = new ChanceNode(nodeId, distrib.copy());
+		ChanceNode cn = new ChanceNode(nodeId, distrib);
+		cn.sharedDistrib = true;
+		sharedDistrib = true;
 		if (cachedValues != null) {
 			cn.cachedValues = new HashSet<Value>(cachedValues);
 		}
@@ -347,7 +370,7 @@ public class ChanceNode extends BNode {
 	@Override
 	protected void modifyVariableId(String oldId, String newId) {
 		super.modifyVariableId(oldId, newId);
-		distrib.modifyVariableId(oldId, newId);
+		getDistribForUpdate().modifyVariableId(oldId, newId);
 	}
 
 }
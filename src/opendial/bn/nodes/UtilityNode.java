@@ -49,6 +49,10 @@ public class UtilityNode extends BNode {
 	// the utility distribution
 	protected UtilityFunction distrib;
 
+	// whether the distribution is shared with a copy of the node (in which case
+	// it must be copied before being modified)
+	boolean sharedDistrib = false;
+
 	// ===================================
 	// NODE CONSTRUCTION
 	// ===================================
@@ -83,7 +87,8 @@ public class UtilityNode extends BNode {
 	 */
 	public void addUtility(Assignment input, double value) {
 		if (distrib instanceof UtilityTable) {
-			((UtilityTable) distrib).setUtil(input, value);
+			((UtilityTable) getDistribForUpdate()).setUtil(input, value);
+			signalChange();
 		}
 		else {
 			log.warning("utility distribution is not a table, cannot add value");
@@ -97,7 +102,8 @@ public class UtilityNode extends BNode {
 	 */
 	public void removeUtility(Assignment input) {
 		if (distrib instanceof UtilityTable) {
-			((UtilityTable) distrib).removeUtil(input);
+			((UtilityTable) getDistribForUpdate()).removeUtil(input);
+			signalChange();
 		}
 		else {
 			log.warning("utility distribution is not a table, cannot remove value");
@@ -106,12 +112,14 @@ public class UtilityNode extends BNode {
 
 	public void setDistrib(UtilityFunction distrib) {
 		this.distrib = distrib;
+		sharedDistrib = false;
+		signalChange();
 	}
 
 	@Override
 	public void setId(String newId) {
 		super.setId(newId);
-		distrib.modifyVariableId(this.nodeId, newId);
+		getDistribForUpdate().modifyVariableId(this.nodeId, newId);
 	}
 
 	// ===================================
@@ -148,6 +156,20 @@ public class UtilityNode extends BNode {
 		return distrib;
 	}
 
+	/**
+	 * Returns the utility distribution, in order to modify it in place. If the
+	 * distribution is shared with a copy of the node, it is first copied.
+	 * 
+	 * @return the (unshared) utility distribution
+	 */
+	public UtilityFunction getDistribForUpdate() {
+		if (sharedDistrib) {
+			distrib = distrib.copy();
+			sharedDistrib = false;
+		}
+		return distrib;
+	}
+
 	/**
 	 * Returns the factor matrix associated with the utility node, which maps an
 	 * assignment of input variable to a given utility.
@@ -159,8 +181,7 @@ public class UtilityNode extends BNode {
 
 		Map<Assignment, Double> factor = new HashMap<Assignment, Double>();
 
-		Set<Assignment> combinations = getPossibleConditions();
-		for (Assignment combination : combinations) {
+		for (Assignment combination : getConditionCombinations()) {
 			factor.put(combination, distrib.getUtil(combination));
 		}
 		return factor;
@@ -172,13 +193,16 @@ public class UtilityNode extends BNode {
 
 	/**
 	 * Returns a copy of the utility node. Note that only the node content is copied,
-	 * not its connection with other nodes.
+	 * not its connection with other nodes. The utility distribution is shared
+	 * between the node and its copy until one of them modifies it.
 	 * 
 	 * @return the copy
 	 */
 	@Override
 	public UtilityNode copy() {
-		UtilityNode copy = new UtilityNode(nodeId, distrib.copy());
+		UtilityNode copy = new UtilityNode(nodeId, distrib);
+		copy.sharedDistrib = true;
+		sharedDistrib = true;
 		return copy;
 	}
 
@@ -69,7 +69,7 @@ public final class BooleanVal implements Value {
 	 */
 	@Override
 	public boolean equals(Object o) {
-		return (o instanceof BooleanVal
+		return o == this || (o instanceof BooleanVal
 				&& ((BooleanVal) o).getBoolean() == getBoolean());
 	}
 
@@ -89,7 +89,7 @@ public final class BooleanVal implements Value {
 	 */
 	@Override
 	public BooleanVal copy() {
-		return new BooleanVal(b);
+		return ValueFactory.create(b);
 	}
 
 	/**
@@ -119,7 +119,7 @@ public final class BooleanVal implements Value {
 	@Override
 	public Value concatenate(Value v) {
 		if (v instanceof BooleanVal) {
-			return new BooleanVal(b & ((BooleanVal) v).getBoolean());
+			return ValueFactory.create(b & ((BooleanVal) v).getBoolean());
 		}
 		else if (v instanceof NoneVal) {
 			return this;
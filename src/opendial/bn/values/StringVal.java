@@ -74,6 +74,9 @@ public final class StringVal implements Value {
 	 */
 	@Override
 	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
 		if (o instanceof StringVal) {
 			StringVal stringval = (StringVal) o;
 			if (stringval.str.equalsIgnoreCase(str)) {
@@ -48,15 +48,37 @@ public class ValueFactory {
 	// none value (no need to recreate one everytime)
 	static final NoneVal noneValue = new NoneVal();
 
+	// canonical boolean values
+	static final BooleanVal trueValue = new BooleanVal(true);
+	static final BooleanVal falseValue = new BooleanVal(false);
+
+	// range of integer values for which a canonical double value is kept
+	static final int MIN_CACHED_INT = -128;
+	static final int MAX_CACHED_INT = 1024;
+
+	// canonical double values for small integers
+	static final DoubleVal[] intValues =
+			new DoubleVal[MAX_CACHED_INT - MIN_CACHED_INT + 1];
+
+	static {
+		for (int i = 0; i < intValues.length; i++) {
+			intValues[i] = new DoubleVal(i + MIN_CACHED_INT);
+		}
+	}
+
+	// number of bits for the slots of the intern table
+	static final int INTERN_BITS = 14;
+
+	// intern table for the values created from strings. The table is
+	// direct-mapped (each string has a single slot, determined by its hash code),
+	// which bounds its size and avoids any locking: concurrent writes to the same
+	// slot simply replace each other. Only immutable values are stored.
+	static final InternedValue[] internTable = new InternedValue[1 << INTERN_BITS];
+
 	// pattern to find a double value
 	public static Pattern doublePattern =
 			Pattern.compile("[-+]?[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?");
 
-	// pattern to find an array of doubles
-	static Pattern arrayPattern =
-			Pattern.compile("\\[([-+]?[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?,\\s*)*"
-					+ "([-+]?[0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?)\\]");
-
 	static Pattern setPattern = Pattern.compile(
 			"[/\\w\\-_\\.\\^\\=\\s]*"
 					+ "([\\[\\(][/\\w\\-_,\\.\\^\\=\\s\\(]+\\)*[\\]\\)])?",
@@ -76,30 +98,107 @@ public class ValueFactory {
 			return noneValue;
 		}
 
-		Matcher m = doublePattern.matcher(str);
-		if (m.matches()) {
-			return new DoubleVal(Double.parseDouble(str));
+		// looking up the intern table
+		int slot = (str.hashCode() * 0x9E3779B9) >>> (32 - INTERN_BITS);
+		InternedValue interned = internTable[slot];
+		if (interned != null && interned.str.equals(str)) {
+			return interned.value;
+		}
+
+		Value value = parse(str);
+		if (value instanceof StringVal || value instanceof DoubleVal
+				|| value instanceof BooleanVal || value instanceof NoneVal) {
+			internTable[slot] = new InternedValue(str, value);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns true if the substring between the two indices is a numeric value
+	 * (following the syntax of doublePattern), and false otherwise. The method
+	 * simply scans the characters instead of matching a regular expression.
+	 * 
+	 * @param str the string
+	 * @param start the start index (inclusive)
+	 * @param end the end index (exclusive)
+	 * @return true if the substring is a numeric value, false otherwise
+	 */
+	public static boolean isNumeric(String str, int start, int end) {
+		int i = start;
+		if (i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+			i++;
+		}
+		int intStart = i;
+		while (i < end && isDigit(str.charAt(i))) {
+			i++;
+		}
+		int nbIntDigits = i - intStart;
+		if (i < end && str.charAt(i) == '.') {
+			i++;
+			int fracStart = i;
+			while (i < end && isDigit(str.charAt(i))) {
+				i++;
+			}
+			if (i == fracStart) {
+				return false;
+			}
+		}
+		else if (nbIntDigits == 0) {
+			return false;
+		}
+		if (i < end && (str.charAt(i) == 'e' || str.charAt(i) == 'E')) {
+			i++;
+			if (i < end && (str.charAt(i) == '-' || str.charAt(i) == '+')) {
+				i++;
+			}
+			int expStart = i;
+			while (i < end && isDigit(str.charAt(i))) {
+				i++;
+			}
+			if (i == expStart) {
+				return false;
+			}
+		}
+		return i == end;
+	}
+
+	/**
+	 * Creates a new value based on the provided string representation (without
+	 * looking up the intern table).
+	 * 
+	 * @param str the string representation for the value
+	 * @return the resulting value
+	 */
+	private static Value parse(String str) {
+
+		int length = str.length();
+		if (length == 0) {
+			return new StringVal(str);
+		}
+		char first = str.charAt(0);
+		if ((isDigit(first) || first == '-' || first == '+' || first == '.')
+				&& isNumeric(str, 0, length)) {
+			return create(Double.parseDouble(str));
 		}
-		else if (str.equalsIgnoreCase("true")) {
-			return new BooleanVal(true);
+		else if (length == 4 && str.equalsIgnoreCase("true")) {
+			return trueValue;
 		}
-		else if (str.equalsIgnoreCase("false")) {
-			return new BooleanVal(false);
+		else if (length == 5 && str.equalsIgnoreCase("false")) {
+			return falseValue;
 		}
-		else if (str.equalsIgnoreCase("None")) {
+		else if (length == 4 && str.equalsIgnoreCase("None")) {
 			return none();
 		}
 		// adds the converted value
-		else {
-			Matcher m2 = arrayPattern.matcher(str);
-			if (m2.matches()) {
+		else if (first == '[' && str.charAt(length - 1) == ']') {
+			if (isArray(str)) {
 				List<Double> subVals = new ArrayList<Double>();
 				for (String subVal : str.substring(1, str.length() - 1).split(",")) {
 					subVals.add(Double.parseDouble(subVal));
 				}
 				return new ArrayVal(subVals);
 			}
-			else if (str.startsWith("[") && str.endsWith("]")) {
+			else {
 
 				if (Graph.isRelational(str)) {
 					RelationalVal relval = new RelationalVal(str);
@@ -130,6 +229,12 @@ public class ValueFactory {
 	 * @return the value
 	 */
 	public static DoubleVal create(double d) {
+		int i = (int) d;
+		if (i >= MIN_CACHED_INT && i <= MAX_CACHED_INT
+				&& Double.doubleToRawLongBits(d) == Double
+						.doubleToRawLongBits(i)) {
+			return intValues[i - MIN_CACHED_INT];
+		}
 		return new DoubleVal(d);
 	}
 
@@ -144,7 +249,7 @@ public class ValueFactory {
 	 * @return the double
 	 */
 	public static BooleanVal create(boolean b) {
-		return new BooleanVal(b);
+		return (b) ? trueValue : falseValue;
 	}
 
 	/**
@@ -192,4 +297,65 @@ public class ValueFactory {
 			return noneValue;
 		}
 	}
+
+	/**
+	 * Returns true if the string is an array of numeric values, separated by commas
+	 * and enclosed in brackets, and false otherwise.
+	 * 
+	 * @param str the string
+	 * @return true if the string is an array of doubles, false otherwise
+	 */
+	private static boolean isArray(String str) {
+		int end = str.length() - 1;
+		int i = 1;
+		while (true) {
+			int comma = str.indexOf(',', i);
+			int elEnd = (comma < 0 || comma > end) ? end : comma;
+			if (!isNumeric(str, i, elEnd)) {
+				return false;
+			}
+			if (elEnd == end) {
+				return true;
+			}
+			i = elEnd + 1;
+			while (i < end && isWhitespace(str.charAt(i))) {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the character is an (ASCII) digit.
+	 * 
+	 * @param c the character
+	 * @return true if c is a digit, false otherwise
+	 */
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Returns true if the character is a whitespace (as in regular expressions).
+	 * 
+	 * @param c the character
+	 * @return true if c is a whitespace, false otherwise
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f'
+				|| c == '\r';
+	}
+
+	/**
+	 * Entry of the intern table, associating a string to its value.
+	 */
+	static final class InternedValue {
+
+		final String str;
+		final Value value;
+
+		InternedValue(String str, Value value) {
+			this.str = str;
+			this.value = value;
+		}
+	}
 }
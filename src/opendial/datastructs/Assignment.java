@@ -28,7 +28,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -52,8 +51,10 @@ import org.w3c.dom.Element;
  * 
  * <p>
  * Technically, the assignment is encoded as a map between the variable identifiers
- * and their associated value. This class offers various methods are provided for
- * creating, comparing and manipulating such assignments.
+ * and their associated value. This map is a compact array-based structure that is
+ * shared between copies of the assignment until one of them is modified. This
+ * class offers various methods are provided for creating, comparing and
+ * manipulating such assignments.
  *
  * @author Pierre Lison (plison@ifi.uio.no)
  *
@@ -63,7 +64,7 @@ public class Assignment {
 	// logger
 	final static Logger log = Logger.getLogger("OpenDial");
 
-	// the hashmap encoding the assignment
+	// the (compact) map encoding the assignment
 	protected final Map<String, Value> map;
 
 	// the cached value for the hash
@@ -77,7 +78,7 @@ public class Assignment {
 	 * Creates a new, empty assignment
 	 */
 	public Assignment() {
-		map = new HashMap<String, Value>();
+		map = new CompactMap();
 	}
 
 	/**
@@ -86,7 +87,7 @@ public class Assignment {
 	 * @param a the assignment to copy
 	 */
 	public Assignment(Assignment a) {
-		map = new HashMap<String, Value>(a.map);
+		map = new CompactMap(a.map);
 	}
 
 	/**
@@ -96,7 +97,7 @@ public class Assignment {
 	 * @param val the value
 	 */
 	public Assignment(String var, Value val) {
-		map = new HashMap<String, Value>();
+		map = new CompactMap();
 		map.put(var, val);
 	}
 
@@ -564,6 +565,11 @@ public class Assignment {
 		return newAssign;
 	}
 
+	/**
+	 * Returns a new assignment with a prime added to each variable.
+	 * 
+	 * @return a new assignment, with primed variables
+	 */
 	public Assignment addPrimes() {
 		Assignment a = new Assignment();
 		map.entrySet().stream()
@@ -651,18 +657,7 @@ public class Assignment {
 	 * @return a new, trimmed assignment
 	 */
 	public Assignment getTrimmed(Collection<String> variables) {
-		Assignment a = new Assignment();
-		int trimmedHash = 0;
-		for (Entry<String, Value> e : map.entrySet()) {
-			String var = e.getKey();
-			if (variables.contains(var)) {
-				Value val = e.getValue();
-				a.addPair(var, val);
-				trimmedHash += var.hashCode() ^ val.hashCode();
-			}
-		}
-		a.cachedHash = trimmedHash;
-		return a;
+		return filterVars(variables, true);
 	}
 
 	/**
@@ -673,18 +668,7 @@ public class Assignment {
 	 * @return a new, pruned assignment
 	 */
 	public Assignment getPruned(Collection<String> variables) {
-		Assignment a = new Assignment();
-		int trimmedHash = 0;
-		for (Entry<String, Value> e : map.entrySet()) {
-			String var = e.getKey();
-			if (!variables.contains(var)) {
-				Value val = e.getValue();
-				a.addPair(var, val);
-				trimmedHash += var.hashCode() ^ val.hashCode();
-			}
-		}
-		a.cachedHash = trimmedHash;
-		return a;
+		return filterVars(variables, false);
 	}
 
 	/**
@@ -800,15 +784,15 @@ public class Assignment {
 	 */
 	public boolean consistentWith(Assignment a) {
 
-		Map<String, Value> firstMap = (a.size() < map.size()) ? a.map : map;
-		Map<String, Value> secondMap = (a.size() < map.size()) ? map : a.map;
+		CompactMap firstMap = (CompactMap) ((a.size() < map.size()) ? a.map : map);
+		CompactMap secondMap = (CompactMap) ((a.size() < map.size()) ? map : a.map);
 
-		for (String evidenceVar : firstMap.keySet()) {
-			Value v2 = secondMap.get(evidenceVar);
+		for (int i = 0; i < firstMap.size; i++) {
+			Value v2 = secondMap.get(firstMap.keys[i]);
 			if (v2 == null) {
 				continue;
 			}
-			Value v1 = firstMap.get(evidenceVar);
+			Value v1 = firstMap.vals[i];
 			if (!v1.equals(v2)) {
 				return false;
 			}
@@ -861,6 +845,31 @@ public class Assignment {
 		return false;
 	}
 
+	/**
+	 * Returns a new assignment with the pairs whose variable is (or is not)
+	 * included in the given collection.
+	 * 
+	 * @param variables the variables
+	 * @param included whether to retain the included or excluded variables
+	 * @return the new assignment
+	 */
+	private Assignment filterVars(Collection<String> variables, boolean included) {
+		CompactMap compact = (CompactMap) map;
+		Assignment a = new Assignment();
+		CompactMap filtered = (CompactMap) a.map;
+		int filteredHash = 0;
+		for (int i = 0; i < compact.size; i++) {
+			String var = compact.keys[i];
+			if (variables.contains(var) == included) {
+				Value val = compact.vals[i];
+				filtered.put(var, val);
+				filteredHash += compact.hashes[i] ^ val.hashCode();
+			}
+		}
+		a.cachedHash = filteredHash;
+		return a;
+	}
+
 	// ===================================
 	// UTILITY FUNCTIONS
 	// ===================================
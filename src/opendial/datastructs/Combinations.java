@@ -0,0 +1,270 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.datastructs;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import opendial.bn.values.Value;
+
+/**
+ * Lazy enumeration of all possible assignment combinations for a set of variables,
+ * each variable being associated with a set of alternative values. Contrary to
+ * {@link ValueRange#linearise()}, the combinations are never stored in memory:
+ * they are generated one by one while iterating, and can therefore be consumed
+ * and discarded on the fly.
+ * 
+ * <p>
+ * An optional filter can be provided to prune the enumeration. The filter is
+ * applied to the partial assignments as soon as a new variable is bound, and all
+ * combinations extending a rejected partial assignment are skipped. The filter
+ * must therefore only reject a partial assignment if none of its extensions
+ * should be produced.
+ * 
+ * <p>
+ * The values of the variables are copied at construction time, so that the
+ * original range can be modified while iterating. Each call to the iterator
+ * produces a new assignment object.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class Combinations implements Iterable<Assignment> {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// the variables to combine
+	final String[] vars;
+
+	// the alternative values for each variable
+	final Value[][] values;
+
+	// the filter on partial assignments (null if none)
+	final Predicate<Assignment> filter;
+
+	// ===================================
+	// CONSTRUCTION
+	// ===================================
+
+	/**
+	 * Creates the combinations for the given mapping between variables and sets of
+	 * values.
+	 * 
+	 * @param valuesMatrix the set of values to combine
+	 */
+	public Combinations(Map<String, Set<Value>> valuesMatrix) {
+		this(valuesMatrix, null);
+	}
+
+	/**
+	 * Creates the combinations for the given mapping between variables and sets of
+	 * values, pruned by the filter.
+	 * 
+	 * @param valuesMatrix the set of values to combine
+	 * @param filter the filter on partial assignments (null if none)
+	 */
+	public Combinations(Map<String, Set<Value>> valuesMatrix,
+			Predicate<Assignment> filter) {
+		vars = new String[valuesMatrix.size()];
+		values = new Value[valuesMatrix.size()][];
+		int i = 0;
+		for (Map.Entry<String, Set<Value>> entry : valuesMatrix.entrySet()) {
+			vars[i] = entry.getKey();
+			values[i] = entry.getValue().toArray(new Value[entry.getValue().size()]);
+			i++;
+		}
+		this.filter = filter;
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns the number of combinations (ignoring the filter).
+	 * 
+	 * @return the number of combinations
+	 */
+	public long size() {
+		long size = 1;
+		for (Value[] vals : values) {
+			size *= vals.length;
+		}
+		return size;
+	}
+
+	/**
+	 * Returns a new iterator over the combinations.
+	 * 
+	 * @return the iterator
+	 */
+	@Override
+	public Iterator<Assignment> iterator() {
+		return new CombinationIterator();
+	}
+
+	/**
+	 * Returns a spliterator over the combinations. The spliterator is sized if no
+	 * filter is defined.
+	 * 
+	 * @return the spliterator
+	 */
+	@Override
+	public Spliterator<Assignment> spliterator() {
+		int characteristics = Spliterator.DISTINCT | Spliterator.NONNULL;
+		if (filter == null) {
+			return Spliterators.spliterator(iterator(), size(), characteristics);
+		}
+		return Spliterators.spliteratorUnknownSize(iterator(), characteristics);
+	}
+
+	/**
+	 * Returns a (sequential) stream over the combinations.
+	 * 
+	 * @return the stream of combinations
+	 */
+	public Stream<Assignment> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Returns a string representation of the combinations
+	 */
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder("combinations of {");
+		for (int i = 0; i < vars.length; i++) {
+			str.append((i > 0) ? ", " : "").append(vars[i]).append("=")
+					.append(Arrays.toString(values[i]));
+		}
+		return str.append("}").toString();
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Creates a new assignment with the first k variables bound to their current
+	 * values.
+	 * 
+	 * @param indices the current indices of the values
+	 * @param k the number of variables to bind
+	 * @return the corresponding assignment
+	 */
+	private Assignment createAssignment(int[] indices, int k) {
+		Assignment a = new Assignment();
+		for (int i = 0; i < k; i++) {
+			a.addPair(vars[i], values[i][indices[i]]);
+		}
+		return a;
+	}
+
+	/**
+	 * Depth-first iterator over the combinations.
+	 */
+	final class CombinationIterator implements Iterator<Assignment> {
+
+		// current index of the value for each variable
+		final int[] indices = new int[vars.length];
+
+		// variable currently being bound (-1 when the enumeration is over)
+		int depth = 0;
+
+		// next combination to return (null if not yet computed)
+		Assignment next;
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				next = findNext();
+			}
+			return next != null;
+		}
+
+		@Override
+		public Assignment next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Assignment result = next;
+			next = null;
+			return result;
+		}
+
+		/**
+		 * Moves to the next accepted combination and returns it, or returns null if
+		 * the enumeration is over.
+		 * 
+		 * @return the next combination (or null)
+		 */
+		private Assignment findNext() {
+
+			// special case: no variable, single empty combination
+			if (vars.length == 0) {
+				Assignment empty = null;
+				if (depth == 0 && (filter == null || filter.test(new Assignment()))) {
+					empty = new Assignment();
+				}
+				depth = -1;
+				return empty;
+			}
+
+			while (depth >= 0) {
+				if (indices[depth] >= values[depth].length) {
+					depth--;
+					if (depth >= 0) {
+						indices[depth]++;
+					}
+				}
+				else if (depth == vars.length - 1) {
+					Assignment combination = createAssignment(indices, vars.length);
+					indices[depth]++;
+					if (filter == null || filter.test(combination)) {
+						return combination;
+					}
+				}
+				else if (filter != null
+						&& !filter.test(createAssignment(indices, depth + 1))) {
+					indices[depth]++;
+				}
+				else {
+					depth++;
+					indices[depth] = 0;
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,469 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.datastructs;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+
+/**
+ * Compact map between variable labels and values, used as internal representation
+ * of assignments. The pairs are stored in parallel arrays sorted by the hash code
+ * of the variable labels, which is much lighter than a hash map for the small
+ * assignments (with a handful of pairs) that dominate inference.
+ * 
+ * <p>
+ * Copies share their arrays with the original map until one of them is modified
+ * (copy-on-write), such that copying an assignment is a constant-time operation.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+class CompactMap extends AbstractMap<String, Value> {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// initial capacity of the arrays
+	static final int INITIAL_CAPACITY = 4;
+
+	// hash codes of the variable labels (in increasing order)
+	int[] hashes;
+
+	// variable labels
+	String[] keys;
+
+	// values
+	Value[] vals;
+
+	// number of pairs
+	int size;
+
+	// whether the arrays are shared with another map
+	volatile boolean shared;
+
+	// ===================================
+	// CONSTRUCTION
+	// ===================================
+
+	/**
+	 * Creates a new, empty map
+	 */
+	CompactMap() {
+		hashes = new int[INITIAL_CAPACITY];
+		keys = new String[INITIAL_CAPACITY];
+		vals = new Value[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Creates a new map with the same pairs as the map given as argument.
+	 * 
+	 * @param map the map to copy
+	 */
+	CompactMap(Map<String, Value> map) {
+		if (map instanceof CompactMap) {
+			share((CompactMap) map);
+		}
+		else {
+			int capacity = Math.max(INITIAL_CAPACITY, map.size());
+			hashes = new int[capacity];
+			keys = new String[capacity];
+			vals = new Value[capacity];
+			putAll(map);
+		}
+	}
+
+	/**
+	 * Returns a copy of the map, sharing its arrays with the current map until one
+	 * of them is modified.
+	 * 
+	 * @return the copy
+	 */
+	CompactMap copy() {
+		return new CompactMap(this);
+	}
+
+	// ===================================
+	// MAP METHODS
+	// ===================================
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public Value get(Object key) {
+		int i = indexOf(key);
+		return (i >= 0) ? vals[i] : null;
+	}
+
+	@Override
+	public Value getOrDefault(Object key, Value defaultValue) {
+		int i = indexOf(key);
+		return (i >= 0) ? vals[i] : defaultValue;
+	}
+
+	@Override
+	public Value put(String key, Value val) {
+		int i = indexOf(key);
+		unshare(size + ((i >= 0) ? 0 : 1));
+		if (i >= 0) {
+			Value old = vals[i];
+			vals[i] = val;
+			return old;
+		}
+		i = -(i + 1);
+		int nbToMove = size - i;
+		if (nbToMove > 0) {
+			System.arraycopy(hashes, i, hashes, i + 1, nbToMove);
+			System.arraycopy(keys, i, keys, i + 1, nbToMove);
+			System.arraycopy(vals, i, vals, i + 1, nbToMove);
+		}
+		hashes[i] = key.hashCode();
+		keys[i] = key;
+		vals[i] = val;
+		size++;
+		return null;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends Value> map) {
+		if (size == 0 && map instanceof CompactMap) {
+			share((CompactMap) map);
+			return;
+		}
+		for (Map.Entry<? extends String, ? extends Value> e : map.entrySet()) {
+			put(e.getKey(), e.getValue());
+		}
+	}
+
+	@Override
+	public Value remove(Object key) {
+		int i = indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		Value old = vals[i];
+		unshare(size);
+		removeAt(i);
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		if (shared) {
+			hashes = new int[INITIAL_CAPACITY];
+			keys = new String[INITIAL_CAPACITY];
+			vals = new Value[INITIAL_CAPACITY];
+			shared = false;
+		}
+		else {
+			Arrays.fill(keys, 0, size, null);
+			Arrays.fill(vals, 0, size, null);
+		}
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Value>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Value>>() {
+			@Override
+			public Iterator<Map.Entry<String, Value>> iterator() {
+				return new PairIterator<Map.Entry<String, Value>>() {
+					@Override
+					Map.Entry<String, Value> get(int i) {
+						return new AbstractMap.SimpleImmutableEntry<String, Value>(
+								keys[i], vals[i]);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new PairIterator<String>() {
+					@Override
+					String get(int i) {
+						return keys[i];
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public boolean remove(Object o) {
+				int i = indexOf(o);
+				if (i < 0) {
+					return false;
+				}
+				unshare(size);
+				removeAt(i);
+				return true;
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	@Override
+	public Collection<Value> values() {
+		return new AbstractCollection<Value>() {
+			@Override
+			public Iterator<Value> iterator() {
+				return new PairIterator<Value>() {
+					@Override
+					Value get(int i) {
+						return vals[i];
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the hash code of the map, which (as for any map) is the sum of the
+	 * hash codes of the pairs.
+	 * 
+	 * @return the hash code
+	 */
+	@Override
+	public int hashCode() {
+		int hash = 0;
+		for (int i = 0; i < size; i++) {
+			hash += hashes[i] ^ ((vals[i] != null) ? vals[i].hashCode() : 0);
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns true if the object is a map with the same pairs.
+	 * 
+	 * @param o the object to compare
+	 * @return true if the maps are equal, false otherwise
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof CompactMap)) {
+			return super.equals(o);
+		}
+		CompactMap other = (CompactMap) o;
+		if (other.size != size) {
+			return false;
+		}
+		if (other.keys == keys) {
+			return true;
+		}
+		for (int i = 0; i < size; i++) {
+			if (other.hashes[i] != hashes[i]) {
+				return false;
+			}
+			int j = other.indexOf(keys[i], hashes[i]);
+			if (j < 0) {
+				return false;
+			}
+			Value v1 = vals[i];
+			Value v2 = other.vals[j];
+			if ((v1 == null) ? v2 != null : !v1.equals(v2)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the index of the key in the arrays if it is present. Else, returns
+	 * -(insertion point + 1).
+	 * 
+	 * @param key the key to search
+	 * @return the index of the key
+	 */
+	private int indexOf(Object key) {
+		if (!(key instanceof String)) {
+			return -1;
+		}
+		return indexOf((String) key, key.hashCode());
+	}
+
+	/**
+	 * Returns the index of the key with the given hash code in the arrays if it is
+	 * present. Else, returns -(insertion point + 1).
+	 * 
+	 * @param key the key to search
+	 * @param hash the hash code of the key
+	 * @return the index of the key
+	 */
+	private int indexOf(String key, int hash) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (hashes[mid] < hash) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		int i = low;
+		for (; i < size && hashes[i] == hash; i++) {
+			if (keys[i] == key || keys[i].equals(key)) {
+				return i;
+			}
+		}
+		return -(i + 1);
+	}
+
+	/**
+	 * Removes the pair at the given index (the arrays must not be shared).
+	 * 
+	 * @param i the index
+	 */
+	private void removeAt(int i) {
+		int nbToMove = size - i - 1;
+		if (nbToMove > 0) {
+			System.arraycopy(hashes, i + 1, hashes, i, nbToMove);
+			System.arraycopy(keys, i + 1, keys, i, nbToMove);
+			System.arraycopy(vals, i + 1, vals, i, nbToMove);
+		}
+		size--;
+		keys[size] = null;
+		vals[size] = null;
+	}
+
+	/**
+	 * Shares the arrays of the map given as argument.
+	 * 
+	 * @param map the map
+	 */
+	private void share(CompactMap map) {
+		map.shared = true;
+		hashes = map.hashes;
+		keys = map.keys;
+		vals = map.vals;
+		size = map.size;
+		shared = true;
+	}
+
+	/**
+	 * Ensures that the arrays are not shared with any other map and can hold the
+	 * given number of pairs.
+	 * 
+	 * @param capacity the required capacity
+	 */
+	private void unshare(int capacity) {
+		if (!shared && capacity <= keys.length) {
+			return;
+		}
+		int newCapacity = (capacity <= keys.length) ? keys.length
+				: Math.max(capacity, keys.length * 2);
+		hashes = Arrays.copyOf(hashes, newCapacity);
+		keys = Arrays.copyOf(keys, newCapacity);
+		vals = Arrays.copyOf(vals, newCapacity);
+		shared = false;
+	}
+
+	/**
+	 * Iterator over the pairs of the map, supporting removals.
+	 */
+	abstract class PairIterator<T> implements Iterator<T> {
+
+		int next = 0;
+		int last = -1;
+
+		abstract T get(int i);
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public T next() {
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return get(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			unshare(size);
+			removeAt(last);
+			next = last;
+			last = -1;
+		}
+	}
+}
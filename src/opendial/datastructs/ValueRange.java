@@ -31,6 +31,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.OptionalInt;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import opendial.bn.values.Value;
@@ -153,6 +154,29 @@ public class ValueRange {
 		return InferenceUtils.getAllCombinations(range);
 	}
 
+	/**
+	 * Returns a lazy enumeration of the alternative assignments of values for the
+	 * variables in the range. The assignments are generated on the fly while
+	 * iterating, instead of being stored in memory as in {@link #linearise()}.
+	 * 
+	 * @return the combinations of values
+	 */
+	public Combinations getCombinations() {
+		return new Combinations(range);
+	}
+
+	/**
+	 * Returns a lazy enumeration of the alternative assignments of values for the
+	 * variables in the range, pruned by the filter (applied to partial
+	 * assignments, see {@link Combinations}).
+	 * 
+	 * @param filter the filter on partial assignments
+	 * @return the combinations of values
+	 */
+	public Combinations getCombinations(Predicate<Assignment> filter) {
+		return new Combinations(range, filter);
+	}
+
 	/**
 	 * Returns the estimated number (higher bound) of combinations for the value
 	 * range.
@@ -26,6 +26,7 @@ package opendial.domains;
 import java.io.File;
 import java.util.logging.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -58,6 +59,9 @@ public class Domain {
 	// list of models
 	List<Model> models;
 
+	// index over the model triggers (created on demand)
+	volatile TriggerIndex triggerIndex;
+
 	// settings
 	Settings settings;
 
@@ -167,6 +171,24 @@ public class Domain {
 		return models;
 	}
 
+	/**
+	 * Returns the models that are triggered by the updated variables, in their
+	 * order in the domain. The result is equivalent to selecting the models for
+	 * which {@link Model#isTriggered(Collection)} is true, but relies on an index
+	 * over the model triggers.
+	 * 
+	 * @param updatedVars the updated variables
+	 * @return the triggered models
+	 */
+	public List<Model> getTriggeredModels(Collection<String> updatedVars) {
+		TriggerIndex index = triggerIndex;
+		if (index == null || !index.isValid(models)) {
+			index = new TriggerIndex(models);
+			triggerIndex = index;
+		}
+		return index.getTriggeredModels(updatedVars);
+	}
+
 	/**
 	 * Replaces the domain-specific settings
 	 * 
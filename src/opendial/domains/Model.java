@@ -63,6 +63,10 @@ public class Model {
 	// collection of rules for the model
 	Collection<Rule> rules;
 
+	// number of changes to the triggers and rules (used to detect outdated
+	// trigger indices)
+	int revision = 0;
+
 	// ===================================
 	// MODEL CONSTRUCTION
 	// ===================================
@@ -99,6 +103,7 @@ public class Model {
 	 */
 	public void addTrigger(String trigger) {
 		triggers.add(Template.create(trigger));
+		revision++;
 	}
 
 	/**
@@ -119,6 +124,7 @@ public class Model {
 	 */
 	public void addRule(Rule rule) {
 		rules.add(rule);
+		revision++;
 	}
 
 	/**
@@ -0,0 +1,230 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.domains;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import opendial.templates.StringTemplate;
+import opendial.templates.Template;
+
+/**
+ * Index over the triggers of the models in a domain, used to determine which
+ * models are triggered by a set of updated variables without matching every
+ * trigger against every variable. Triggers that are plain strings are stored in a
+ * hash table (indexed by their lower-case form, since the matching ignores case).
+ * The other triggers (regular expressions, relational or functional templates)
+ * are stored in a prefix tree according to their literal prefix, such that only
+ * the triggers whose prefix is compatible with the variable need to be matched.
+ * 
+ * <p>
+ * The index is a snapshot of the models at the time of its creation, and must be
+ * recreated when the models, their triggers or their rules change (see
+ * {@link #isValid(List)}).
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+final class TriggerIndex {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// the indexed models, in their order in the domain
+	final Model[] models;
+
+	// the revisions of the models when the index was created
+	final int[] revisions;
+
+	// models associated with each plain string trigger (in normalised form)
+	final Map<String, BitSet> exactTriggers;
+
+	// root of the prefix tree for the other triggers
+	final PrefixNode root;
+
+	/**
+	 * Creates the trigger index for the list of models. The models that do not
+	 * contain any rule are excluded from the index, since they cannot be
+	 * triggered.
+	 * 
+	 * @param models the models
+	 */
+	TriggerIndex(List<Model> models) {
+		this.models = models.toArray(new Model[models.size()]);
+		revisions = new int[this.models.length];
+		exactTriggers = new HashMap<String, BitSet>();
+		root = new PrefixNode();
+		for (int i = 0; i < this.models.length; i++) {
+			Model model = this.models[i];
+			revisions[i] = model.revision;
+			if (model.rules.isEmpty()) {
+				continue;
+			}
+			for (Template trigger : model.triggers) {
+				if (trigger instanceof StringTemplate) {
+					exactTriggers.computeIfAbsent(normalise(trigger.toString()),
+							s -> new BitSet()).set(i);
+				}
+				else {
+					root.add(trigger.getLiteralPrefix(), trigger, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the index is still valid for the list of models (that is, if
+	 * the list contains the same models, in the same order, and none of them has
+	 * been modified since the creation of the index).
+	 * 
+	 * @param currentModels the current list of models
+	 * @return true if the index is valid, false otherwise
+	 */
+	boolean isValid(List<Model> currentModels) {
+		if (currentModels.size() != models.length) {
+			return false;
+		}
+		int i = 0;
+		for (Model model : currentModels) {
+			if (model != models[i] || model.revision != revisions[i]) {
+				return false;
+			}
+			i++;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the models that are triggered by at least one of the updated
+	 * variables, in their order in the domain.
+	 * 
+	 * @param updatedVars the updated variables
+	 * @return the triggered models
+	 */
+	List<Model> getTriggeredModels(Collection<String> updatedVars) {
+		BitSet triggered = new BitSet(models.length);
+		List<TriggerEntry> candidates = new ArrayList<TriggerEntry>();
+		for (String updatedVar : updatedVars) {
+			String normalised = normalise(updatedVar.trim());
+			BitSet exact = exactTriggers.get(normalised);
+			if (exact != null) {
+				triggered.or(exact);
+			}
+			candidates.clear();
+			root.collect(normalised, candidates);
+			for (TriggerEntry entry : candidates) {
+				if (!triggered.get(entry.model)
+						&& entry.trigger.match(updatedVar).isMatching()) {
+					triggered.set(entry.model);
+				}
+			}
+		}
+		List<Model> result = new ArrayList<Model>(triggered.cardinality());
+		for (int i = triggered.nextSetBit(0); i >= 0; i =
+				triggered.nextSetBit(i + 1)) {
+			result.add(models[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Normalises the string for case-insensitive comparisons (with the same
+	 * semantics as String.equalsIgnoreCase).
+	 * 
+	 * @param str the string
+	 * @return the normalised string
+	 */
+	static String normalise(String str) {
+		StringBuilder builder = new StringBuilder(str.length());
+		for (int i = 0; i < str.length(); i++) {
+			builder.append(
+					Character.toLowerCase(Character.toUpperCase(str.charAt(i))));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Trigger associated with the index of its model
+	 */
+	static final class TriggerEntry {
+
+		final Template trigger;
+		final int model;
+
+		TriggerEntry(Template trigger, int model) {
+			this.trigger = trigger;
+			this.model = model;
+		}
+	}
+
+	/**
+	 * Node of the prefix tree, with the triggers whose literal prefix ends at this
+	 * node.
+	 */
+	static final class PrefixNode {
+
+		final Map<Character, PrefixNode> children =
+				new HashMap<Character, PrefixNode>();
+
+		final List<TriggerEntry> entries = new ArrayList<TriggerEntry>();
+
+		/**
+		 * Adds a trigger to the subtree, at the position of its prefix
+		 * 
+		 * @param prefix the literal prefix (in lower case)
+		 * @param trigger the trigger
+		 * @param model the model index
+		 */
+		void add(String prefix, Template trigger, int model) {
+			PrefixNode node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.children.computeIfAbsent(prefix.charAt(i),
+						c -> new PrefixNode());
+			}
+			node.entries.add(new TriggerEntry(trigger, model));
+		}
+
+		/**
+		 * Collects the triggers whose literal prefix is a prefix of the string
+		 * 
+		 * @param str the string (in normalised form)
+		 * @param result the list in which to add the triggers
+		 */
+		void collect(String str, List<TriggerEntry> result) {
+			PrefixNode node = this;
+			result.addAll(node.entries);
+			for (int i = 0; i < str.length() && node != null; i++) {
+				node = node.children.get(str.charAt(i));
+				if (node != null) {
+					result.addAll(node.entries);
+				}
+			}
+		}
+	}
+}
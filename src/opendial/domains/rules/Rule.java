@@ -25,9 +25,9 @@ package opendial.domains.rules;
 
 import java.util.logging.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 import java.util.Collection;
 import java.util.stream.Collector;
@@ -40,6 +40,7 @@ import opendial.domains.rules.effects.Effect;
 import opendial.domains.rules.parameters.FixedParameter;
 import opendial.domains.rules.parameters.Parameter;
 import opendial.templates.Template;
+import opendial.utils.RandomUtils;
 
 /**
  * Generic representation of a probabilistic rule, with an identifier and an ordered
@@ -58,6 +59,15 @@ public class Rule {
 	// ordered list of cases
 	List<RuleCase> cases;
 
+	// the input variables of the rule (computed on demand)
+	volatile Set<Template> inputVariables;
+
+	// cache of the outputs computed for given input assignments
+	final RuleOutputCache outputCache;
+
+	// whether the rule generates random values (and can therefore not be cached)
+	boolean stochastic = false;
+
 	public enum RuleType {
 		PROB, UTIL
 	}
@@ -79,6 +89,7 @@ public class Rule {
 		this.id = id;
 		this.ruleType = ruleType;
 		cases = new ArrayList<RuleCase>();
+		outputCache = new RuleOutputCache();
 	}
 
 	/**
@@ -106,6 +117,11 @@ public class Rule {
 			}
 		}
 		cases.add(new RuleCase(condition, output));
+		for (Effect e : output.getEffects()) {
+			stochastic = stochastic || !e.getRandomsToGenerate().isEmpty();
+		}
+		inputVariables = null;
+		outputCache.clear();
 	}
 
 	// ===================================
@@ -125,21 +141,21 @@ public class Rule {
 
 	/**
 	 * Returns the input variables (possibly underspecified, with slots to fill) for
-	 * the rule
+	 * the rule. The set is computed upon the first call, and recomputed after the
+	 * addition of a new case.
 	 * 
-	 * @return the set of labels for the input variables
+	 * @return the (unmodifiable) set of labels for the input variables
 	 */
 	public Set<Template> getInputVariables() {
-		Set<Template> inputVars = new HashSet<Template>();
-		for (RuleCase c : cases) {
-			// log.info("slot in rulecase is " + c.getInputVariables() + "; ");
-			inputVars.addAll(c.getInputVariables());
-		}
-		/* for (Template t : inputVars) {
-			log.info("getInputVariables() t is " + t.toString());
+		Set<Template> inputVars = inputVariables;
+		if (inputVars == null) {
+			inputVars = new HashSet<Template>();
+			for (RuleCase c : cases) {
+				inputVars.addAll(c.getInputVariables());
+			}
+			inputVars = Collections.unmodifiableSet(inputVars);
+			inputVariables = inputVars;
 		}
-		log.info("getInputVariables() inputVars size is " + inputVars.size()); */
-		log.info("current rule is " + this.toString() + "; slot contains " + inputVars.stream().map(r -> r.toString()).collect(Collectors.toSet()));
 		return inputVars;
 	}
 
@@ -148,16 +164,33 @@ public class Rule {
 	 * provided as argument. The output contains the grounded list of effects
 	 * associated with the satisfied condition.
 	 * 
+	 * <p>
+	 * The outputs are retrieved from the cache of the rule if they have already been
+	 * computed for the same input assignment (except for rules that generate random
+	 * values). The returned output must therefore not be modified.
+	 * 
 	 * @param input the input assignment
 	 * @return the matched rule output.
 	 */
 	public RuleOutput getOutput(Assignment input) {
-		log.info("getOutput: current rule is " + this.toString());
- 		log.info("getOutput(): input is " + input.toString());
+		if (stochastic) {
+			return computeOutput(input);
+		}
+		return outputCache.get(input, a -> computeOutput(a));
+	}
+
+	/**
+	 * Computes the rule output for the input assignment, by looping on the
+	 * possible groundings of the rule and selecting the first matching case for
+	 * each.
+	 * 
+	 * @param input the input assignment
+	 * @return the matched rule output
+	 */
+	private RuleOutput computeOutput(Assignment input) {
 		RuleOutput output = new RuleOutput(ruleType);
 		RuleGrounding groundings = getGroundings(input);
 		for (Assignment g : groundings.getAlternatives()) {
-			log.info("getOutput(): assignment is " + g.toString());
 			Assignment full = !(g.isEmpty()) ? new Assignment(input, g) : input;
 
 			RuleOutput match = cases.stream()
@@ -165,13 +198,21 @@ public class Rule {
 					.findFirst().orElse(new RuleOutput(ruleType));
 
 			match = match.ground(full);
-			log.info("getOutput(): match is " + match.toString());
 			output.addOutput(match);
 
 		}
 		return output;
 	}
 
+	/**
+	 * Returns the cache of outputs for the rule
+	 * 
+	 * @return the output cache
+	 */
+	public RuleOutputCache getOutputCache() {
+		return outputCache;
+	}
+
 	/**
 	 * Returns the rule type
 	 * 
@@ -340,7 +381,7 @@ public class Rule {
 			for (Effect e : getEffects()) {
 				for (String randomToGenerate : e.getRandomsToGenerate()) {
 					groundings.extend(new Assignment(randomToGenerate,
-							(new Random()).nextInt(99999)));
+							RandomUtils.getRandom().nextInt(99999)));
 				}
 			}
 			return groundings;
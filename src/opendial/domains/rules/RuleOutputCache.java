@@ -0,0 +1,165 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.domains.rules;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import opendial.datastructs.Assignment;
+
+/**
+ * Bounded cache of the outputs computed by a rule, indexed by their input
+ * assignment (including the filled slots, if any). Since the output of a rule only
+ * depends on its input assignment, the cache is shared by all anchorings of the
+ * rule, across dialogue turns and planning branches. The least recently used
+ * outputs are discarded when the maximum size is reached.
+ * 
+ * <p>
+ * The cache is safe for concurrent use. The outputs are computed outside of the
+ * lock, such that two threads may occasionally compute the same output (in which
+ * case only one of them is retained). The cached outputs are shared and must not
+ * be modified.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public final class RuleOutputCache {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// maximum number of outputs in each cache
+	public static int MAX_CACHE_SIZE = 2000;
+
+	// the cached outputs, in access order
+	final Map<Assignment, RuleOutput> outputs =
+			new LinkedHashMap<Assignment, RuleOutput>(64, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Assignment, RuleOutput> eldest) {
+					return size() > MAX_CACHE_SIZE;
+				}
+			};
+
+	// number of cache hits and misses
+	final AtomicLong hits = new AtomicLong();
+	final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the output for the input assignment, computing it with the given
+	 * function if it is not already in the cache.
+	 * 
+	 * @param input the input assignment
+	 * @param function the function computing the output for the assignment
+	 * @return the corresponding output
+	 */
+	RuleOutput get(Assignment input, Function<Assignment, RuleOutput> function) {
+		RuleOutput output;
+		synchronized (outputs) {
+			output = outputs.get(input);
+		}
+		if (output != null) {
+			hits.incrementAndGet();
+			return output;
+		}
+		misses.incrementAndGet();
+		output = function.apply(input);
+		synchronized (outputs) {
+			RuleOutput existing = outputs.putIfAbsent(new Assignment(input), output);
+			return (existing != null) ? existing : output;
+		}
+	}
+
+	/**
+	 * Removes all outputs from the cache.
+	 */
+	public void clear() {
+		synchronized (outputs) {
+			outputs.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of outputs in the cache
+	 * 
+	 * @return the number of cached outputs
+	 */
+	public int size() {
+		synchronized (outputs) {
+			return outputs.size();
+		}
+	}
+
+	/**
+	 * Returns the number of requests that were answered from the cache
+	 * 
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests that required the computation of a new output
+	 * 
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the proportion of requests that were answered from the cache (0.0 if
+	 * no request has been made yet)
+	 * 
+	 * @return the hit rate
+	 */
+	public double getHitRate() {
+		long nbHits = hits.get();
+		long total = nbHits + misses.get();
+		return (total > 0) ? ((double) nbHits) / total : 0.0;
+	}
+
+	/**
+	 * Resets the hit and miss counters
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Returns a string representation of the cache statistics
+	 */
+	public String getStatistics() {
+		return "rule output cache: " + size() + " outputs, " + getHits()
+				+ " hits, " + getMisses() + " misses (hit rate "
+				+ String.format("%.3f", getHitRate()) + ")";
+	}
+}
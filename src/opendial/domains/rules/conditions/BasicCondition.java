@@ -28,7 +28,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import opendial.bn.values.ArrayVal;
 import opendial.bn.values.NoneVal;
@@ -37,6 +39,7 @@ import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
 import opendial.domains.rules.RuleGrounding;
+import opendial.templates.FunctionalTemplate;
 import opendial.templates.StringTemplate;
 import opendial.templates.Template;
 import opendial.templates.Template.MatchResult;
@@ -67,6 +70,16 @@ public final class BasicCondition implements Condition {
 	// (default is EQUAL)
 	final Relation relation;
 
+	// maximum number of grounded conditions to cache for each condition
+	public static int MAX_CACHE_SIZE = 500;
+
+	// the slots of the variable and value templates (in a fixed order)
+	final String[] slots;
+
+	// cache of grounded conditions, indexed by the values of the slots (null if
+	// the condition has no slots or cannot be cached)
+	final Map<List<Value>, BasicCondition> groundedCache;
+
 	// ===================================
 	// CONDITION CONSTRUCTION
 	// ===================================
@@ -85,6 +98,8 @@ public final class BasicCondition implements Condition {
 		groundValue = (templateValue.isUnderspecified()) ? null
 				: ValueFactory.create(value);
 		this.relation = relation;
+		slots = getSlots().toArray(new String[0]);
+		groundedCache = createCache();
 	}
 
 	/**
@@ -100,6 +115,8 @@ public final class BasicCondition implements Condition {
 		this.templateValue = Template.create(value.toString());
 		this.groundValue = value;
 		this.relation = relation;
+		slots = getSlots().toArray(new String[0]);
+		groundedCache = createCache();
 	}
 
 	/**
@@ -124,7 +141,23 @@ public final class BasicCondition implements Condition {
 				groundValue = ValueFactory.create(templateValue.toString());
 			}
 		}
+		slots = getSlots().toArray(new String[0]);
+		groundedCache = null;
+	}
 
+	/**
+	 * Creates the cache of grounded conditions, or returns null if the condition
+	 * has no slots to fill, or if its templates include functions (whose results
+	 * may not only depend on the slot values).
+	 * 
+	 * @return the cache (or null)
+	 */
+	private Map<List<Value>, BasicCondition> createCache() {
+		if (slots.length == 0 || variable instanceof FunctionalTemplate
+				|| templateValue instanceof FunctionalTemplate) {
+			return null;
+		}
+		return new ConcurrentHashMap<List<Value>, BasicCondition>();
 	}
 
 	// ===================================
@@ -183,11 +216,10 @@ public final class BasicCondition implements Condition {
 	 */
 	@Override
 	public boolean isSatisfiedBy(Assignment input) {
-		log.info("isSatisfiedBy input is " + input.toString());
 		if (!variable.isFilledBy(input) || !templateValue.isFilledBy(input)) {
 			return false;
 		}
-		BasicCondition grounded = new BasicCondition(this, input);
+		BasicCondition grounded = ground(input);
 		Value actualValue = input.getValue(grounded.variable.toString());
 		return grounded.isSatisfied(actualValue);
 	}
@@ -256,7 +288,7 @@ public final class BasicCondition implements Condition {
 	@Override
 	public RuleGrounding getGroundings(Assignment input) {
 
-		BasicCondition groundCond = new BasicCondition(this, input);
+		BasicCondition groundCond = ground(input);
 		RuleGrounding groundings = new RuleGrounding();
 
 		// case 1: the variable label is underspecified
@@ -294,6 +326,38 @@ public final class BasicCondition implements Condition {
 		return groundings;
 	}
 
+	/**
+	 * Returns the grounding of the condition with the slot values of the input
+	 * assignment. The grounded conditions are cached by slot values, such that the
+	 * templates are only filled (and possibly compiled) once for each combination
+	 * of values.
+	 * 
+	 * @param input the input assignment
+	 * @return the grounded condition
+	 */
+	private BasicCondition ground(Assignment input) {
+		if (slots.length == 0) {
+			return this;
+		}
+		else if (groundedCache == null) {
+			return new BasicCondition(this, input);
+		}
+		Value[] fillers = new Value[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			fillers[i] = input.containsVar(slots[i]) ? input.getValue(slots[i]) : null;
+		}
+		List<Value> key = Arrays.asList(fillers);
+		BasicCondition grounded = groundedCache.get(key);
+		if (grounded == null) {
+			if (groundedCache.size() >= MAX_CACHE_SIZE) {
+				groundedCache.clear();
+			}
+			grounded = new BasicCondition(this, input);
+			groundedCache.put(key, grounded);
+		}
+		return grounded;
+	}
+
 	/**
 	 * Tries to match the template with the actual value, and returns the associated
 	 * groundings
@@ -44,10 +44,7 @@ import opendial.domains.rules.Rule.RuleType;
 import opendial.domains.rules.RuleOutput;
 import opendial.domains.rules.conditions.Condition;
 import opendial.domains.rules.effects.Effect;
-import opendial.domains.rules.parameters.ComplexParameter;
-import opendial.domains.rules.parameters.FixedParameter;
 import opendial.domains.rules.parameters.Parameter;
-import opendial.domains.rules.parameters.SingleParameter;
 import opendial.templates.StringTemplate;
 import opendial.templates.Template;
 
@@ -86,7 +83,8 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 	// the relevant effects for the rule
 	final Set<Effect> effects;
 
-	// cache with the outputs for a given assignment
+	// local cache with the outputs for a given assignment (the outputs themselves
+	// are retrieved from the cache of the rule, which is shared across anchorings)
 	Map<Assignment, RuleOutput> cache;
 
 	/**
@@ -130,12 +128,6 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 			}
 		}
 		log.info("inputs size is " + inputs.getVariables().size() + "; rule is " + rule.toString());
-		Set<Assignment> conditions = inputs.linearise();
-		for (Assignment a : conditions) {
-			for (Map.Entry<String, Value> entry : a.getPairs().entrySet()) {
-				log.info("condition assignment key is " + entry.getKey() + "; value is " + entry.getValue().toString());
-			}
-		}
 
 		// we already start a cache if we have a probability rule
 		if (rule.getRuleType() == RuleType.PROB) {
@@ -145,33 +137,16 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 
 		// determines the set of possible effects, output values and parameters
 		// (for all possible input values)
-		for (Assignment input : conditions) {
+		for (Assignment input : inputs.getCombinations()) {
 			input.addAssignment(filledSlots);
-
-			log.info("In AnchoredRule(): input is " + input.toString());
 			RuleOutput output = getCachedOutput(input);
-			// log.info("In AnchoredRule(): output is " + output.toString());
-			log.info("In AnchoredRule(): prev relevant is " + relevant);
 			relevant = relevant || !output.isVoid();
-			if (relevant == true) {
-				log.info("In AnchoredRule(): output is " + output.toString());
-			}
 			// looping on all alternative effects in the output
 			for (Map.Entry<Effect, Parameter> o : output.getPairs()) {
 				Effect effect = o.getKey();
 				Parameter param = o.getValue();
-				log.info("output effect is " + effect.toString() + "; effect assignment is " + effect.getAssignment().toString() + "; param is " + param.toString());
 				effects.add(effect);
 				outputs.addAssign(effect.getAssignment());
-				if (param instanceof FixedParameter) {
-					log.info("is FixedParameter");
-				}
-				else if (param instanceof SingleParameter) {
-					log.info("is SingleParameter");
-				}
-				else if (param instanceof ComplexParameter) {
-					log.info("is ComplexParameter");
-				}
 				param.getVariables().stream().filter(p -> state.hasChanceNode(p))
 						.forEach(p -> parameters.add(p));
 			}
@@ -407,16 +382,15 @@ public final class AnchoredRule implements ProbDistribution, UtilityFunction {
 	}
 
 	/**
-	 * Returns the output of the anchored rule (using the cache if the input
-	 * assignment is a sample).
+	 * Returns the output of the anchored rule (using the local cache if the input
+	 * assignment is a sample). Outputs missing from the local cache are retrieved
+	 * from the cache of the rule, which persists across turns.
 	 * 
 	 * @param input the input assignment
 	 * @return the output of the rule
 	 */
 	private RuleOutput getCachedOutput(Assignment input) {
-
 		if (cache == null) {
-			log.info("getCachedOutput input is " + input.toString() + "; filledSlots is " + filledSlots.toString());
 			return rule.getOutput(new Assignment(input, filledSlots));
 		}
 		else if (input.size() > variables.size()) {
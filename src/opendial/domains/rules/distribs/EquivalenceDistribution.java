@@ -26,7 +26,6 @@ package opendial.domains.rules.distribs;
 import java.util.logging.*;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Random;
 import java.util.Set;
 
 import opendial.bn.distribs.CategoricalTable;
@@ -39,6 +38,7 @@ import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
 import opendial.templates.Template;
+import opendial.utils.RandomUtils;
 
 /**
  * Representation of an equivalence distribution (see dissertation p. 78 for details)
@@ -59,9 +59,6 @@ public class EquivalenceDistribution implements ProbDistribution {
 	// the variable label
 	String baseVar;
 
-	// sampler
-	Random sampler;
-
 	// probability of the equivalence variable when X or X^p have a None value.
 	public static double NONE_PROB = 0.02;
 
@@ -72,7 +69,6 @@ public class EquivalenceDistribution implements ProbDistribution {
 	 */
 	public EquivalenceDistribution(String variable) {
 		this.baseVar = variable;
-		sampler = new Random();
 	}
 
 	/**
@@ -118,7 +114,7 @@ public class EquivalenceDistribution implements ProbDistribution {
 	public Value sample(Assignment condition) {
 		double prob = getProb(condition);
 
-		if (sampler.nextDouble() < prob) {
+		if (RandomUtils.getRandom().nextDouble() < prob) {
 			return ValueFactory.create(true);
 		}
 		else {
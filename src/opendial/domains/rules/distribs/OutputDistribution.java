@@ -40,9 +40,9 @@ import opendial.bn.values.SetVal;
 import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Combinations;
 import opendial.domains.rules.effects.BasicEffect;
 import opendial.domains.rules.effects.Effect;
-import opendial.utils.InferenceUtils;
 
 /**
  * Representation of an output distribution (see Pierre Lison's PhD thesis, page 70
@@ -265,8 +265,7 @@ public class OutputDistribution implements ProbDistribution {
 		for (int i = 0; i < inputRules.size(); i++) {
 			range.put("" + i, new HashSet<Value>(inputRules.get(i).getEffects()));
 		}
-		Set<Assignment> combinations = InferenceUtils.getAllCombinations(range);
-		Set<Value> values = combinations.stream()
+		Set<Value> values = new Combinations(range).stream()
 				.flatMap(cond -> getProbDistrib(cond).getValues().stream())
 				.collect(Collectors.toSet());
 		if (values.isEmpty()) {
@@ -24,16 +24,17 @@
 package opendial.inference;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.Stack;
 import java.util.logging.Logger;
 
 import opendial.bn.BNetwork;
 import opendial.bn.nodes.BNode;
-import opendial.bn.nodes.UtilityNode;
 import opendial.datastructs.Assignment;
 
 /**
@@ -132,53 +133,117 @@ public abstract class Query {
 
 	/**
 	 * Returns a list of nodes sorted according to the ordering in
-	 * BNetwork.getSortedNodes() and pruned from the irrelevant nodes
+	 * BNetwork.getSortedNodes() and pruned from the irrelevant nodes. The result is
+	 * cached in the network itself (see {@link BNetwork#getDerivedData}), indexed
+	 * by the structure revision, the query variables and the evidence variables.
+	 * The cache is therefore discarded together with the network.
 	 * 
 	 * @return the ordered list of relevant nodes
 	 */
 	public List<BNode> getFilteredSortedNodes() {
-		List<BNode> filteredNodes = new ArrayList<BNode>();
-		Set<String> irrelevantNodes = getIrrelevantNodes();
-		for (BNode node : network.getSortedNodes()) {
-			if (!irrelevantNodes.contains(node.getId())) {
-				filteredNodes.add(node);
+		List<Object> key = Arrays.asList(Query.class,
+				network.getStructureRevision(), this instanceof UtilQuery,
+				new HashSet<String>(queryVars),
+				new HashSet<String>(evidence.getVariables()));
+		List<BNode> filteredNodes = network.getDerivedData(key, k -> {
+			List<BNode> nodes = new ArrayList<BNode>();
+			Set<String> relevantNodes = getRelevantNodes();
+			for (BNode node : network.getSortedNodes()) {
+				if (relevantNodes.contains(node.getId())) {
+					nodes.add(node);
+				}
 			}
-		}
-		return filteredNodes;
+			return nodes;
+		});
+		return new ArrayList<BNode>(filteredNodes);
 	}
 
 	/**
 	 * Assuming a particular query P(queryVars|evidence) or U(queryVars|evidence) on
-	 * the provided Bayesian network, determines which nodes is relevant for the
-	 * inference and which one can be discarded without affecting the final result.
+	 * the provided Bayesian network, determines which nodes are relevant for the
+	 * inference. The other nodes can be discarded without affecting the final
+	 * result.
+	 * 
+	 * <p>
+	 * The method first collects the ancestors of the query variables, evidence
+	 * variables and (for utility queries) utility nodes, all other nodes being
+	 * barren. It then searches the moral graph of these ancestors from the query
+	 * variables, stopping at the evidence variables: the evidence variables that
+	 * are not reached are d-separated from the query, and can be ignored. The
+	 * relevant nodes are finally the ancestors of the query variables and of the
+	 * evidence variables that have been reached. Each step is linear in the size
+	 * of the (moral) graph.
 	 * 
+	 * @return the identifiers of the relevant nodes
 	 */
-	private Set<String> getIrrelevantNodes() {
-
-		Set<String> irrelevantNodesIds = new HashSet<String>();
-
-		whileLoop: while (true) {
-			for (String nodeId : new ArrayList<String>(network.getNodeIds())) {
-				BNode node = network.getNode(nodeId);
-				if (!irrelevantNodesIds.contains(nodeId)
-						&& irrelevantNodesIds.containsAll(node.getOutputNodesIds())
-						&& !queryVars.contains(nodeId)
-						&& !evidence.containsVar(nodeId)
-						&& !(node instanceof UtilityNode)) {
-					irrelevantNodesIds.add(nodeId);
-					continue whileLoop;
+	private Set<String> getRelevantNodes() {
+
+		Set<String> targets = new HashSet<String>(queryVars);
+		if (this instanceof UtilQuery) {
+			targets.addAll(network.getUtilityNodeIds());
+		}
+		targets.retainAll(network.getNodeIds());
+
+		// ancestors of the query, evidence and utility variables
+		Set<String> ancestral = new HashSet<String>(targets);
+		for (String var : evidence.getVariables()) {
+			if (network.hasNode(var)) {
+				ancestral.add(var);
+			}
+		}
+		addAncestors(ancestral);
+		if (!(this instanceof UtilQuery)) {
+			ancestral.removeAll(network.getUtilityNodeIds());
+		}
+
+		// search of the moral graph, blocked by the evidence
+		Set<String> reached = new HashSet<String>(targets);
+		Stack<String> toProcess = new Stack<String>();
+		toProcess.addAll(targets);
+		while (!toProcess.isEmpty()) {
+			BNode node = network.getNode(toProcess.pop());
+			List<String> neighbours = new ArrayList<String>(node.getInputNodeIds());
+			for (String outputId : node.getOutputNodesIds()) {
+				if (ancestral.contains(outputId)) {
+					neighbours.add(outputId);
+					neighbours.addAll(network.getNode(outputId).getInputNodeIds());
 				}
-				else if (!(this instanceof UtilQuery)
-						&& !irrelevantNodesIds.contains(nodeId)
-						&& node instanceof UtilityNode) {
-					irrelevantNodesIds.add(nodeId);
-					continue whileLoop;
+			}
+			for (String neighbour : neighbours) {
+				if (ancestral.contains(neighbour) && reached.add(neighbour)
+						&& !evidence.containsVar(neighbour)) {
+					toProcess.push(neighbour);
 				}
 			}
-			break whileLoop;
 		}
 
-		return irrelevantNodesIds;
+		// ancestors of the query variables and of the reached evidence
+		Set<String> relevant = new HashSet<String>(targets);
+		for (String var : reached) {
+			if (evidence.containsVar(var)) {
+				relevant.add(var);
+			}
+		}
+		addAncestors(relevant);
+		return relevant;
+	}
+
+	/**
+	 * Adds to the set of node identifiers all the ancestors of these nodes.
+	 * 
+	 * @param nodeIds the node identifiers (which are extended)
+	 */
+	private void addAncestors(Set<String> nodeIds) {
+		Stack<String> toProcess = new Stack<String>();
+		toProcess.addAll(nodeIds);
+		while (!toProcess.isEmpty()) {
+			for (String inputId : network.getNode(toProcess.pop())
+					.getInputNodeIds()) {
+				if (nodeIds.add(inputId)) {
+					toProcess.push(inputId);
+				}
+			}
+		}
 	}
 
 	/**
@@ -0,0 +1,179 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference;
+
+import java.util.logging.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import opendial.datastructs.Assignment;
+
+/**
+ * Bounded cache of inference results for a given Bayesian network. The results are
+ * indexed by the type of query, the query variables, the evidence and the type of
+ * result. All entries are invalidated as soon as the revision number of the
+ * network changes. When the maximum size is reached, the least recently used
+ * entries are removed first.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class QueryCache {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// maximum number of results in the cache
+	public static int MAX_SIZE = 200;
+
+	// the cached results (in access order)
+	final Map<List<Object>, Object> results;
+
+	// the network revision for which the results are valid
+	long revision = -1;
+
+	// number of cache hits and misses
+	long nbHits = 0;
+	long nbMisses = 0;
+
+	/**
+	 * Creates a new, empty cache
+	 */
+	public QueryCache() {
+		results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<List<Object>, Object> eldest) {
+				return size() > MAX_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached result for the query, provided it is an instance of the
+	 * given class and the network has not been modified since the result was
+	 * stored. Else, returns null.
+	 * 
+	 * @param query the query
+	 * @param cls the expected class for the result
+	 * @return the cached result, or null if none is available
+	 */
+	public synchronized <T> T get(Query query, Class<T> cls) {
+		checkRevision(query);
+		Object result = results.get(getKey(query, cls));
+		if (result != null) {
+			nbHits++;
+			return cls.cast(result);
+		}
+		nbMisses++;
+		return null;
+	}
+
+	/**
+	 * Stores the result for the query in the cache.
+	 * 
+	 * @param query the query
+	 * @param cls the class for the result
+	 * @param result the inference result
+	 */
+	public synchronized <T> void put(Query query, Class<T> cls, T result) {
+		checkRevision(query);
+		results.put(getKey(query, cls), result);
+	}
+
+	/**
+	 * Removes all results from the cache
+	 */
+	public synchronized void clear() {
+		results.clear();
+	}
+
+	/**
+	 * Returns the number of results currently in the cache
+	 * 
+	 * @return the number of cached results
+	 */
+	public synchronized int size() {
+		return results.size();
+	}
+
+	/**
+	 * Returns the number of queries answered from the cache
+	 * 
+	 * @return the number of cache hits
+	 */
+	public synchronized long getNbHits() {
+		return nbHits;
+	}
+
+	/**
+	 * Returns the number of queries that could not be answered from the cache
+	 * 
+	 * @return the number of cache misses
+	 */
+	public synchronized long getNbMisses() {
+		return nbMisses;
+	}
+
+	/**
+	 * Returns a string representation of the cache
+	 */
+	@Override
+	public synchronized String toString() {
+		return "query cache (size=" + results.size() + ", hits=" + nbHits
+				+ ", misses=" + nbMisses + ")";
+	}
+
+	/**
+	 * Clears the cache if the revision of the query network differs from the
+	 * revision of the cached results.
+	 * 
+	 * @param query the query
+	 */
+	private void checkRevision(Query query) {
+		long newRevision = query.getNetwork().getRevision();
+		if (newRevision != revision) {
+			results.clear();
+			revision = newRevision;
+		}
+	}
+
+	/**
+	 * Returns the key for the query and result class
+	 * 
+	 * @param query the query
+	 * @param cls the result class
+	 * @return the corresponding key
+	 */
+	private static List<Object> getKey(Query query, Class<?> cls) {
+		return Arrays.asList(query.getClass(), cls,
+				new HashSet<String>(query.getQueryVars()),
+				new Assignment(query.getEvidence()));
+	}
+}
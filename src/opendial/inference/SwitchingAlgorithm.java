@@ -25,6 +25,7 @@ package opendial.inference;
 
 import java.util.logging.*;
 
+import opendial.Settings;
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.ContinuousDistribution;
 import opendial.bn.distribs.MultivariateDistribution;
@@ -32,43 +33,49 @@ import opendial.bn.distribs.UtilityTable;
 import opendial.bn.nodes.BNode;
 import opendial.bn.nodes.ChanceNode;
 import opendial.inference.approximate.SamplingAlgorithm;
+import opendial.inference.exact.EliminationOrdering;
+import opendial.inference.exact.JunctionTree;
 import opendial.inference.exact.VariableElimination;
 
 /**
- * Switching algorithms that alternates between an exact algorithm (variable
- * elimination) and an approximate algorithm (likelihood weighting) depending on the
- * query.
- * 
- * <p>
- * The switching mechanism is defined via two thresholds:
+ * Inference algorithm that selects, for each query, the inference engine (exact or
+ * approximate) that is expected to be the cheapest. The selection relies on a
+ * simple cost model:
  * <ul>
- * <li>one threshold on the maximum branching factor of the network
- * <li>one threshold on the maximum number of combination of values in a node factor
+ * <li>The cost of exact inference is estimated from the elimination ordering of
+ * the query, as the sum of the sizes of the intermediate factors. Exact inference
+ * is excluded if the largest intermediate factor exceeds the maximum factor size,
+ * or if the query involves continuous distributions.
+ * <li>The cost of sampling is estimated from the number of samples, the number of
+ * relevant nodes and the number of evidence variables, multiplied by the relative
+ * cost of sampling a node (compared to a factor operation).
  * </ul>
- * 
- * <p>
- * If one of these threshold is exceeded or if the Bayesian network contains a
- * continuous distribution, the selected algorithm will be likelihood weighting.
- * Variable elimination is selected in the remaining cases.
- * 
+ * The selection can also be forced to one engine through the settings. The last
+ * decision is recorded, together with its justification.
+ *
  * @author Pierre Lison (plison@ifi.uio.no)
+ *
  */
 public class SwitchingAlgorithm implements InferenceAlgorithm {
 
 	// logger
 	final static Logger log = Logger.getLogger("OpenDial");
 
-	// maximum branching factor (in-degree) for VE
-	public static int MAX_BRANCHING_FACTOR = 10;
-
-	// maximum number of values to use VE
-	public static int MAX_NBVALUES = 5000;
+	/** Selection modes for the inference engine */
+	public static enum Mode {
+		AUTO, EXACT, SAMPLING
+	}
 
 	VariableElimination ve;
+	JunctionTree jt;
 	SamplingAlgorithm lw;
 
+	// the last selection decision
+	Decision lastDecision;
+
 	public SwitchingAlgorithm() {
 		this.ve = new VariableElimination();
+		this.jt = new JunctionTree();
 		this.lw = new SamplingAlgorithm();
 	}
 
@@ -121,27 +128,142 @@ public class SwitchingAlgorithm implements InferenceAlgorithm {
 		return result;
 	}
 
+	/**
+	 * Selects the inference algorithm for the query, according to the selection
+	 * mode and the cost model. The decision is recorded and can be retrieved with
+	 * getLastDecision().
+	 * 
+	 * @param query the query
+	 * @return the selected algorithm
+	 */
 	public InferenceAlgorithm selectBestAlgorithm(Query query) {
+		lastDecision = makeDecision(query);
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("inference for " + query + ": " + lastDecision);
+		}
+		if (!lastDecision.isExact()) {
+			return lw;
+		}
+		return (query instanceof Query.ProbQuery) ? jt : ve;
+	}
 
+	/**
+	 * Returns the last decision made by the algorithm (or null if no query has been
+	 * processed yet).
+	 * 
+	 * @return the last decision
+	 */
+	public Decision getLastDecision() {
+		return lastDecision;
+	}
+
+	/**
+	 * Estimates the costs of exact and approximate inference for the query, and
+	 * selects the cheapest one.
+	 * 
+	 * @param query the query
+	 * @return the corresponding decision
+	 */
+	private Decision makeDecision(Query query) {
+
+		int nbNodes = 0;
 		for (BNode node : query.getFilteredSortedNodes()) {
-			if (node.getInputNodeIds().size() > MAX_BRANCHING_FACTOR) {
-				return lw;
-			}
-			if (node instanceof ChanceNode) {
-				if (((ChanceNode) node)
-						.getDistrib() instanceof ContinuousDistribution) {
-					return lw;
-				}
-				int nbValues = ((ChanceNode) node).getNbValues();
-				for (ChanceNode i : node.getInputNodes(ChanceNode.class)) {
-					nbValues *= i.getNbValues();
-				}
-				if (nbValues > MAX_NBVALUES) {
-					return lw;
-				}
+			if (node instanceof ChanceNode && ((ChanceNode) node)
+					.getDistrib() instanceof ContinuousDistribution) {
+				return new Decision(false, Double.POSITIVE_INFINITY, 0.0,
+						"continuous distribution for " + node.getId());
 			}
+			nbNodes++;
+		}
+		int nbEvidence = query.getEvidence().size();
+		double samplingCost = Settings.samplingCostRatio * lw.nbSamples * nbNodes
+				* (1 + nbEvidence);
+
+		if (Settings.inferenceMode == Mode.SAMPLING) {
+			return new Decision(false, 0.0, samplingCost, "forced by settings");
+		}
+		EliminationOrdering ordering =
+				EliminationOrdering.getOrdering(query, Settings.eliminationOrdering);
+		double exactCost = ordering.getTotalCost();
+		if (Settings.inferenceMode == Mode.EXACT) {
+			return new Decision(true, exactCost, samplingCost, "forced by settings");
+		}
+		else if (ordering.getPeakFactorSize() > Settings.maxFactorSize) {
+			return new Decision(false, exactCost, samplingCost,
+					"peak factor size (" + ordering.getPeakFactorSize()
+							+ ") is too large");
+		}
+		else if (exactCost > samplingCost) {
+			return new Decision(false, exactCost, samplingCost,
+					"sampling is cheaper");
+		}
+		return new Decision(true, exactCost, samplingCost, "exact is cheaper");
+	}
+
+	/**
+	 * Decision made by the algorithm for a query, with the estimated costs for exact
+	 * and approximate inference and the reason for the selection.
+	 */
+	public static final class Decision {
+
+		final boolean exact;
+		final double exactCost;
+		final double samplingCost;
+		final String reason;
+
+		Decision(boolean exact, double exactCost, double samplingCost,
+				String reason) {
+			this.exact = exact;
+			this.exactCost = exactCost;
+			this.samplingCost = samplingCost;
+			this.reason = reason;
+		}
+
+		/**
+		 * Returns true if exact inference was selected, and false if sampling was
+		 * selected.
+		 * 
+		 * @return true if exact inference was selected, false otherwise
+		 */
+		public boolean isExact() {
+			return exact;
+		}
+
+		/**
+		 * Returns the estimated cost of exact inference
+		 * 
+		 * @return the estimated cost
+		 */
+		public double getExactCost() {
+			return exactCost;
+		}
+
+		/**
+		 * Returns the estimated cost of sampling
+		 * 
+		 * @return the estimated cost
+		 */
+		public double getSamplingCost() {
+			return samplingCost;
+		}
+
+		/**
+		 * Returns the reason for the selection
+		 * 
+		 * @return the reason
+		 */
+		public String getReason() {
+			return reason;
+		}
+
+		/**
+		 * Returns a string representation of the decision
+		 */
+		@Override
+		public String toString() {
+			return ((exact) ? "exact" : "sampling") + " (" + reason + ", exact cost: "
+					+ exactCost + ", sampling cost: " + samplingCost + ")";
 		}
-		return ve;
 	}
 
 }
@@ -0,0 +1,160 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.approximate;
+
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Logger;
+
+import opendial.utils.RandomUtils;
+
+/**
+ * Alias table for sampling an index according to a discrete distribution in
+ * constant time, using Vose's variant of Walker's alias method. The table is
+ * constructed in linear time from an array of (possibly unnormalised) weights.
+ * Each sample then only requires one random number, one array lookup and one
+ * comparison, compared to the binary search performed by {@link Intervals}.
+ * 
+ * <p>
+ * The random numbers are drawn from {@link RandomUtils} (by default, from the
+ * generator of the current thread, such that several threads can sample from the
+ * same table without contention). Since the table is immutable once constructed,
+ * it can be freely shared between threads.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public final class AliasTable {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// probability of keeping the index of each column (scaled to [0,1])
+	final double[] cutoffs;
+
+	// alternative index for each column
+	final int[] aliases;
+
+	/**
+	 * Creates the alias table for the given weights. Negative weights are treated
+	 * as null weights.
+	 * 
+	 * @param weights the weights (with a positive sum)
+	 */
+	public AliasTable(double[] weights) {
+		int n = weights.length;
+		double total = 0.0;
+		for (double w : weights) {
+			if (Double.isNaN(w)) {
+				throw new RuntimeException("weight is NaN");
+			}
+			total += Math.max(w, 0.0);
+		}
+		if (total < 0.0001) {
+			throw new RuntimeException("total weight is null");
+		}
+
+		cutoffs = new double[n];
+		aliases = new int[n];
+
+		// the worklists of small and large columns (stored in a single array, small
+		// columns from the start and large columns from the end)
+		int[] worklist = new int[n];
+		int nbSmall = 0;
+		int nbLarge = 0;
+		double[] scaled = new double[n];
+		for (int i = 0; i < n; i++) {
+			scaled[i] = Math.max(weights[i], 0.0) * n / total;
+			if (scaled[i] < 1.0) {
+				worklist[nbSmall++] = i;
+			}
+			else {
+				worklist[n - 1 - nbLarge++] = i;
+			}
+		}
+
+		while (nbSmall > 0 && nbLarge > 0) {
+			int small = worklist[--nbSmall];
+			int large = worklist[n - nbLarge];
+			cutoffs[small] = scaled[small];
+			aliases[small] = large;
+			scaled[large] = (scaled[large] + scaled[small]) - 1.0;
+			if (scaled[large] < 1.0) {
+				nbLarge--;
+				worklist[nbSmall++] = large;
+			}
+		}
+
+		// remaining columns are (up to rounding errors) full
+		while (nbLarge > 0) {
+			int large = worklist[n - nbLarge--];
+			cutoffs[large] = 1.0;
+			aliases[large] = large;
+		}
+		while (nbSmall > 0) {
+			int small = worklist[--nbSmall];
+			cutoffs[small] = 1.0;
+			aliases[small] = small;
+		}
+	}
+
+	/**
+	 * Creates the alias table for a list of objects, given a function specifying
+	 * the weight of each object. The indices sampled from the table are the
+	 * positions of the objects in the list.
+	 * 
+	 * @param objects the objects
+	 * @param weights the function associating a weight to each object
+	 * @param <T> the type of the objects
+	 * @return the corresponding alias table
+	 */
+	public static <T> AliasTable create(List<T> objects,
+			ToDoubleFunction<T> weights) {
+		double[] array = new double[objects.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = weights.applyAsDouble(objects.get(i));
+		}
+		return new AliasTable(array);
+	}
+
+	/**
+	 * Samples an index according to the weights of the table.
+	 * 
+	 * @return the sampled index
+	 */
+	public int sample() {
+		double rand = RandomUtils.getRandom().nextDouble() * cutoffs.length;
+		int column = Math.min((int) rand, cutoffs.length - 1);
+		return (rand - column < cutoffs[column]) ? column : aliases[column];
+	}
+
+	/**
+	 * Returns the number of indices in the table
+	 * 
+	 * @return the size of the table
+	 */
+	public int size() {
+		return cutoffs.length;
+	}
+}
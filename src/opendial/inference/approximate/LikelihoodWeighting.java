@@ -1,28 +1,41 @@
 package opendial.inference.approximate;
 
 import java.util.logging.*;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Stack;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
-
-import opendial.bn.distribs.ContinuousDistribution;
-import opendial.bn.distribs.ProbDistribution;
-import opendial.bn.nodes.ActionNode;
-import opendial.bn.nodes.BNode;
-import opendial.bn.nodes.ChanceNode;
-import opendial.bn.nodes.UtilityNode;
+
+import opendial.bn.values.DoubleVal;
 import opendial.bn.values.Value;
-import opendial.datastructs.Assignment;
 import opendial.inference.Query;
+import opendial.utils.RandomUtils;
 
 /**
  * Sampling process (based on likelihood weighting) for a particular query.
  * 
+ * <p>
+ * The samples are generated in parallel through a fork/join task that recursively
+ * splits the requested number of samples into smaller batches. Each batch collects
+ * its samples in its own buffer, and the buffers are merged once all batches are
+ * completed. The sampling stops when the requested number of samples has been
+ * generated, when the deadline is reached, or when the process is cancelled. The
+ * samples themselves are generated through a {@link SamplingPlan} compiled for
+ * the query. The sampling can either be performed synchronously (through the
+ * constructors), or asynchronously (through {@link #start}), in which case it can
+ * be cancelled while it is running.
+ * 
+ * <p>
+ * If a tolerance is specified, the sampling is performed adaptively. The samples
+ * are drawn in successive rounds, and the process stops as soon as the standard
+ * errors of the estimates fall below the tolerance. These estimates are the
+ * marginal probabilities of the query variables, the means of the continuous query
+ * variables and the expected utility. The standard errors are computed from the
+ * effective sample size of the weighted samples.
+ * 
  * @author Pierre Lison (plison@ifi.uio.no)
  */
 public class LikelihoodWeighting {
@@ -35,23 +48,41 @@ public class LikelihoodWeighting {
 
 	public static double WEIGHT_THRESHOLD = 0.0001f;
 
-	// the stack of weighted samples which have been collected so far
-	Stack<Sample> samples = new Stack<Sample>();
+	// minimum number of samples to generate in a single batch
+	public static int MIN_BATCH_SIZE = 10;
+
+	// number of samples to generate in each round of adaptive sampling
+	public static int ROUND_SIZE = 100;
+
+	// minimum effective sample size before checking for convergence
+	public static double MIN_EFFECTIVE_SIZE = 50;
+
+	// the weighted samples which have been collected so far
+	SampleStore samples;
 
 	// the query
 	Query query;
-	Collection<String> queryVars;
-	Assignment evidence;
 
-	// sorted nodes in the network
-	List<BNode> sortedNodes;
+	// the compiled sampling plan for the query
+	SamplingPlan plan;
+
+	// tolerance for the convergence of the estimates (0.0 if not adaptive)
+	final double tolerance;
+
+	// number of samples generated so far (including the discarded ones)
+	int nbGenerated = 0;
+
+	// running estimates for the collected samples
+	final Estimates estimates = new Estimates();
 
-	// termination status
-	boolean isTerminated = false;
+	// deadline for the sampling (in nanoseconds, as given by System.nanoTime())
+	final long deadline;
 
-	// scheduled thread pool to terminate sampling once the time limit is
-	// reached
-	static ScheduledExecutorService service = Executors.newScheduledThreadPool(2);
+	// whether the sampling has been cancelled
+	volatile boolean cancelled = false;
+
+	// the sampling process, if running asynchronously (null otherwise)
+	final ForkJoinTask<?> process;
 
 	// ===================================
 	// PUBLIC METHODS
@@ -59,33 +90,172 @@ public class LikelihoodWeighting {
 
 	/**
 	 * Creates a new sampling query with the given arguments and starts sampling
-	 * (using parallel streams).
+	 * (using the common fork/join pool). The constructor returns once the sampling
+	 * is completed, which happens at the latest when the maximum sampling time is
+	 * reached.
 	 * 
 	 * @param query the query to answer
 	 * @param nbSamples the number of samples to collect
 	 * @param maxSamplingTime maximum sampling time (in milliseconds)
 	 */
 	public LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime) {
-		this.query = query;
-		this.evidence = query.getEvidence();
-		this.queryVars = query.getQueryVars();
+		this(query, nbSamples, maxSamplingTime, 0.0);
+	}
 
+	/**
+	 * Creates a new sampling query with the given arguments and starts sampling. If
+	 * the tolerance is strictly positive, the samples are drawn in rounds until the
+	 * estimates have converged, the number of samples has been reached or the
+	 * maximum sampling time has elapsed.
+	 * 
+	 * @param query the query to answer
+	 * @param nbSamples the maximum number of samples to collect
+	 * @param maxSamplingTime maximum sampling time (in milliseconds)
+	 * @param tolerance the maximum standard error for the estimates (0.0 to
+	 *            disable the adaptive sampling)
+	 */
+	public LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime,
+			double tolerance) {
+		this(query, nbSamples, maxSamplingTime, tolerance, false);
+	}
+
+	/**
+	 * Creates a new sampling query with the given arguments and starts sampling,
+	 * either synchronously or asynchronously (on the common fork/join pool).
+	 * 
+	 * @param query the query to answer
+	 * @param nbSamples the maximum number of samples to collect
+	 * @param maxSamplingTime maximum sampling time (in milliseconds)
+	 * @param tolerance the maximum standard error for the estimates
+	 * @param async whether to return before the sampling is completed
+	 */
+	private LikelihoodWeighting(Query query, int nbSamples, long maxSamplingTime,
+			double tolerance, boolean async) {
+		this.query = query;
 		this.nbSamples = nbSamples;
-		sortedNodes = query.getFilteredSortedNodes();
-		Collections.reverse(sortedNodes);
-		service.schedule(() -> isTerminated = true, maxSamplingTime,
-				TimeUnit.MILLISECONDS);
-		Stream.generate(() -> this)
-				// creates infinite stream
-				.parallel()
-				// parallelise
-				.map(p -> p.sample())
-				// generate a sample
-				.limit(nbSamples)
-				// stop when nbSamples are collected
-				.filter(s -> s.getWeight() > WEIGHT_THRESHOLD)
-				.filter(s -> !s.isEmpty()) // discard empty samples
-				.forEach(s -> samples.add(s)); // makes a list of samples
+		this.tolerance = tolerance;
+		plan = new SamplingPlan(query);
+		deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(maxSamplingTime);
+		if (async) {
+			process = ForkJoinPool.commonPool().submit(() -> sample());
+		}
+		else {
+			process = null;
+			sample();
+		}
+	}
+
+	/**
+	 * Creates a new sampling query with the given arguments and starts sampling in
+	 * the background. The method returns immediately: the sampling can be
+	 * cancelled with {@link #cancel()}, and the methods returning the samples wait
+	 * for its completion.
+	 * 
+	 * @param query the query to answer
+	 * @param nbSamples the maximum number of samples to collect
+	 * @param maxSamplingTime maximum sampling time (in milliseconds)
+	 * @param tolerance the maximum standard error for the estimates (0.0 to
+	 *            disable the adaptive sampling)
+	 * @return the running sampling process
+	 */
+	public static LikelihoodWeighting start(Query query, int nbSamples,
+			long maxSamplingTime, double tolerance) {
+		return new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+				tolerance, true);
+	}
+
+	/**
+	 * Cancels the sampling process. The running batches stop at their next sample,
+	 * and the samples collected so far are retained.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Waits for the completion of the sampling process (if it runs
+	 * asynchronously).
+	 */
+	public void await() {
+		if (process != null) {
+			process.join();
+		}
+	}
+
+	/**
+	 * Returns true if the sampling process is completed, and false otherwise.
+	 * 
+	 * @return true if the sampling is completed, false otherwise
+	 */
+	public boolean isDone() {
+		return process == null || process.isDone();
+	}
+
+	/**
+	 * Returns true if the sampling process has been cancelled or has reached its
+	 * deadline, and false otherwise.
+	 * 
+	 * @return true if the sampling is terminated, false otherwise
+	 */
+	public boolean isTerminated() {
+		return cancelled || System.nanoTime() - deadline >= 0;
+	}
+
+	/**
+	 * Generates the samples, in a single fork/join task or in successive rounds
+	 * (for adaptive sampling).
+	 */
+	private void sample() {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		if (tolerance <= 0.0) {
+			int batchSize = Math.max(MIN_BATCH_SIZE,
+					nbSamples / (4 * pool.getParallelism()));
+			Batch batch = pool.invoke(new SamplingTask(nbSamples, batchSize));
+			samples = batch.store;
+			nbGenerated = batch.nbGenerated;
+			return;
+		}
+
+		samples = plan.createStore();
+		while (nbGenerated < nbSamples && !isTerminated()) {
+			int roundSize = Math.min(ROUND_SIZE, nbSamples - nbGenerated);
+			Batch round = pool.invoke(new SamplingTask(roundSize, MIN_BATCH_SIZE));
+			SampleStore newSamples = round.store;
+			nbGenerated += round.nbGenerated;
+			for (int i = 0; i < newSamples.size(); i++) {
+				estimates.add(newSamples, i);
+			}
+			samples.addAll(newSamples);
+			if (estimates.hasConverged(tolerance)) {
+				log.fine("sampling converged after " + nbGenerated + " samples");
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the effective sample size of the collected samples, defined as the
+	 * square of the sum of weights divided by the sum of squared weights. The
+	 * effective size is only computed for adaptive sampling (and is 0.0
+	 * otherwise).
+	 * 
+	 * @return the effective sample size
+	 */
+	public double getEffectiveSampleSize() {
+		await();
+		return estimates.getEffectiveSampleSize();
+	}
+
+	/**
+	 * Returns the number of samples that have been generated (including the
+	 * samples that were discarded due to their low weight).
+	 * 
+	 * @return the number of generated samples
+	 */
+	public int getNbGeneratedSamples() {
+		await();
+		return nbGenerated;
 	}
 
 	/**
@@ -93,139 +263,235 @@ public class LikelihoodWeighting {
 	 */
 	@Override
 	public String toString() {
+		if (!isDone()) {
+			return query.toString() + " (sampling in progress)";
+		}
 		return query.toString() + " (" + samples.size()
 				+ " samples already collected)";
 	}
 
 	/**
-	 * Returns the collected samples
+	 * Returns the collected samples, redrawn according to their weight
 	 * 
 	 * @return the collected samples
 	 */
 	public List<Sample> getSamples() {
+		return getSampleStore().asList();
+	}
+
+	/**
+	 * Returns the store of collected samples, redrawn according to their weight.
+	 * Contrary to {@link #getSamples()}, the samples are not converted to
+	 * {@link Sample} objects unless explicitly requested. If the sampling runs
+	 * asynchronously, the method waits for its completion.
+	 * 
+	 * @return the store of collected samples
+	 */
+	public SampleStore getSampleStore() {
+		await();
 		redrawSamples();
 		return samples;
 	}
 
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
 	/**
-	 * Runs the sample collection procedure until termination (either due to a
-	 * time-out or the collection of a number of samples = nbSamples). The method
-	 * loops until terminate() is called, or enough samples have been collected.
-	 * 
-	 * @return the resulting sample
-	 * 
+	 * Fork/join task generating a given number of samples. The task is recursively
+	 * split in two halves until the number of samples falls below the batch size.
+	 * Each batch collects its samples in a separate store, which are then merged
+	 * when the subtasks are joined. The task stops early if the sampling is
+	 * terminated, and the resulting batch records how many samples were actually
+	 * generated.
 	 */
-	protected Sample sample() {
-		Sample sample = new Sample();
-		if (isTerminated) {
-			return sample;
-		}
-		try {
-			for (BNode n : sortedNodes) {
-				String id = n.getId();
+	final class SamplingTask extends RecursiveTask<Batch> {
 
-				// if the node is an evidence node and has no input nodes
-				if (n.getInputNodeIds().isEmpty() && evidence.containsVar(id)) {
-					sample.addPair(id, evidence.getValue(id));
+		private static final long serialVersionUID = 1L;
 
-				}
-				else if (n instanceof ChanceNode) {
-					sampleChanceNode((ChanceNode) n, sample);
-				}
+		// number of samples to generate
+		final int nbSamples;
 
-				// if the node is an action node
-				else if (n instanceof ActionNode) {
-					sampleActionNode((ActionNode) n, sample);
-				}
+		// maximum number of samples to generate without splitting the task
+		final int batchSize;
 
-				// finally, if the node is a utility node, calculate the utility
-				else if (n instanceof UtilityNode) {
-					double newUtil = ((UtilityNode) n).getUtility(sample);
-					sample.addUtility(newUtil);
-				}
-			}
-			sample.trim(queryVars);
+		SamplingTask(int nbSamples, int batchSize) {
+			this.nbSamples = nbSamples;
+			this.batchSize = batchSize;
 		}
-		catch (RuntimeException e) {
-			log.warning("exception caught: " + e);
-			e.printStackTrace();
+
+		@Override
+		protected Batch compute() {
+			// the samples are drawn sequentially if the random numbers must be
+			// reproducible (since the order of the draws depends on the scheduling)
+			if (nbSamples > batchSize && !isTerminated()
+					&& !RandomUtils.isDeterministic()) {
+				SamplingTask first = new SamplingTask(nbSamples / 2, batchSize);
+				SamplingTask second =
+						new SamplingTask(nbSamples - nbSamples / 2, batchSize);
+				first.fork();
+				Batch result = second.compute();
+				result.addAll(first.join());
+				return result;
+			}
+			SampleStore buffer = plan.createStore();
+			Value[] values = new Value[plan.getNbSlots()];
+			double[] result = new double[2];
+			int nbDrawn = 0;
+			for (; nbDrawn < nbSamples && !isTerminated(); nbDrawn++) {
+				plan.sample(values, WEIGHT_THRESHOLD, result, buffer);
+			}
+			return new Batch(buffer, nbDrawn);
 		}
-		return sample;
 	}
 
-	// ===================================
-	// PRIVATE METHODS
-	// ===================================
-
 	/**
-	 * Samples the given chance node and add it to the sample. If the variable is
-	 * part of the evidence, updates the weight.
-	 * 
-	 * @param n the chance node to sample
+	 * Samples collected by a sampling task, together with the number of samples
+	 * that were generated (including the discarded ones).
 	 */
-	private void sampleChanceNode(ChanceNode n, Sample sample) {
+	static final class Batch {
+
+		// the collected samples
+		final SampleStore store;
 
-		String id = n.getId();
-		// if the node is chance node and not evidence, sample from the values
-		if (!evidence.containsVar(id)) {
-			Value newVal = n.sample(sample);
-			sample.addPair(id, newVal);
+		// the number of generated samples
+		int nbGenerated;
+
+		Batch(SampleStore store, int nbGenerated) {
+			this.store = store;
+			this.nbGenerated = nbGenerated;
 		}
 
-		// if the node is an evidence node, update the weights
-		else {
-			Value evidenceValue = evidence.getValue(id);
-			ProbDistribution distrib = n.getDistrib();
-			double evidenceProb = 1.0;
-			if (distrib instanceof ContinuousDistribution) {
-				evidenceProb = ((ContinuousDistribution) distrib)
-						.getProbDensity(evidenceValue);
-			}
-			else {
-				evidenceProb = n.getProb(sample, evidenceValue);
-			}
-			sample.addLogWeight(Math.log(evidenceProb));
-			sample.addPair(id, evidenceValue);
+		/**
+		 * Merges the other batch into the current one
+		 * 
+		 * @param other the other batch
+		 */
+		void addAll(Batch other) {
+			store.addAll(other.store);
+			nbGenerated += other.nbGenerated;
 		}
 	}
 
 	/**
-	 * Samples the action node. If the node is part of the evidence, simply add it to
-	 * the sample. Else, samples an action at random.
-	 * 
-	 * @param n the action node
-	 * @param sample the weighted sample to extend
+	 * Running estimates over the weighted samples, used to check the convergence of
+	 * the adaptive sampling.
 	 */
-	private void sampleActionNode(ActionNode n, Sample sample) {
+	static final class Estimates {
+
+		// sum of weights and of squared weights
+		double sumWeights = 0.0;
+		double sumSquaredWeights = 0.0;
+
+		// weighted counts for each discrete value of the query variables
+		final Map<String, Map<Value, Double>> counts =
+				new HashMap<String, Map<Value, Double>>();
+
+		// weighted sums and squared sums for the continuous query variables
+		final Map<String, double[]> moments = new HashMap<String, double[]>();
+
+		// weighted sum and squared sum of the utilities
+		double sumUtils = 0.0;
+		double sumSquaredUtils = 0.0;
+
+		/**
+		 * Adds the i-th sample of the store to the estimates
+		 * 
+		 * @param store the sample store
+		 * @param i the sample index
+		 */
+		void add(SampleStore store, int i) {
+			double w = store.getWeight(i);
+			sumWeights += w;
+			sumSquaredWeights += w * w;
+			String[] labels = store.getLabels();
+			for (int j = 0; j < labels.length; j++) {
+				String var = labels[j];
+				Value v = store.getValue(i, j);
+				if (v == null) {
+					continue;
+				}
+				else if (v instanceof DoubleVal) {
+					double d = ((DoubleVal) v).getDouble();
+					double[] m = moments.computeIfAbsent(var, k -> new double[2]);
+					m[0] += w * d;
+					m[1] += w * d * d;
+				}
+				else {
+					counts.computeIfAbsent(var, k -> new HashMap<Value, Double>())
+							.merge(v, w, (w1, w2) -> w1 + w2);
+				}
+			}
+			double utility = store.getUtility(i);
+			sumUtils += w * utility;
+			sumSquaredUtils += w * utility * utility;
+		}
 
-		String id = n.getId();
-		if (!evidence.containsVar(id) && n.getInputNodeIds().isEmpty()) {
-			Value newVal = n.sample();
-			sample.addPair(id, newVal);
+		/**
+		 * Returns the effective sample size
+		 * 
+		 * @return the effective sample size
+		 */
+		double getEffectiveSampleSize() {
+			return (sumSquaredWeights > 0.0)
+					? sumWeights * sumWeights / sumSquaredWeights : 0.0;
 		}
-		else {
-			Value evidenceValue = evidence.getValue(id);
-			sample.addPair(id, evidenceValue);
+
+		/**
+		 * Returns true if the effective sample size is sufficient and the standard
+		 * errors of all estimates are below the tolerance (relative to the
+		 * magnitude of the estimate for means and utilities).
+		 * 
+		 * @param tolerance the tolerance
+		 * @return true if the estimates have converged, false otherwise
+		 */
+		boolean hasConverged(double tolerance) {
+			double ess = getEffectiveSampleSize();
+			if (ess < MIN_EFFECTIVE_SIZE) {
+				return false;
+			}
+			for (Map<Value, Double> varCounts : counts.values()) {
+				for (double count : varCounts.values()) {
+					double p = count / sumWeights;
+					if (Math.sqrt(p * (1 - p) / ess) > tolerance) {
+						return false;
+					}
+				}
+			}
+			for (double[] m : moments.values()) {
+				if (!hasConverged(m[0], m[1], ess, tolerance)) {
+					return false;
+				}
+			}
+			return hasConverged(sumUtils, sumSquaredUtils, ess, tolerance);
+		}
+
+		/**
+		 * Returns true if the standard error of the weighted mean is below the
+		 * tolerance (relative to the magnitude of the mean, if above 1).
+		 * 
+		 * @param sum the weighted sum
+		 * @param squaredSum the weighted squared sum
+		 * @param ess the effective sample size
+		 * @param tolerance the tolerance
+		 * @return true if the mean has converged, false otherwise
+		 */
+		private boolean hasConverged(double sum, double squaredSum, double ess,
+				double tolerance) {
+			double mean = sum / sumWeights;
+			double variance = Math.max(0.0, squaredSum / sumWeights - mean * mean);
+			return Math.sqrt(variance / ess) <= tolerance
+					* Math.max(1.0, Math.abs(mean));
 		}
 	}
 
 	/**
 	 * Redraw the samples according to their weight. The number of redrawn samples is
-	 * the same as the one given as argument.
-	 * 
-	 * @param samples the initial samples (with their weight)
-	 * @return the redrawn samples given their weight redrawn.
+	 * the same as the number of collected samples.
 	 */
 	private void redrawSamples() {
 		try {
-			Intervals<Sample> intervals =
-					new Intervals<Sample>(samples, s -> s.getWeight());
-			Stack<Sample> newSamples = new Stack<Sample>();
-			int sampleSize = samples.size();
-			for (int j = 0; j < sampleSize; j++) {
-				newSamples.add(intervals.sample());
-			}
-			samples = newSamples;
+			samples = samples.redraw();
 		}
 		catch (RuntimeException e) {
 			log.warning("could not redraw samples: " + e);
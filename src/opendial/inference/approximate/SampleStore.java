@@ -0,0 +1,467 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.approximate;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+
+/**
+ * Columnar storage for a collection of weighted samples over a fixed set of
+ * variables. Instead of one assignment object per sample, the values of the
+ * samples are stored in a flat integer array (one row of K value indices per
+ * sample, where the values of each variable are mapped to indices through a
+ * dictionary), together with arrays of logarithmic weights and utilities.
+ * 
+ * <p>
+ * The samples can be viewed as {@link Sample} objects through {@link #asList()}.
+ * These objects are only created when accessed, and are then cached, such that a
+ * sample drawn several times is represented by the same object.
+ * 
+ * <p>
+ * Stores obtained by {@link #redraw()} or {@link #select(int[])} are views sharing
+ * the arrays of the original store, and only hold the indices of their rows.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public final class SampleStore {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// initial capacity of the arrays (in number of samples)
+	static final int INITIAL_CAPACITY = 16;
+
+	// index value for a missing value
+	static final int MISSING = -1;
+
+	// the variable labels (one per column)
+	final String[] labels;
+
+	// the values of each variable (indexed by position)
+	final List<List<Value>> domains;
+
+	// mapping from values to positions, for each variable
+	final List<Map<Value, Integer>> positions;
+
+	// the value indices (one row of labels.length indices per sample)
+	int[] indices;
+
+	// the logarithmic weights of the samples
+	double[] logWeights;
+
+	// the utilities of the samples
+	double[] utilities;
+
+	// the number of rows stored in the arrays
+	int nbRows;
+
+	// the samples created so far (indexed by row)
+	Sample[] materialised;
+
+	// the selected rows, for views created by redrawing or selection (null if
+	// all rows are included in their original order)
+	final int[] rows;
+
+	// ===================================
+	// CONSTRUCTION
+	// ===================================
+
+	/**
+	 * Creates a new, empty store for samples over the given variables
+	 * 
+	 * @param labels the variable labels
+	 */
+	public SampleStore(String[] labels) {
+		this.labels = labels;
+		domains = new ArrayList<List<Value>>(labels.length);
+		positions = new ArrayList<Map<Value, Integer>>(labels.length);
+		for (int k = 0; k < labels.length; k++) {
+			domains.add(new ArrayList<Value>());
+			positions.add(new HashMap<Value, Integer>());
+		}
+		indices = new int[INITIAL_CAPACITY * labels.length];
+		logWeights = new double[INITIAL_CAPACITY];
+		utilities = new double[INITIAL_CAPACITY];
+		rows = null;
+	}
+
+	/**
+	 * Creates a view over the given rows of an existing store
+	 * 
+	 * @param store the store
+	 * @param rows the selected rows
+	 */
+	private SampleStore(SampleStore store, int[] rows) {
+		this.labels = store.labels;
+		this.domains = store.domains;
+		this.positions = store.positions;
+		this.indices = store.indices;
+		this.logWeights = store.logWeights;
+		this.utilities = store.utilities;
+		this.nbRows = store.nbRows;
+		this.materialised = store.getMaterialised();
+		this.rows = rows;
+	}
+
+	/**
+	 * Adds a new sample to the store, with the values of the given slots (the
+	 * value of the k-th variable being values[slots[k]]).
+	 * 
+	 * @param values the array of values
+	 * @param slots the slots of the variables in the array
+	 * @param logWeight the logarithmic weight of the sample
+	 * @param utility the utility of the sample
+	 */
+	public void add(Value[] values, int[] slots, double logWeight, double utility) {
+		if (rows != null) {
+			throw new RuntimeException("cannot add samples to a view");
+		}
+		ensureCapacity(nbRows + 1);
+		int offset = nbRows * labels.length;
+		for (int k = 0; k < labels.length; k++) {
+			indices[offset + k] = getIndex(k, values[slots[k]]);
+		}
+		logWeights[nbRows] = logWeight;
+		utilities[nbRows] = utility;
+		nbRows++;
+	}
+
+	/**
+	 * Adds all samples of the other store (which must be defined over the same
+	 * variables, in the same order) to the current store.
+	 * 
+	 * @param other the other store
+	 */
+	public void addAll(SampleStore other) {
+		if (rows != null) {
+			throw new RuntimeException("cannot add samples to a view");
+		}
+		if (!Arrays.equals(labels, other.labels)) {
+			throw new RuntimeException("incompatible variables: "
+					+ Arrays.toString(labels) + " and "
+					+ Arrays.toString(other.labels));
+		}
+
+		// conversion from the value indices of the other store to the current one
+		int[][] conversions = new int[labels.length][];
+		for (int k = 0; k < labels.length; k++) {
+			List<Value> otherDomain = other.domains.get(k);
+			conversions[k] = new int[otherDomain.size()];
+			for (int i = 0; i < otherDomain.size(); i++) {
+				conversions[k][i] = getIndex(k, otherDomain.get(i));
+			}
+		}
+
+		int size = other.size();
+		ensureCapacity(nbRows + size);
+		for (int i = 0; i < size; i++) {
+			int row = other.getRow(i);
+			int offset = nbRows * labels.length;
+			int otherOffset = row * labels.length;
+			for (int k = 0; k < labels.length; k++) {
+				int index = other.indices[otherOffset + k];
+				indices[offset + k] =
+						(index == MISSING) ? MISSING : conversions[k][index];
+			}
+			logWeights[nbRows] = other.logWeights[row];
+			utilities[nbRows] = other.utilities[row];
+			nbRows++;
+		}
+	}
+
+	/**
+	 * Redraws the samples according to their weight, and returns the result as a
+	 * view over the current store. The number of redrawn samples is the same as the
+	 * number of samples in the store. The weights are normalised in logarithmic
+	 * space (subtracting the maximum logarithmic weight before exponentiating),
+	 * such that very small weights do not underflow to zero.
+	 * 
+	 * @return the redrawn samples
+	 */
+	public SampleStore redraw() {
+		int size = size();
+		double maxLogWeight = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			maxLogWeight = Math.max(maxLogWeight, logWeights[getRow(i)]);
+		}
+		double[] weights = new double[size];
+		for (int i = 0; i < size; i++) {
+			weights[i] = Math.exp(logWeights[getRow(i)] - maxLogWeight);
+		}
+		AliasTable aliases = new AliasTable(weights);
+		int[] newRows = new int[size];
+		for (int i = 0; i < size; i++) {
+			newRows[i] = getRow(aliases.sample());
+		}
+		return new SampleStore(this, newRows);
+	}
+
+	/**
+	 * Returns a view over the selected samples of the store, sharing the arrays of
+	 * the current store.
+	 * 
+	 * @param selection the indices of the selected samples
+	 * @return the view over the selected samples
+	 */
+	public SampleStore select(int[] selection) {
+		int[] newRows = new int[selection.length];
+		for (int i = 0; i < selection.length; i++) {
+			newRows[i] = getRow(selection[i]);
+		}
+		return new SampleStore(this, newRows);
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns the number of samples
+	 * 
+	 * @return the number of samples
+	 */
+	public int size() {
+		return (rows != null) ? rows.length : nbRows;
+	}
+
+	/**
+	 * Returns the variable labels of the store
+	 * 
+	 * @return the variable labels
+	 */
+	public String[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * Returns the variables that have a value in at least one sample
+	 * 
+	 * @return the variables
+	 */
+	public Set<String> getVariables() {
+		Set<String> variables = new HashSet<String>();
+		for (int k = 0; k < labels.length; k++) {
+			if (!domains.get(k).isEmpty()) {
+				variables.add(labels[k]);
+			}
+		}
+		return variables;
+	}
+
+	/**
+	 * Returns the value of the variable (given by its column) in the i-th sample,
+	 * or null if the sample has no value for the variable
+	 * 
+	 * @param i the sample index
+	 * @param k the column of the variable
+	 * @return the value (or null)
+	 */
+	public Value getValue(int i, int k) {
+		int index = indices[getRow(i) * labels.length + k];
+		return (index == MISSING) ? null : domains.get(k).get(index);
+	}
+
+	/**
+	 * Returns the index of the value of the variable (given by its column) in the
+	 * i-th sample, or -1 if the sample has no value for the variable. The index
+	 * refers to the list returned by {@link #getDomain(int)}.
+	 * 
+	 * @param i the sample index
+	 * @param k the column of the variable
+	 * @return the value index (or -1)
+	 */
+	public int getValueIndex(int i, int k) {
+		return indices[getRow(i) * labels.length + k];
+	}
+
+	/**
+	 * Returns the values encountered so far for the variable (given by its column),
+	 * in the order of their indices.
+	 * 
+	 * @param k the column of the variable
+	 * @return the list of values
+	 */
+	public List<Value> getDomain(int k) {
+		return domains.get(k);
+	}
+
+	/**
+	 * Returns the logarithmic weight of the i-th sample
+	 * 
+	 * @param i the sample index
+	 * @return the logarithmic weight
+	 */
+	public double getLogWeight(int i) {
+		return logWeights[getRow(i)];
+	}
+
+	/**
+	 * Returns the (exponentiated) weight of the i-th sample
+	 * 
+	 * @param i the sample index
+	 * @return the weight
+	 */
+	public double getWeight(int i) {
+		return Math.exp(logWeights[getRow(i)]);
+	}
+
+	/**
+	 * Returns the utility of the i-th sample
+	 * 
+	 * @param i the sample index
+	 * @return the utility
+	 */
+	public double getUtility(int i) {
+		return utilities[getRow(i)];
+	}
+
+	/**
+	 * Returns the i-th sample as a {@link Sample} object. The object is created
+	 * upon the first access, and then shared by all samples with the same row.
+	 * 
+	 * @param i the sample index
+	 * @return the sample
+	 */
+	public Sample getSample(int i) {
+		int row = getRow(i);
+		Sample[] cache = getMaterialised();
+		Sample sample = cache[row];
+		if (sample == null) {
+			sample = new Sample();
+			int offset = row * labels.length;
+			for (int k = 0; k < labels.length; k++) {
+				int index = indices[offset + k];
+				if (index != MISSING) {
+					sample.addPair(labels[k], domains.get(k).get(index));
+				}
+			}
+			sample.logWeight = logWeights[row];
+			sample.utility = utilities[row];
+			cache[row] = sample;
+		}
+		return sample;
+	}
+
+	/**
+	 * Returns a list view of the samples, where each element is created upon its
+	 * first access (see {@link #getSample(int)}).
+	 * 
+	 * @return the list of samples
+	 */
+	public List<Sample> asList() {
+		return new AbstractList<Sample>() {
+			@Override
+			public Sample get(int i) {
+				return getSample(i);
+			}
+
+			@Override
+			public int size() {
+				return SampleStore.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Returns a string representation of the store
+	 */
+	@Override
+	public String toString() {
+		return size() + " samples over " + Arrays.toString(labels);
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the row in the arrays for the i-th sample
+	 * 
+	 * @param i the sample index
+	 * @return the row
+	 */
+	private int getRow(int i) {
+		return (rows != null) ? rows[i] : i;
+	}
+
+	/**
+	 * Returns the index of the value in the dictionary of the k-th variable, adding
+	 * it if necessary (or MISSING if the value is null)
+	 * 
+	 * @param k the column of the variable
+	 * @param value the value
+	 * @return the index of the value
+	 */
+	private int getIndex(int k, Value value) {
+		if (value == null) {
+			return MISSING;
+		}
+		Map<Value, Integer> varPositions = positions.get(k);
+		Integer index = varPositions.get(value);
+		if (index == null) {
+			index = varPositions.size();
+			varPositions.put(value, index);
+			domains.get(k).add(value);
+		}
+		return index;
+	}
+
+	/**
+	 * Ensures that the arrays can hold the given number of rows
+	 * 
+	 * @param capacity the number of rows
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > logWeights.length) {
+			int newCapacity = Math.max(capacity, logWeights.length * 2);
+			indices = Arrays.copyOf(indices, newCapacity * labels.length);
+			logWeights = Arrays.copyOf(logWeights, newCapacity);
+			utilities = Arrays.copyOf(utilities, newCapacity);
+			materialised = null;
+		}
+	}
+
+	/**
+	 * Returns the array of samples created so far (indexed by row)
+	 * 
+	 * @return the array of samples
+	 */
+	private Sample[] getMaterialised() {
+		if (materialised == null || materialised.length < nbRows) {
+			materialised = (materialised == null) ? new Sample[nbRows]
+					: Arrays.copyOf(materialised, nbRows);
+		}
+		return materialised;
+	}
+}
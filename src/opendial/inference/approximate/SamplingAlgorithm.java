@@ -60,6 +60,9 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 
 	long maxSamplingTime = Settings.maxSamplingTime;
 
+	// tolerance for the convergence of the estimates (0.0 to disable)
+	public double tolerance = Settings.samplingTolerance;
+
 	// ===================================
 	// CONSTRUCTORS
 	// ===================================
@@ -100,10 +103,11 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 
 		// creates a new query thread
 		LikelihoodWeighting isquery =
-				new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+				new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+						tolerance);
 
 		// extract and redraw the samples according to their weight.
-		List<Sample> samples = isquery.getSamples();
+		SampleStore samples = isquery.getSampleStore();
 		// creates an empirical distribution from the samples
 		return new EmpiricalDistribution(samples);
 	}
@@ -145,15 +149,15 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		try {
 			// creates a new query thread
 			LikelihoodWeighting isquery =
-					new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+					new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+						tolerance);
 
 			// extract and redraw the samples
-			List<Sample> samples = isquery.getSamples();
+			SampleStore samples = isquery.getSampleStore();
 
 			// creates the utility table from the samples
 			UtilityTable utilityTable = new UtilityTable();
-			samples.stream()
-					.forEach(s -> utilityTable.incrementUtil(s, s.getUtility()));
+			utilityTable.incrementUtil(samples);
 
 			return utilityTable;
 		}
@@ -176,13 +180,16 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		Query query = new Query.UtilQuery(network, network.getChanceNodeIds(),
 				new Assignment());
 		LikelihoodWeighting isquery =
-				new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+				new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+						tolerance);
 
 		// extract and redraw the samples
-		List<Sample> samples = isquery.getSamples();
+		SampleStore samples = isquery.getSampleStore();
 
-		double total =
-				samples.stream().parallel().mapToDouble(s -> s.getUtility()).sum();
+		double total = 0.0;
+		for (int i = 0; i < samples.size(); i++) {
+			total += samples.getUtility(i);
+		}
 		return total / samples.size();
 	}
 
@@ -204,10 +211,11 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		Collection<String> queryVars = query.getQueryVars();
 		// creates a new query thread
 		LikelihoodWeighting isquery =
-				new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+				new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+						tolerance);
 
 		// extract and redraw the samples
-		List<Sample> samples = isquery.getSamples();
+		SampleStore samples = isquery.getSampleStore();
 
 		EmpiricalDistribution fullDistrib = new EmpiricalDistribution(samples);
 
@@ -271,14 +279,14 @@ public class SamplingAlgorithm implements InferenceAlgorithm {
 		for (Query query : weightedQueries.keySet()) {
 			Consumer<Collection<Sample>> weightScheme = weightedQueries.get(query);
 			LikelihoodWeighting isquery =
-					new LikelihoodWeighting(query, nbSamples, maxSamplingTime);
+					new LikelihoodWeighting(query, nbSamples, maxSamplingTime,
+						tolerance);
 			List<Sample> samples = isquery.getSamples();
 			weightScheme.accept(samples);
-			Intervals<Sample> intervals =
-					new Intervals<Sample>(samples, s -> s.getWeight());
+			AliasTable aliases = AliasTable.create(samples, s -> s.getWeight());
 			int sampleSize = samples.size();
 			for (int j = 0; j < sampleSize; j++) {
-				distrib.addSample(intervals.sample());
+				distrib.addSample(samples.get(aliases.sample()));
 			}
 		}
 		return distrib;
@@ -0,0 +1,303 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.approximate;
+
+import java.util.logging.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import opendial.bn.distribs.ContinuousDistribution;
+import opendial.bn.distribs.IndependentDistribution;
+import opendial.bn.distribs.ProbDistribution;
+import opendial.bn.nodes.ActionNode;
+import opendial.bn.nodes.BNode;
+import opendial.bn.nodes.ChanceNode;
+import opendial.bn.nodes.UtilityNode;
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+import opendial.inference.Query;
+
+/**
+ * Compiled plan for the generation of weighted samples for a query. The relevant
+ * nodes of the query are converted into a flat array of sampling instructions
+ * (sorted from the roots to the leaves), where each variable is associated with
+ * an integer slot and the evidence is resolved in advance. A sample is generated
+ * by filling an array of values (one per slot), which can be reused from one
+ * sample to the next. The sample object is only created for the query variables,
+ * and only if its weight is above the threshold.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class SamplingPlan {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// instruction codes
+	static final int SET_EVIDENCE = 0;
+	static final int SAMPLE_INDEPENDENT = 1;
+	static final int SAMPLE_CONDITIONAL = 2;
+	static final int WEIGHT_EVIDENCE = 3;
+	static final int WEIGHT_CONTINUOUS = 4;
+	static final int SAMPLE_ACTION = 5;
+	static final int ADD_UTILITY = 6;
+
+	// instruction code for each step
+	final int[] codes;
+
+	// node associated with each step
+	final BNode[] nodes;
+
+	// slot written by each step (-1 for utility nodes)
+	final int[] targets;
+
+	// slots for the input variables of each step
+	final int[][] inputs;
+
+	// pre-resolved evidence value for each step (if any)
+	final Value[] evidenceValues;
+
+	// labels for the variables in each slot
+	final String[] labels;
+
+	// slots for the query variables
+	final int[] querySlots;
+
+	// ===================================
+	// PLAN COMPILATION
+	// ===================================
+
+	/**
+	 * Compiles the sampling plan for the query
+	 * 
+	 * @param query the query
+	 */
+	public SamplingPlan(Query query) {
+		Assignment evidence = query.getEvidence();
+		List<BNode> sortedNodes = query.getFilteredSortedNodes();
+		Collections.reverse(sortedNodes);
+
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		List<String> slotLabels = new ArrayList<String>();
+		for (BNode n : sortedNodes) {
+			if (!(n instanceof UtilityNode)) {
+				slots.put(n.getId(), slotLabels.size());
+				slotLabels.add(n.getId());
+			}
+		}
+		labels = slotLabels.toArray(new String[slotLabels.size()]);
+
+		int nbSteps = sortedNodes.size();
+		codes = new int[nbSteps];
+		nodes = sortedNodes.toArray(new BNode[nbSteps]);
+		targets = new int[nbSteps];
+		inputs = new int[nbSteps][];
+		evidenceValues = new Value[nbSteps];
+
+		for (int i = 0; i < nbSteps; i++) {
+			BNode n = nodes[i];
+			String id = n.getId();
+			targets[i] = slots.getOrDefault(id, -1);
+			inputs[i] = n.getInputNodeIds().stream().filter(v -> slots.containsKey(v))
+					.mapToInt(v -> slots.get(v)).toArray();
+			evidenceValues[i] = evidence.getValue(id);
+
+			if (n instanceof UtilityNode) {
+				codes[i] = ADD_UTILITY;
+			}
+			else if (n.getInputNodeIds().isEmpty() && evidence.containsVar(id)) {
+				codes[i] = SET_EVIDENCE;
+			}
+			else if (n instanceof ChanceNode) {
+				ProbDistribution distrib = ((ChanceNode) n).getDistrib();
+				if (evidence.containsVar(id)) {
+					codes[i] = (distrib instanceof ContinuousDistribution)
+							? WEIGHT_CONTINUOUS : WEIGHT_EVIDENCE;
+				}
+				else {
+					codes[i] = (distrib instanceof IndependentDistribution)
+							? SAMPLE_INDEPENDENT : SAMPLE_CONDITIONAL;
+				}
+			}
+			else if (n instanceof ActionNode) {
+				codes[i] = (!evidence.containsVar(id) && n.getInputNodeIds().isEmpty())
+						? SAMPLE_ACTION : SET_EVIDENCE;
+			}
+		}
+
+		Collection<String> queryVars = query.getQueryVars();
+		querySlots = queryVars.stream().filter(v -> slots.containsKey(v))
+				.mapToInt(v -> slots.get(v)).toArray();
+	}
+
+	// ===================================
+	// SAMPLING
+	// ===================================
+
+	/**
+	 * Returns the number of slots (variables) in the plan. The array of values
+	 * provided to the sample method must be of this size.
+	 * 
+	 * @return the number of slots
+	 */
+	public int getNbSlots() {
+		return labels.length;
+	}
+
+	/**
+	 * Creates an empty sample store for the query variables of the plan
+	 * 
+	 * @return the sample store
+	 */
+	public SampleStore createStore() {
+		String[] queryLabels = new String[querySlots.length];
+		for (int k = 0; k < querySlots.length; k++) {
+			queryLabels[k] = labels[querySlots[k]];
+		}
+		return new SampleStore(queryLabels);
+	}
+
+	/**
+	 * Generates a new weighted sample and appends it to the store (which must have
+	 * been created by {@link #createStore()}). The values of the variables are
+	 * written in the given array, and no object is allocated for the sample.
+	 * 
+	 * @param values the array of values (one per slot), overwritten by the method
+	 * @param threshold the minimum weight for the sample
+	 * @param result array of size 2, used to store the logarithmic weight and the
+	 *            utility of the sample
+	 * @param store the store in which to add the sample
+	 * @return true if the sample was added, and false if it was discarded
+	 */
+	public boolean sample(Value[] values, double threshold, double[] result,
+			SampleStore store) {
+		if (!run(values, threshold, result)) {
+			return false;
+		}
+		store.add(values, querySlots, result[0], result[1]);
+		return true;
+	}
+
+	/**
+	 * Returns a string representation of the plan
+	 */
+	@Override
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < codes.length; i++) {
+			str.append(nodes[i].getId() + ":" + codes[i] + " ");
+		}
+		return str.toString().trim();
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Executes the plan, filling the array of values and writing the logarithmic
+	 * weight and utility of the sample in the result array. Returns false if the
+	 * sample is discarded (because of an exception, a weight below the threshold or
+	 * the absence of values for the query variables).
+	 * 
+	 * @param values the array of values (one per slot)
+	 * @param threshold the minimum weight for the sample
+	 * @param result array of size 2 for the logarithmic weight and utility
+	 * @return true if the sample is valid, false otherwise
+	 */
+	private boolean run(Value[] values, double threshold, double[] result) {
+		double logWeight = 0.0;
+		double utility = 0.0;
+		try {
+			for (int i = 0; i < codes.length; i++) {
+				switch (codes[i]) {
+				case SET_EVIDENCE:
+					values[targets[i]] = evidenceValues[i];
+					break;
+				case SAMPLE_INDEPENDENT:
+					values[targets[i]] = ((IndependentDistribution) ((ChanceNode) nodes[i])
+							.getDistrib()).sample();
+					break;
+				case SAMPLE_CONDITIONAL:
+					values[targets[i]] =
+							((ChanceNode) nodes[i]).sample(getCondition(i, values));
+					break;
+				case WEIGHT_EVIDENCE:
+					logWeight += Math.log(((ChanceNode) nodes[i])
+							.getProb(getCondition(i, values), evidenceValues[i]));
+					values[targets[i]] = evidenceValues[i];
+					break;
+				case WEIGHT_CONTINUOUS:
+					logWeight += Math.log(((ContinuousDistribution) ((ChanceNode) nodes[i])
+							.getDistrib()).getProbDensity(evidenceValues[i]));
+					values[targets[i]] = evidenceValues[i];
+					break;
+				case SAMPLE_ACTION:
+					values[targets[i]] = ((ActionNode) nodes[i]).sample();
+					break;
+				case ADD_UTILITY:
+					utility += ((UtilityNode) nodes[i])
+							.getUtility(getCondition(i, values));
+					break;
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			log.warning("exception caught: " + e);
+			return false;
+		}
+		if (Math.exp(logWeight) <= threshold) {
+			return false;
+		}
+		boolean empty = true;
+		for (int slot : querySlots) {
+			empty = empty && values[slot] == null;
+		}
+		result[0] = logWeight;
+		result[1] = utility;
+		return !empty;
+	}
+
+	/**
+	 * Returns the assignment of values for the input variables of the step
+	 * 
+	 * @param step the step
+	 * @param values the current values
+	 * @return the corresponding assignment
+	 */
+	private Assignment getCondition(int step, Value[] values) {
+		Assignment condition = new Assignment();
+		for (int slot : inputs[step]) {
+			if (values[slot] != null) {
+				condition.addPair(labels[slot], values[slot]);
+			}
+		}
+		return condition;
+	}
+}
@@ -0,0 +1,462 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+
+/**
+ * Dense representation of a double factor (combining probability and utility
+ * values), where the variables and their values are mapped to integers via a
+ * domain index. The probabilities and utilities are stored in flat arrays, and the
+ * position of each entry is determined by the strides of the factor variables
+ * (the first variable varying fastest).
+ * 
+ * <p>
+ * The factor also records which of its entries are defined. Undefined entries
+ * correspond to assignments that are absent from the original (sparse) factor, and
+ * are ignored in all operations. This ensures that the dense factor yields the
+ * exact same results as the sparse DoubleFactor representation.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class DenseFactor {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// the domain index for the variables and values
+	final DomainIndex index;
+
+	// the variable identifiers (in increasing order)
+	final int[] vars;
+
+	// the number of values for each variable
+	final int[] cards;
+
+	// the stride for each variable
+	final int[] strides;
+
+	// the probability values
+	final double[] probs;
+
+	// the utility values
+	final double[] utils;
+
+	// whether each entry is defined
+	final boolean[] defined;
+
+	// ===================================
+	// CONSTRUCTION METHODS
+	// ===================================
+
+	/**
+	 * Creates a new factor for the given variables, where all entries are
+	 * undefined.
+	 * 
+	 * @param index the domain index
+	 * @param vars the variable identifiers (in increasing order)
+	 */
+	DenseFactor(DomainIndex index, int[] vars) {
+		this.index = index;
+		this.vars = vars;
+		cards = new int[vars.length];
+		strides = new int[vars.length];
+		long size = 1;
+		for (int i = 0; i < vars.length; i++) {
+			cards[i] = index.getNbValues(vars[i]);
+			strides[i] = (int) size;
+			size *= cards[i];
+			if (size > Integer.MAX_VALUE) {
+				throw new RuntimeException("factor is too large: " + getVariables());
+			}
+		}
+		probs = new double[(int) size];
+		utils = new double[(int) size];
+		defined = new boolean[(int) size];
+	}
+
+	/**
+	 * Creates a factor without variables and with a single entry (of probability
+	 * 1.0 and utility 0.0).
+	 * 
+	 * @param index the domain index
+	 * @return the resulting factor
+	 */
+	public static DenseFactor createUnit(DomainIndex index) {
+		DenseFactor factor = new DenseFactor(index, new int[0]);
+		factor.probs[0] = 1.0;
+		factor.defined[0] = true;
+		return factor;
+	}
+
+	/**
+	 * Creates a new factor from the table provided as argument. Only the rows that
+	 * are consistent with the evidence are included, and the evidence variables are
+	 * removed from the factor. The variables and values of the table must already
+	 * be registered in the domain index.
+	 * 
+	 * @param index the domain index
+	 * @param table the table (typically derived from a Bayesian node)
+	 * @param evidence the evidence
+	 * @param isUtility whether the table values are utilities (if true) or
+	 *            probabilities (if false)
+	 * @return the resulting factor
+	 */
+	public static DenseFactor create(DomainIndex index, Map<Assignment, Double> table,
+			Assignment evidence, boolean isUtility) {
+
+		TreeSet<Integer> varIds = new TreeSet<Integer>();
+		for (Assignment a : table.keySet()) {
+			if (a.consistentWith(evidence)) {
+				for (String var : a.getVariables()) {
+					if (!evidence.containsVar(var)) {
+						varIds.add(index.getId(var));
+					}
+				}
+			}
+		}
+		int[] vars = varIds.stream().mapToInt(i -> i).toArray();
+		DenseFactor factor = new DenseFactor(index, vars);
+
+		rowLoop: for (Assignment a : table.keySet()) {
+			if (!a.consistentWith(evidence)) {
+				continue;
+			}
+			int pos = 0;
+			for (int i = 0; i < vars.length; i++) {
+				String var = index.getVariable(vars[i]);
+				int valPos = index.getPosition(vars[i], a.getValue(var));
+				if (valPos < 0) {
+					log.warning("value for " + var + " is not indexed in " + a);
+					continue rowLoop;
+				}
+				pos += valPos * factor.strides[i];
+			}
+			double value = table.get(a);
+			factor.probs[pos] = (isUtility) ? 1.0 : value;
+			factor.utils[pos] = (isUtility) ? value : 0.0;
+			factor.defined[pos] = true;
+		}
+		return factor;
+	}
+
+	// ===================================
+	// FACTOR OPERATIONS
+	// ===================================
+
+	/**
+	 * Computes the pointwise product of the current factor with the factor given as
+	 * argument. The probabilities are multiplied, and the utilities are added.
+	 * 
+	 * @param other the other factor
+	 * @return the pointwise product of the two factors
+	 */
+	public DenseFactor product(DenseFactor other) {
+
+		DenseFactor result = new DenseFactor(index, mergeVars(vars, other.vars));
+		int nbVars = result.vars.length;
+
+		// strides of each result variable in the two factors (0 if absent)
+		int[] strides1 = new int[nbVars];
+		int[] strides2 = new int[nbVars];
+		for (int l = 0; l < nbVars; l++) {
+			strides1[l] = getStride(result.vars[l]);
+			strides2[l] = other.getStride(result.vars[l]);
+		}
+
+		int[] counter = new int[nbVars];
+		int j = 0;
+		int k = 0;
+		for (int i = 0; i < result.probs.length; i++) {
+			if (defined[j] && other.defined[k]) {
+				result.probs[i] = probs[j] * other.probs[k];
+				result.utils[i] = utils[j] + other.utils[k];
+				result.defined[i] = true;
+			}
+			for (int l = 0; l < nbVars; l++) {
+				counter[l]++;
+				if (counter[l] == result.cards[l]) {
+					counter[l] = 0;
+					j -= (result.cards[l] - 1) * strides1[l];
+					k -= (result.cards[l] - 1) * strides2[l];
+				}
+				else {
+					j += strides1[l];
+					k += strides2[l];
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sums out the variable from the factor, and returns the result. The
+	 * probabilities are summed, and the utilities are averaged according to their
+	 * probabilities. If the variable is not included in the factor, the factor is
+	 * returned unchanged.
+	 * 
+	 * @param varId the identifier of the variable to sum out
+	 * @return the resulting factor
+	 */
+	public DenseFactor sumOut(int varId) {
+
+		int varPos = Arrays.binarySearch(vars, varId);
+		if (varPos < 0) {
+			return this;
+		}
+		int[] newVars = new int[vars.length - 1];
+		System.arraycopy(vars, 0, newVars, 0, varPos);
+		System.arraycopy(vars, varPos + 1, newVars, varPos, newVars.length - varPos);
+		DenseFactor result = new DenseFactor(index, newVars);
+
+		// strides of each variable in the resulting factor (0 if summed out)
+		int[] newStrides = new int[vars.length];
+		for (int l = 0; l < vars.length; l++) {
+			newStrides[l] = (l < varPos) ? result.strides[l]
+					: (l > varPos) ? result.strides[l - 1] : 0;
+		}
+
+		int[] counter = new int[vars.length];
+		int k = 0;
+		for (int i = 0; i < probs.length; i++) {
+			if (defined[i]) {
+				result.probs[k] += probs[i];
+				result.utils[k] += probs[i] * utils[i];
+				result.defined[k] = true;
+			}
+			for (int l = 0; l < vars.length; l++) {
+				counter[l]++;
+				if (counter[l] == cards[l]) {
+					counter[l] = 0;
+					k -= (cards[l] - 1) * newStrides[l];
+				}
+				else {
+					k += newStrides[l];
+					break;
+				}
+			}
+		}
+
+		// normalising the utilities with respect to the probabilities
+		for (int i = 0; i < result.probs.length; i++) {
+			double prob = result.probs[i];
+			if (prob > 0.0 && result.utils[i] != 0 && prob != 1) {
+				result.utils[i] = result.utils[i] / prob;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sums out the variable from the factor, and returns the result.
+	 * 
+	 * @param variable the variable label
+	 * @return the resulting factor
+	 */
+	public DenseFactor sumOut(String variable) {
+		int varId = index.getId(variable);
+		return (varId >= 0) ? sumOut(varId) : this;
+	}
+
+	/**
+	 * Normalises the probabilities of the factor, assuming no conditional variables
+	 * in the factor.
+	 */
+	public void normalise() {
+		double total = 0.0;
+		for (int i = 0; i < probs.length; i++) {
+			if (defined[i]) {
+				total += probs[i];
+			}
+		}
+		if (total == 0.0) {
+			return;
+		}
+		for (int i = 0; i < probs.length; i++) {
+			if (defined[i]) {
+				probs[i] = probs[i] / total;
+			}
+		}
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns true if the factor is empty, i.e. if it either contains no variables
+	 * or no defined entries.
+	 * 
+	 * @return true if the factor is empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		if (vars.length == 0) {
+			return true;
+		}
+		for (int i = 0; i < defined.length; i++) {
+			if (defined[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if the factor contains the variable, and false otherwise.
+	 * 
+	 * @param varId the variable identifier
+	 * @return true if the variable is included, false otherwise
+	 */
+	public boolean hasVariable(int varId) {
+		return Arrays.binarySearch(vars, varId) >= 0;
+	}
+
+	/**
+	 * Returns the labels of the variables in the factor
+	 * 
+	 * @return the variable labels
+	 */
+	public List<String> getVariables() {
+		List<String> variables = new ArrayList<String>(vars.length);
+		for (int i = 0; i < vars.length; i++) {
+			variables.add(index.getVariable(vars[i]));
+		}
+		return variables;
+	}
+
+	/**
+	 * Returns the domain index employed by the factor
+	 * 
+	 * @return the domain index
+	 */
+	public DomainIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns the size of the factor (including the undefined entries)
+	 * 
+	 * @return the factor size
+	 */
+	public int size() {
+		return probs.length;
+	}
+
+	// ===================================
+	// UTILITIES
+	// ===================================
+
+	/**
+	 * Converts the factor into a (sparse) DoubleFactor that only contains the
+	 * defined entries.
+	 * 
+	 * @return the corresponding double factor
+	 */
+	public DoubleFactor toDoubleFactor() {
+		DoubleFactor factor = new DoubleFactor();
+		int[] counter = new int[vars.length];
+		for (int i = 0; i < probs.length; i++) {
+			if (defined[i]) {
+				Assignment a = new Assignment();
+				for (int l = 0; l < vars.length; l++) {
+					Value v = index.getValue(vars[l], counter[l]);
+					a.addPair(index.getVariable(vars[l]), v);
+				}
+				factor.addEntry(a, probs[i], utils[i]);
+			}
+			for (int l = 0; l < vars.length; l++) {
+				counter[l]++;
+				if (counter[l] == cards[l]) {
+					counter[l] = 0;
+				}
+				else {
+					break;
+				}
+			}
+		}
+		return factor;
+	}
+
+	/**
+	 * Returns a string representation of the factor
+	 */
+	@Override
+	public String toString() {
+		return toDoubleFactor().toString();
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Returns the stride for the variable, or 0 if the variable is not included in
+	 * the factor.
+	 * 
+	 * @param varId the variable identifier
+	 * @return the stride
+	 */
+	private int getStride(int varId) {
+		int pos = Arrays.binarySearch(vars, varId);
+		return (pos >= 0) ? strides[pos] : 0;
+	}
+
+	/**
+	 * Merges two sorted arrays of variable identifiers into a sorted array without
+	 * duplicates.
+	 * 
+	 * @param vars1 the first array
+	 * @param vars2 the second array
+	 * @return the merged array
+	 */
+	private static int[] mergeVars(int[] vars1, int[] vars2) {
+		int[] merged = new int[vars1.length + vars2.length];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while (i < vars1.length || j < vars2.length) {
+			if (j == vars2.length || (i < vars1.length && vars1[i] < vars2[j])) {
+				merged[k++] = vars1[i++];
+			}
+			else if (i == vars1.length || vars2[j] < vars1[i]) {
+				merged[k++] = vars2[j++];
+			}
+			else {
+				merged[k++] = vars1[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(merged, k);
+	}
+}
@@ -0,0 +1,218 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import opendial.bn.values.Value;
+import opendial.datastructs.Assignment;
+
+/**
+ * Index mapping the variables of an inference query to integer identifiers, and
+ * the values of each variable to integer positions. The index is employed by the
+ * dense factors used in variable elimination, which store their entries in flat
+ * arrays indexed by these positions.
+ * 
+ * <p>
+ * The domains must be fully registered before creating the factors that rely on
+ * them, since the size of each factor is determined by the number of values of its
+ * variables.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class DomainIndex {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// mapping from variable labels to integer identifiers
+	final Map<String, Integer> ids;
+
+	// variable labels (indexed by identifier)
+	final List<String> variables;
+
+	// mapping from values to positions, for each variable
+	final List<Map<Value, Integer>> positions;
+
+	// values (indexed by position), for each variable
+	final List<List<Value>> values;
+
+	// ===================================
+	// CONSTRUCTION METHODS
+	// ===================================
+
+	/**
+	 * Creates a new, empty index
+	 */
+	public DomainIndex() {
+		ids = new HashMap<String, Integer>();
+		variables = new ArrayList<String>();
+		positions = new ArrayList<Map<Value, Integer>>();
+		values = new ArrayList<List<Value>>();
+	}
+
+	/**
+	 * Adds the variable to the index (if it is not already included) and returns
+	 * its identifier.
+	 * 
+	 * @param variable the variable label
+	 * @return the identifier for the variable
+	 */
+	public int addVariable(String variable) {
+		Integer id = ids.get(variable);
+		if (id == null) {
+			id = variables.size();
+			ids.put(variable, id);
+			variables.add(variable);
+			positions.add(new HashMap<Value, Integer>());
+			values.add(new ArrayList<Value>());
+		}
+		return id;
+	}
+
+	/**
+	 * Adds the value to the domain of the variable (if it is not already included)
+	 * and returns its position in the domain.
+	 * 
+	 * @param id the variable identifier
+	 * @param value the value to add
+	 * @return the position of the value in the domain of the variable
+	 */
+	public int addValue(int id, Value value) {
+		Map<Value, Integer> varPositions = positions.get(id);
+		Integer pos = varPositions.get(value);
+		if (pos == null) {
+			pos = varPositions.size();
+			varPositions.put(value, pos);
+			values.get(id).add(value);
+		}
+		return pos;
+	}
+
+	/**
+	 * Registers all the variables and values occurring in the table (except the
+	 * evidence variables), for all rows that are consistent with the evidence.
+	 * 
+	 * @param table the table (typically the factor of a Bayesian node)
+	 * @param evidence the evidence
+	 */
+	public void addValues(Map<Assignment, Double> table, Assignment evidence) {
+		for (Assignment a : table.keySet()) {
+			if (!a.consistentWith(evidence)) {
+				continue;
+			}
+			for (Map.Entry<String, Value> e : a.getEntrySet()) {
+				if (!evidence.containsVar(e.getKey())) {
+					addValue(addVariable(e.getKey()), e.getValue());
+				}
+			}
+		}
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns the identifier for the variable, or -1 if the variable is not indexed.
+	 * 
+	 * @param variable the variable label
+	 * @return the identifier for the variable
+	 */
+	public int getId(String variable) {
+		Integer id = ids.get(variable);
+		return (id != null) ? id : -1;
+	}
+
+	/**
+	 * Returns the variable label associated with the identifier
+	 * 
+	 * @param id the variable identifier
+	 * @return the variable label
+	 */
+	public String getVariable(int id) {
+		return variables.get(id);
+	}
+
+	/**
+	 * Returns the number of values in the domain of the variable
+	 * 
+	 * @param id the variable identifier
+	 * @return the number of values
+	 */
+	public int getNbValues(int id) {
+		return values.get(id).size();
+	}
+
+	/**
+	 * Returns the value at the given position in the domain of the variable
+	 * 
+	 * @param id the variable identifier
+	 * @param pos the position of the value
+	 * @return the corresponding value
+	 */
+	public Value getValue(int id, int pos) {
+		return values.get(id).get(pos);
+	}
+
+	/**
+	 * Returns the position of the value in the domain of the variable, or -1 if the
+	 * value is not part of the domain.
+	 * 
+	 * @param id the variable identifier
+	 * @param value the value
+	 * @return the position of the value
+	 */
+	public int getPosition(int id, Value value) {
+		Integer pos = positions.get(id).get(value);
+		return (pos != null) ? pos : -1;
+	}
+
+	/**
+	 * Returns the number of indexed variables
+	 * 
+	 * @return the number of variables
+	 */
+	public int size() {
+		return variables.size();
+	}
+
+	/**
+	 * Returns a string representation of the index
+	 */
+	@Override
+	public String toString() {
+		String str = "";
+		for (int i = 0; i < variables.size(); i++) {
+			str += variables.get(i) + "=" + values.get(i) + "\n";
+		}
+		return str;
+	}
+
+}
@@ -0,0 +1,414 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import opendial.bn.BNetwork;
+import opendial.bn.nodes.ActionNode;
+import opendial.bn.nodes.BNode;
+import opendial.bn.nodes.ChanceNode;
+import opendial.bn.nodes.UtilityNode;
+import opendial.datastructs.Assignment;
+import opendial.inference.Query;
+
+/**
+ * Elimination ordering for the hidden variables of a query, as used by the
+ * variable elimination algorithm. The ordering is computed greedily on the
+ * interaction graph of the query (where two variables are connected if they
+ * appear in a common factor), using one of the following heuristics:
+ * <ul>
+ * <li>TOPOLOGICAL: eliminates the variables from the leaves to the roots of the
+ * network (without looking at the factor sizes)
+ * <li>MIN_DEGREE: eliminates first the variable with the fewest neighbours
+ * <li>MIN_WEIGHT: eliminates first the variable whose intermediate factor has the
+ * smallest number of entries
+ * <li>MIN_FILL: eliminates first the variable that adds the fewest new edges to
+ * the interaction graph
+ * </ul>
+ * 
+ * <p>
+ * The domain sizes are estimated from the number of values in each node. The
+ * ordering also provides an estimate of the peak factor size (i.e. the size of the
+ * largest intermediate factor) and of the total cost of the elimination. The
+ * orderings computed for a query can be retrieved through
+ * {@link #getOrdering(Query, Heuristic)}, which caches them in the network.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class EliminationOrdering {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	/** Heuristics for the selection of the next variable to eliminate */
+	public static enum Heuristic {
+		TOPOLOGICAL, MIN_DEGREE, MIN_WEIGHT, MIN_FILL
+	}
+
+	// the heuristic used to construct the ordering
+	final Heuristic heuristic;
+
+	// the ordered list of variables to eliminate
+	final List<String> order;
+
+	// the estimated size of the largest intermediate factor
+	double peakFactorSize = 1.0;
+
+	// the estimated total cost (sum of the sizes of intermediate factors)
+	double totalCost = 0.0;
+
+	// domain size for each variable
+	final Map<String, Double> sizes;
+
+	// neighbours of each variable in the interaction graph
+	final Map<String, Set<String>> neighbours;
+
+	// the cliques formed by the elimination of each variable
+	final List<Set<String>> cliques;
+
+	// ===================================
+	// CONSTRUCTION METHODS
+	// ===================================
+
+	/**
+	 * Creates the elimination ordering for the query, using the given heuristic.
+	 * 
+	 * @param query the query
+	 * @param heuristic the heuristic for the ordering
+	 */
+	public EliminationOrdering(Query query, Heuristic heuristic) {
+		this.heuristic = heuristic;
+		order = new ArrayList<String>();
+		sizes = new HashMap<String, Double>();
+		neighbours = new HashMap<String, Set<String>>();
+		cliques = new ArrayList<Set<String>>();
+
+		BNetwork network = query.getNetwork();
+		Collection<String> queryVars = query.getQueryVars();
+		Assignment evidence = query.getEvidence();
+
+		// construct the interaction graph, and the list of hidden variables
+		// (ordered from the leaves to the roots)
+		List<String> hiddenVars = new ArrayList<String>();
+		for (BNode n : query.getFilteredSortedNodes()) {
+			Set<String> scope = new HashSet<String>(n.getInputNodeIds());
+			if (!(n instanceof UtilityNode)) {
+				scope.add(n.getId());
+			}
+			scope.removeAll(evidence.getVariables());
+			for (String var : scope) {
+				if (!sizes.containsKey(var)) {
+					sizes.put(var, getDomainSize(network.getNode(var)));
+					neighbours.put(var, new HashSet<String>());
+				}
+				neighbours.get(var).addAll(scope);
+				neighbours.get(var).remove(var);
+			}
+			if (scope.contains(n.getId()) && !queryVars.contains(n.getId())) {
+				hiddenVars.add(n.getId());
+			}
+		}
+
+		computeOrdering(hiddenVars);
+	}
+
+	/**
+	 * Returns the elimination ordering for the query, using the given heuristic.
+	 * The ordering is cached in the network of the query (for its current
+	 * revision), such that it is only computed once for the selection of the
+	 * inference algorithm and the inference itself.
+	 * 
+	 * @param query the query
+	 * @param heuristic the heuristic for the ordering
+	 * @return the (possibly cached) elimination ordering
+	 */
+	public static EliminationOrdering getOrdering(Query query,
+			Heuristic heuristic) {
+		BNetwork network = query.getNetwork();
+		List<Object> key = Arrays.asList(EliminationOrdering.class, heuristic,
+				network.getRevision(), query.getClass(),
+				new HashSet<String>(query.getQueryVars()),
+				new HashSet<String>(query.getEvidence().getVariables()));
+		return network.getDerivedData(key,
+				k -> new EliminationOrdering(query, heuristic));
+	}
+
+	/**
+	 * Creates the elimination ordering for all the variables in the factors, using
+	 * the given heuristic. The domain sizes are derived from the domain index of
+	 * the factors, and the ties are broken by the order of appearance of the
+	 * variables.
+	 * 
+	 * @param factors the factors
+	 * @param heuristic the heuristic for the ordering
+	 */
+	public EliminationOrdering(Collection<DenseFactor> factors,
+			Heuristic heuristic) {
+		this.heuristic = heuristic;
+		order = new ArrayList<String>();
+		sizes = new HashMap<String, Double>();
+		neighbours = new HashMap<String, Set<String>>();
+		cliques = new ArrayList<Set<String>>();
+
+		List<String> hiddenVars = new ArrayList<String>();
+		for (DenseFactor factor : factors) {
+			List<String> scope = factor.getVariables();
+			for (String var : scope) {
+				if (!sizes.containsKey(var)) {
+					int id = factor.getIndex().getId(var);
+					sizes.put(var, (double) factor.getIndex().getNbValues(id));
+					neighbours.put(var, new HashSet<String>());
+					hiddenVars.add(var);
+				}
+				neighbours.get(var).addAll(scope);
+				neighbours.get(var).remove(var);
+			}
+		}
+		computeOrdering(hiddenVars);
+	}
+
+	/**
+	 * Greedily selects the order in which the hidden variables are eliminated, and
+	 * estimates the peak factor size and total cost of the elimination.
+	 * 
+	 * @param hiddenVars the variables to eliminate
+	 */
+	private void computeOrdering(List<String> hiddenVars) {
+		while (!hiddenVars.isEmpty()) {
+			String var = (heuristic == Heuristic.TOPOLOGICAL) ? hiddenVars.get(0)
+					: selectNext(hiddenVars);
+			double size = getWeight(var);
+			peakFactorSize = Math.max(peakFactorSize, size);
+			totalCost += size;
+			Set<String> clique = new HashSet<String>(neighbours.get(var));
+			clique.add(var);
+			cliques.add(clique);
+			eliminate(var);
+			hiddenVars.remove(var);
+			order.add(var);
+		}
+
+		// the final product over the remaining variables
+		double finalSize = 1.0;
+		for (String var : neighbours.keySet()) {
+			finalSize *= sizes.get(var);
+		}
+		peakFactorSize = Math.max(peakFactorSize, finalSize);
+		totalCost += finalSize;
+	}
+
+	// ===================================
+	// GETTERS
+	// ===================================
+
+	/**
+	 * Returns the ordered list of variables to eliminate
+	 * 
+	 * @return the elimination ordering
+	 */
+	public List<String> getOrder() {
+		return Collections.unmodifiableList(order);
+	}
+
+	/**
+	 * Returns the cliques formed during the elimination, in the order of the
+	 * eliminated variables. Each clique contains the eliminated variable and its
+	 * neighbours in the interaction graph at the time of its elimination.
+	 * 
+	 * @return the list of elimination cliques
+	 */
+	public List<Set<String>> getCliques() {
+		return Collections.unmodifiableList(cliques);
+	}
+
+	/**
+	 * Returns the estimated size of the largest factor created during the
+	 * elimination.
+	 * 
+	 * @return the estimated peak factor size
+	 */
+	public double getPeakFactorSize() {
+		return peakFactorSize;
+	}
+
+	/**
+	 * Returns the estimated total cost of the elimination, defined as the sum of the
+	 * sizes of the intermediate factors.
+	 * 
+	 * @return the estimated total cost
+	 */
+	public double getTotalCost() {
+		return totalCost;
+	}
+
+	/**
+	 * Returns the heuristic used to construct the ordering
+	 * 
+	 * @return the heuristic
+	 */
+	public Heuristic getHeuristic() {
+		return heuristic;
+	}
+
+	/**
+	 * Returns a string representation of the ordering
+	 */
+	@Override
+	public String toString() {
+		return heuristic + " ordering " + order + " (estimated peak factor size: "
+				+ peakFactorSize + ")";
+	}
+
+	/**
+	 * Parses the heuristic from its string representation (e.g. "min-fill" or
+	 * "MIN_FILL").
+	 * 
+	 * @param str the string
+	 * @return the corresponding heuristic
+	 */
+	public static Heuristic parseHeuristic(String str) {
+		String normalised = str.trim().toUpperCase().replace("-", "_");
+		if (!normalised.equals("TOPOLOGICAL") && !normalised.contains("_")) {
+			normalised = normalised.replace("MIN", "MIN_");
+		}
+		return Heuristic.valueOf(normalised);
+	}
+
+	// ===================================
+	// PRIVATE METHODS
+	// ===================================
+
+	/**
+	 * Selects the next variable to eliminate according to the heuristic. Ties are
+	 * broken by the factor weight, and then by the topological ordering.
+	 * 
+	 * @param candidates the candidate variables
+	 * @return the selected variable
+	 */
+	private String selectNext(List<String> candidates) {
+		String best = null;
+		double bestCost = Double.MAX_VALUE;
+		double bestWeight = Double.MAX_VALUE;
+		for (String var : candidates) {
+			double weight = getWeight(var);
+			double cost;
+			switch (heuristic) {
+			case MIN_DEGREE:
+				cost = neighbours.get(var).size();
+				break;
+			case MIN_FILL:
+				cost = getFillEdges(var);
+				break;
+			default:
+				cost = weight;
+			}
+			if (cost < bestCost || (cost == bestCost && weight < bestWeight)) {
+				best = var;
+				bestCost = cost;
+				bestWeight = weight;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the size of the factor created by eliminating the variable (i.e. the
+	 * product of the domain sizes for the variable and its neighbours).
+	 * 
+	 * @param var the variable
+	 * @return the factor weight
+	 */
+	private double getWeight(String var) {
+		double weight = sizes.get(var);
+		for (String neighbour : neighbours.get(var)) {
+			weight *= sizes.get(neighbour);
+		}
+		return weight;
+	}
+
+	/**
+	 * Returns the number of edges that would be added to the interaction graph if
+	 * the variable were eliminated.
+	 * 
+	 * @param var the variable
+	 * @return the number of fill edges
+	 */
+	private int getFillEdges(String var) {
+		List<String> nbs = new ArrayList<String>(neighbours.get(var));
+		int fill = 0;
+		for (int i = 0; i < nbs.size(); i++) {
+			Set<String> nbs2 = neighbours.get(nbs.get(i));
+			for (int j = i + 1; j < nbs.size(); j++) {
+				if (!nbs2.contains(nbs.get(j))) {
+					fill++;
+				}
+			}
+		}
+		return fill;
+	}
+
+	/**
+	 * Removes the variable from the interaction graph, and connects all of its
+	 * neighbours with one another.
+	 * 
+	 * @param var the variable to eliminate
+	 */
+	private void eliminate(String var) {
+		Set<String> nbs = neighbours.remove(var);
+		for (String neighbour : nbs) {
+			Set<String> nbs2 = neighbours.get(neighbour);
+			nbs2.remove(var);
+			nbs2.addAll(nbs);
+			nbs2.remove(neighbour);
+		}
+	}
+
+	/**
+	 * Returns the (estimated) domain size for the node.
+	 * 
+	 * @param node the node
+	 * @return the domain size
+	 */
+	private static double getDomainSize(BNode node) {
+		if (node instanceof ChanceNode) {
+			return Math.max(1, ((ChanceNode) node).getNbValues());
+		}
+		else if (node instanceof ActionNode) {
+			return Math.max(1, node.getValues().size());
+		}
+		return 1.0;
+	}
+
+}
@@ -0,0 +1,522 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.inference.exact;
+
+import java.util.logging.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import opendial.Settings;
+import opendial.bn.BNetwork;
+import opendial.bn.distribs.ContinuousDistribution;
+import opendial.bn.distribs.MultivariateTable;
+import opendial.bn.distribs.UtilityTable;
+import opendial.bn.nodes.BNode;
+import opendial.bn.nodes.ChanceNode;
+import opendial.bn.nodes.UtilityNode;
+import opendial.datastructs.Assignment;
+import opendial.inference.InferenceAlgorithm;
+import opendial.inference.Query;
+
+/**
+ * Implementation of the junction tree algorithm for probability queries. The
+ * chance and action nodes of the network are compiled into a tree of cliques
+ * (triangulated with the elimination ordering heuristic), which is then
+ * calibrated through message passing. Once calibrated, the marginal distribution
+ * of any set of variables that is included in a clique can be directly extracted
+ * from the clique beliefs.
+ * 
+ * <p>
+ * The trees are compiled over all chance and action nodes of the network, and are
+ * cached in the network itself (for its current revision), indexed by the
+ * evidence. The tree is thus calibrated upon the first query for a given revision
+ * and evidence, and the subsequent queries on any set of variables included in a
+ * clique are answered from the beliefs. The queries that cannot be answered from
+ * a single clique, as well as the utility and reduction queries, are delegated to
+ * variable elimination.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public class JunctionTree implements InferenceAlgorithm {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// maximum number of entries in a clique to allow the calibration
+	public static int MAX_CLIQUE_SIZE = 50000;
+
+	// the heuristic used to triangulate the network
+	EliminationOrdering.Heuristic heuristic = Settings.eliminationOrdering;
+
+	// the algorithm used for the queries that cannot be answered by the tree
+	VariableElimination ve;
+
+	// the number of calibrations performed so far
+	final AtomicInteger nbCalibrations = new AtomicInteger();
+
+	// ===================================
+	// CONSTRUCTORS
+	// ===================================
+
+	/**
+	 * Creates a new junction tree algorithm, using the default elimination
+	 * heuristic to triangulate the networks.
+	 */
+	public JunctionTree() {
+		this(Settings.eliminationOrdering);
+	}
+
+	/**
+	 * Creates a new junction tree algorithm, using the given elimination heuristic
+	 * to triangulate the networks.
+	 * 
+	 * @param heuristic the elimination heuristic
+	 */
+	public JunctionTree(EliminationOrdering.Heuristic heuristic) {
+		this.heuristic = heuristic;
+		ve = new VariableElimination(heuristic);
+	}
+
+	// ===================================
+	// MAIN METHODS
+	// ===================================
+
+	/**
+	 * Queries for the probability distribution of the set of random variables in
+	 * the Bayesian network, given the provided evidence. The distribution is
+	 * extracted from the beliefs of the tree calibrated for the evidence (which is
+	 * calibrated if necessary). If the query variables are not included in a clique,
+	 * or if the network cannot be compiled, the query is answered by variable
+	 * elimination.
+	 * 
+	 * @param query the full query
+	 * @return the resulting probability distribution
+	 */
+	@Override
+	public MultivariateTable queryProb(Query.ProbQuery query) {
+		CalibratedTree tree = getCalibratedTree(query);
+		if (tree != null) {
+			MultivariateTable result = tree.getMarginal(query.getQueryVars());
+			if (result != null) {
+				return result;
+			}
+		}
+		return ve.queryProb(query);
+	}
+
+	/**
+	 * Queries for the utility of a particular set of (action) variables, given the
+	 * provided evidence. The query is delegated to variable elimination.
+	 * 
+	 * @param query the full query
+	 * @return the utility distribution
+	 */
+	@Override
+	public UtilityTable queryUtil(Query.UtilQuery query) {
+		return ve.queryUtil(query);
+	}
+
+	/**
+	 * Reduces the Bayesian network to a subset of its variables. The query is
+	 * delegated to variable elimination.
+	 * 
+	 * @param query the reduction query
+	 * @return the reduced network
+	 */
+	@Override
+	public BNetwork reduce(Query.ReduceQuery query) {
+		return ve.reduce(query);
+	}
+
+	/**
+	 * Returns the number of calibrations performed so far by the algorithm.
+	 * 
+	 * @return the number of calibrations
+	 */
+	public int getNbCalibrations() {
+		return nbCalibrations.get();
+	}
+
+	// ===================================
+	// CACHE MANAGEMENT
+	// ===================================
+
+	/**
+	 * Returns the tree calibrated for the evidence of the query at the current
+	 * revision of the network, or null if the network cannot be compiled into a
+	 * junction tree. The trees are stored in the network, and the calibration
+	 * itself is performed outside of any shared lock (concurrent queries for the
+	 * same evidence wait for its completion).
+	 * 
+	 * @param query the probability query
+	 * @return the calibrated tree (if any)
+	 */
+	private CalibratedTree getCalibratedTree(Query query) {
+		BNetwork network = query.getNetwork();
+		List<BNode> nodes = new ArrayList<BNode>();
+		Set<String> nodeIds = new HashSet<String>();
+		for (BNode node : network.getNodes()) {
+			if (!(node instanceof UtilityNode)) {
+				nodes.add(node);
+				nodeIds.add(node.getId());
+			}
+		}
+		Assignment evidence = query.getEvidence().getTrimmed(nodeIds);
+		List<Object> key = Arrays.asList(JunctionTree.class, heuristic,
+				network.getRevision(), evidence);
+		FutureTask<CalibratedTree> task = network.getDerivedData(key,
+				k -> new FutureTask<CalibratedTree>(() -> calibrate(nodes, evidence)));
+
+		// only the first caller actually runs the calibration
+		task.run();
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Compiles the nodes into a junction tree and calibrates it for the evidence.
+	 * Returns null if the nodes cannot be compiled.
+	 * 
+	 * @param nodes the nodes
+	 * @param evidence the evidence
+	 * @return the calibrated tree (or null)
+	 */
+	private CalibratedTree calibrate(List<BNode> nodes, Assignment evidence) {
+		try {
+			CalibratedTree tree = new CalibratedTree(nodes, evidence);
+			nbCalibrations.incrementAndGet();
+			return tree;
+		}
+		catch (RuntimeException e) {
+			log.fine("cannot calibrate junction tree: " + e.getMessage());
+			return null;
+		}
+	}
+
+	// ===================================
+	// CALIBRATED TREE
+	// ===================================
+
+	/**
+	 * Junction tree calibrated for a particular set of nodes and evidence. The tree
+	 * is immutable once constructed.
+	 */
+	final class CalibratedTree {
+
+		// the evidence
+		final Assignment evidence;
+
+		// the domain index for the variables in the tree
+		final DomainIndex index;
+
+		// the variables in each clique
+		final List<Set<Integer>> cliques;
+
+		// the calibrated (normalised) belief for each clique
+		final List<DenseFactor> beliefs;
+
+		/**
+		 * Compiles the (chance and action) nodes into a junction tree and
+		 * calibrates it.
+		 * 
+		 * @param nodes the nodes
+		 * @param evidence the evidence
+		 */
+		CalibratedTree(List<BNode> nodes, Assignment evidence) {
+			this.evidence = new Assignment(evidence);
+
+			// index the variables and values of all node factors
+			index = new DomainIndex();
+			List<Map<Assignment, Double>> tables =
+					new ArrayList<Map<Assignment, Double>>(nodes.size());
+			for (BNode n : nodes) {
+				if (n instanceof ChanceNode && ((ChanceNode) n)
+						.getDistrib() instanceof ContinuousDistribution) {
+					throw new RuntimeException(
+							"continuous distribution for " + n.getId());
+				}
+				Map<Assignment, Double> table = n.getFactor();
+				index.addValues(table, evidence);
+				tables.add(table);
+			}
+
+			// create the basic factor for every node
+			List<DenseFactor> factors = new ArrayList<DenseFactor>();
+			for (Map<Assignment, Double> table : tables) {
+				DenseFactor factor = DenseFactor.create(index, table, evidence, false);
+				if (!factor.isEmpty()) {
+					factors.add(factor);
+				}
+			}
+
+			// triangulate the network and extract the maximal cliques
+			EliminationOrdering ordering =
+					new EliminationOrdering(factors, heuristic);
+			if (ordering.getPeakFactorSize() > MAX_CLIQUE_SIZE) {
+				throw new RuntimeException("clique size is too large: "
+						+ ordering.getPeakFactorSize());
+			}
+			cliques = new ArrayList<Set<Integer>>();
+			for (Set<String> clique : ordering.getCliques()) {
+				Set<Integer> ids = new HashSet<Integer>();
+				clique.forEach(v -> ids.add(index.getId(v)));
+				if (!cliques.stream().anyMatch(c -> c.containsAll(ids))) {
+					cliques.removeIf(c -> ids.containsAll(c));
+					cliques.add(ids);
+				}
+			}
+
+			// assign each factor to a clique that covers it
+			List<DenseFactor> potentials = new ArrayList<DenseFactor>();
+			for (int i = 0; i < cliques.size(); i++) {
+				potentials.add(DenseFactor.createUnit(index));
+			}
+			for (DenseFactor factor : factors) {
+				for (int i = 0; i < cliques.size(); i++) {
+					if (cliques.get(i).containsAll(getIds(factor))) {
+						potentials.set(i, potentials.get(i).product(factor));
+						break;
+					}
+				}
+			}
+
+			beliefs = calibrate(potentials, getNeighbours());
+			log.fine("calibrated junction tree with " + cliques.size()
+					+ " cliques (peak size: " + ordering.getPeakFactorSize() + ")");
+		}
+
+		/**
+		 * Returns the marginal distribution for the query variables, or null if
+		 * the variables are not all included in a clique of the tree (or are part
+		 * of the evidence).
+		 * 
+		 * @param queryVars the query variables
+		 * @return the marginal distribution (if it can be extracted)
+		 */
+		MultivariateTable getMarginal(Collection<String> queryVars) {
+			Set<Integer> queryIds = new HashSet<Integer>();
+			for (String queryVar : queryVars) {
+				int id = index.getId(queryVar);
+				if (id < 0 || evidence.containsVar(queryVar)) {
+					return null;
+				}
+				queryIds.add(id);
+			}
+
+			// selects the smallest belief that contains all query variables
+			DenseFactor belief = null;
+			for (DenseFactor b : beliefs) {
+				if (getIds(b).containsAll(queryIds)
+						&& (belief == null || b.size() < belief.size())) {
+					belief = b;
+				}
+			}
+			if (belief == null) {
+				return null;
+			}
+			for (int id : getIds(belief)) {
+				if (!queryIds.contains(id)) {
+					belief = belief.sumOut(id);
+				}
+			}
+			MultivariateTable.Builder builder = new MultivariateTable.Builder();
+			builder.addRows(belief.toDoubleFactor().getProbTable());
+			builder.normalise();
+			return builder.build();
+		}
+
+		/**
+		 * Connects the cliques into a tree (or forest) of maximum separator
+		 * weight, using Prim's algorithm. Cliques without any shared variable are
+		 * left unconnected.
+		 * 
+		 * @return the list of neighbours for each clique
+		 */
+		private List<List<Integer>> getNeighbours() {
+			int nbCliques = cliques.size();
+			List<List<Integer>> neighbours = new ArrayList<List<Integer>>();
+			for (int i = 0; i < nbCliques; i++) {
+				neighbours.add(new ArrayList<Integer>());
+			}
+			boolean[] inTree = new boolean[nbCliques];
+			int[] bestWeight = new int[nbCliques];
+			int[] bestLink = new int[nbCliques];
+			for (int k = 0; k < nbCliques; k++) {
+				int next = -1;
+				for (int i = 0; i < nbCliques; i++) {
+					if (!inTree[i] && (next < 0 || bestWeight[i] > bestWeight[next])) {
+						next = i;
+					}
+				}
+				inTree[next] = true;
+				if (bestWeight[next] > 0) {
+					neighbours.get(next).add(bestLink[next]);
+					neighbours.get(bestLink[next]).add(next);
+				}
+				for (int i = 0; i < nbCliques; i++) {
+					if (!inTree[i]) {
+						Set<Integer> sep = new HashSet<Integer>(cliques.get(i));
+						sep.retainAll(cliques.get(next));
+						if (sep.size() > bestWeight[i]) {
+							bestWeight[i] = sep.size();
+							bestLink[i] = next;
+						}
+					}
+				}
+			}
+			return neighbours;
+		}
+
+		/**
+		 * Calibrates the tree by passing messages from the leaves to the root of
+		 * each connected component, and then back from the root to the leaves.
+		 * 
+		 * @param potentials the clique potentials
+		 * @param neighbours the neighbours of each clique
+		 * @return the calibrated clique beliefs
+		 */
+		private List<DenseFactor> calibrate(List<DenseFactor> potentials,
+				List<List<Integer>> neighbours) {
+			int nbCliques = cliques.size();
+
+			// ordering the cliques from the roots to the leaves
+			int[] parents = new int[nbCliques];
+			List<Integer> sorted = new ArrayList<Integer>();
+			boolean[] visited = new boolean[nbCliques];
+			for (int root = 0; root < nbCliques; root++) {
+				if (visited[root]) {
+					continue;
+				}
+				parents[root] = -1;
+				visited[root] = true;
+				int start = sorted.size();
+				sorted.add(root);
+				for (int k = start; k < sorted.size(); k++) {
+					int i = sorted.get(k);
+					for (int j : neighbours.get(i)) {
+						if (!visited[j]) {
+							visited[j] = true;
+							parents[j] = i;
+							sorted.add(j);
+						}
+					}
+				}
+			}
+
+			// messages[i][n] is the message sent to clique i by its n-th neighbour
+			DenseFactor[][] messages = new DenseFactor[nbCliques][];
+			for (int i = 0; i < nbCliques; i++) {
+				messages[i] = new DenseFactor[neighbours.get(i).size()];
+			}
+
+			// upward pass
+			for (int k = sorted.size() - 1; k >= 0; k--) {
+				int i = sorted.get(k);
+				if (parents[i] >= 0) {
+					sendMessage(i, parents[i], potentials, neighbours, messages);
+				}
+			}
+			// downward pass
+			for (int i : sorted) {
+				for (int j : neighbours.get(i)) {
+					if (j != parents[i]) {
+						sendMessage(i, j, potentials, neighbours, messages);
+					}
+				}
+			}
+
+			List<DenseFactor> beliefs = new ArrayList<DenseFactor>(nbCliques);
+			for (int i = 0; i < nbCliques; i++) {
+				DenseFactor belief = potentials.get(i);
+				for (DenseFactor message : messages[i]) {
+					belief = belief.product(message);
+				}
+				belief.normalise();
+				beliefs.add(belief);
+			}
+			return beliefs;
+		}
+
+		/**
+		 * Computes the message from clique i to clique j, defined as the product
+		 * of the potential of i with all incoming messages (except the one from
+		 * j), summed over the variables that are not in the separator.
+		 * 
+		 * @param i the sending clique
+		 * @param j the receiving clique
+		 * @param potentials the clique potentials
+		 * @param neighbours the neighbours of each clique
+		 * @param messages the messages computed so far
+		 */
+		private void sendMessage(int i, int j, List<DenseFactor> potentials,
+				List<List<Integer>> neighbours, DenseFactor[][] messages) {
+			DenseFactor message = potentials.get(i);
+			List<Integer> nbs = neighbours.get(i);
+			for (int n = 0; n < nbs.size(); n++) {
+				if (nbs.get(n) != j) {
+					message = message.product(messages[i][n]);
+				}
+			}
+			for (int id : getIds(message)) {
+				if (!cliques.get(j).contains(id)) {
+					message = message.sumOut(id);
+				}
+			}
+			message.normalise();
+			messages[j][neighbours.get(j).indexOf(i)] = message;
+		}
+	}
+
+	/**
+	 * Returns the variable identifiers in the factor
+	 * 
+	 * @param factor the factor
+	 * @return the set of variable identifiers
+	 */
+	private static Set<Integer> getIds(DenseFactor factor) {
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int id : factor.vars) {
+			ids.add(id);
+		}
+		return ids;
+	}
+
+}
@@ -25,7 +25,6 @@ package opendial.inference.exact;
 
 import java.util.logging.*;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -34,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import opendial.Settings;
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.CategoricalTable;
 import opendial.bn.distribs.ConditionalTable;
@@ -50,7 +50,9 @@ import opendial.inference.InferenceAlgorithm;
 import opendial.inference.Query;
 
 /**
- * Implementation of the Variable Elimination algorithm.
+ * Implementation of the Variable Elimination algorithm. The factors are internally
+ * represented as dense factors (with probabilities and utilities stored in flat
+ * arrays), and converted back to double factors once the inference is completed.
  * 
  * @author Pierre Lison (plison@ifi.uio.no)
  *
@@ -59,6 +61,30 @@ public class VariableElimination implements InferenceAlgorithm {
 
 	final static Logger log = Logger.getLogger("OpenDial");
 
+	// heuristic for the elimination ordering
+	EliminationOrdering.Heuristic heuristic = Settings.eliminationOrdering;
+
+	// ===================================
+	// CONSTRUCTORS
+	// ===================================
+
+	/**
+	 * Creates a new variable elimination algorithm, with the elimination ordering
+	 * heuristic defined in the settings.
+	 */
+	public VariableElimination() {
+	}
+
+	/**
+	 * Creates a new variable elimination algorithm with the given heuristic for the
+	 * elimination ordering.
+	 * 
+	 * @param heuristic the elimination ordering heuristic
+	 */
+	public VariableElimination(EliminationOrdering.Heuristic heuristic) {
+		this.heuristic = heuristic;
+	}
+
 	// ===================================
 	// MAIN QUERY METHODS
 	// ===================================
@@ -72,9 +98,10 @@ public class VariableElimination implements InferenceAlgorithm {
 	 */
 	@Override
 	public MultivariateTable queryProb(Query.ProbQuery query) {
-		DoubleFactor queryFactor = createQueryFactor(query);
+		DenseFactor queryFactor = createQueryFactor(query);
+		DoubleFactor finalFactor = getFinalFactor(queryFactor, query);
 		MultivariateTable.Builder builder = new MultivariateTable.Builder();
-		builder.addRows(queryFactor.getProbTable());
+		builder.addRows(finalFactor.getProbTable());
 		builder.normalise();
 		return builder.build();
 	}
@@ -88,9 +115,10 @@ public class VariableElimination implements InferenceAlgorithm {
 	 */
 	@Override
 	public UtilityTable queryUtil(Query.UtilQuery query) {
-		DoubleFactor queryFactor = createQueryFactor(query);
+		DenseFactor queryFactor = createQueryFactor(query);
 		queryFactor.normalise();
-		return new UtilityTable(queryFactor.getUtilTable());
+		DoubleFactor finalFactor = getFinalFactor(queryFactor, query);
+		return new UtilityTable(finalFactor.getUtilTable());
 	}
 
 	// ===================================
@@ -98,67 +126,108 @@ public class VariableElimination implements InferenceAlgorithm {
 	// ===================================
 
 	/**
-	 * Generates the full double factor associated with the query variables, using
-	 * the variable-elimination algorithm.
+	 * Generates the full factor associated with the query variables, using the
+	 * variable-elimination algorithm. The factors are encoded as dense factors
+	 * over a domain index constructed for the query, and the hidden variables are
+	 * summed out according to the elimination ordering.
 	 * 
 	 * @param query the query
-	 * @return the full double factor containing all query variables occurred during
-	 *         the inference
+	 * @return the full factor containing all query variables occurred during the
+	 *         inference
 	 */
-	private DoubleFactor createQueryFactor(Query query) {
+	private DenseFactor createQueryFactor(Query query) {
 
-		List<DoubleFactor> factors = new LinkedList<DoubleFactor>();
-		Collection<String> queryVars = query.getQueryVars();
+		List<BNode> nodes = query.getFilteredSortedNodes();
 		Assignment evidence = query.getEvidence();
 
-		for (BNode n : query.getFilteredSortedNodes()) {
-			// create the basic factor for every variable
-			DoubleFactor basicFactor = makeFactor(n, evidence);
+		// index the variables and values of all node factors
+		DomainIndex index = new DomainIndex();
+		List<Map<Assignment, Double>> tables =
+				new ArrayList<Map<Assignment, Double>>(nodes.size());
+		for (BNode n : nodes) {
+			Map<Assignment, Double> table = n.getFactor();
+			index.addValues(table, evidence);
+			tables.add(table);
+		}
+
+		// create the basic factor for every variable
+		List<DenseFactor> factors = new LinkedList<DenseFactor>();
+		for (int i = 0; i < nodes.size(); i++) {
+			DenseFactor basicFactor =
+					makeFactor(nodes.get(i), tables.get(i), index, evidence);
 			if (!basicFactor.isEmpty()) {
 				factors.add(basicFactor);
-				// if the variable is hidden, we sum it out
-				if (!queryVars.contains(n.getId())) {
-					factors = sumOut(n.getId(), factors);
-				}
 			}
 		}
-		// compute the final product, and normalise
-		DoubleFactor finalProduct = pointwiseProduct(factors);
-		finalProduct = addEvidencePairs(finalProduct, query);
-		finalProduct.trim(queryVars);
-		return finalProduct;
+
+		// sum out the hidden variables, following the elimination ordering
+		EliminationOrdering ordering =
+				EliminationOrdering.getOrdering(query, heuristic);
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("elimination for " + query + ": " + ordering);
+		}
+		for (String hiddenVar : ordering.getOrder()) {
+			factors = sumOut(index.getId(hiddenVar), factors);
+		}
+
+		// compute the final product
+		return pointwiseProduct(index, factors);
+	}
+
+	/**
+	 * Converts the query factor into a double factor, adds the evidence pairs for
+	 * the query variables that are part of the evidence, and trims the result to
+	 * the query variables.
+	 * 
+	 * @param queryFactor the query factor
+	 * @param query the query
+	 * @return the final double factor for the query
+	 */
+	private DoubleFactor getFinalFactor(DenseFactor queryFactor, Query query) {
+		Collection<String> queryVars = query.getQueryVars();
+		Assignment evidence = query.getEvidence().getTrimmed(queryVars);
+		DoubleFactor finalFactor =
+				addEvidencePairs(queryFactor.toDoubleFactor(), evidence);
+		finalFactor.trim(queryVars);
+		return finalFactor;
 	}
 
 	/**
 	 * Sums out the variable from the pointwise product of the factors, and returns
 	 * the result
 	 * 
-	 * @param nodeId the Bayesian node corresponding to the variable
+	 * @param varId the identifier of the variable to sum out
 	 * @param factors the factors to sum out
 	 * @return the summed out factor
 	 */
-	private List<DoubleFactor> sumOut(String nodeId, List<DoubleFactor> factors) {
+	private List<DenseFactor> sumOut(int varId, List<DenseFactor> factors) {
+
+		if (varId < 0) {
+			return factors;
+		}
 
 		// we divide the factors into two lists: the factors which are
 		// independent of the variable, and those who aren't
-		List<DoubleFactor> dependentFactors = new LinkedList<DoubleFactor>();
-		List<DoubleFactor> remainingFactors = new LinkedList<DoubleFactor>();
+		List<DenseFactor> dependentFactors = new LinkedList<DenseFactor>();
+		List<DenseFactor> remainingFactors = new LinkedList<DenseFactor>();
 
-		for (DoubleFactor f : factors) {
-			if (!f.getVariables().contains(nodeId)) {
+		for (DenseFactor f : factors) {
+			if (!f.hasVariable(varId)) {
 				remainingFactors.add(f);
 			}
 			else {
 				dependentFactors.add(f);
 			}
 		}
+		if (dependentFactors.isEmpty()) {
+			return remainingFactors;
+		}
 
-		// we compute the product of the dependent factors
-		DoubleFactor productDependentFactors = pointwiseProduct(dependentFactors);
-
-		// we sum out the dependent factors
-		DoubleFactor sumDependentFactors =
-				sumOutDependent(nodeId, productDependentFactors);
+		// we compute the product of the dependent factors, and sum out the
+		// variable
+		DenseFactor sumDependentFactors =
+				pointwiseProduct(dependentFactors.get(0).getIndex(), dependentFactors)
+						.sumOut(varId);
 
 		if (!sumDependentFactors.isEmpty()) {
 			remainingFactors.add(sumDependentFactors);
@@ -167,77 +236,23 @@ public class VariableElimination implements InferenceAlgorithm {
 		return remainingFactors;
 	}
 
-	/**
-	 * Sums out the variable from the given factor, and returns the result
-	 * 
-	 * @param node the Bayesian node corresponding to the variable
-	 * @param factor the factor to sum out
-	 * @return the summed out factor
-	 */
-	private DoubleFactor sumOutDependent(String nodeId, DoubleFactor factor) {
-
-		// create the new factor
-		DoubleFactor sumFactor = new DoubleFactor();
-
-		for (Assignment a : factor.getValues()) {
-			Assignment reducedA = new Assignment(a);
-			reducedA.removePair(nodeId);
-			double[] entry = factor.getEntry(a);
-			double prob = entry[0];
-			double util = entry[1];
-			sumFactor.incrementEntry(reducedA, prob, prob * util);
-		}
-
-		sumFactor.normaliseUtil();
-
-		return sumFactor;
-	}
-
 	/**
 	 * Computes the pointwise matrix product of the list of factors
 	 * 
+	 * @param index the domain index (used if the list of factors is empty)
 	 * @param factors the factors
 	 * @return the pointwise product of the factors
 	 */
-	private DoubleFactor pointwiseProduct(List<DoubleFactor> factors) {
+	private DenseFactor pointwiseProduct(DomainIndex index,
+			List<DenseFactor> factors) {
 
 		if (factors.isEmpty()) {
-			DoubleFactor factor = new DoubleFactor();
-			factor.addEntry(new Assignment(), 1.0, 0.0);
-			return factor;
+			return DenseFactor.createUnit(index);
 		}
-		else if (factors.size() == 1) {
-			return factors.get(0);
-		}
-		DoubleFactor factor = factors.get(0);
-		factors.remove(0);
-		for (DoubleFactor f : factors) {
-
-			DoubleFactor tempFactor = new DoubleFactor();
-			Set<String> sharedVars = new HashSet<String>(f.getVariables());
-			sharedVars.retainAll(factor.getVariables());
-
-			for (Assignment a : f.getValues()) {
-
-				double[] entry = f.getEntry(a);
-				double prob = entry[0];
-				double util = entry[1];
-
-				for (Assignment b : factor.getValues()) {
-					if (b.consistentWith(a, sharedVars)) {
-						double[] entry2 = factor.getEntry(b);
-						double prob2 = entry2[0];
-						double util2 = entry2[1];
-						double product = prob * prob2;
-						double sum = util + util2;
-
-						tempFactor.addEntry(new Assignment(a, b), product, sum);
-					}
-				}
-			}
-			factor = tempFactor;
+		DenseFactor factor = factors.get(0);
+		for (DenseFactor f : factors.subList(1, factors.size())) {
+			factor = f.product(factor);
 		}
-
 		return factor;
 	}
 
@@ -246,33 +261,21 @@ public class VariableElimination implements InferenceAlgorithm {
 	 * Bayesian node, and the evidence (which needs to be matched)
 	 * 
 	 * @param node the Bayesian node
+	 * @param table the factor table for the node
+	 * @param index the domain index
 	 * @param evidence the evidence
 	 * @return the factor for the node
 	 */
-	private DoubleFactor makeFactor(BNode node, Assignment evidence) {
-
-		DoubleFactor factor = new DoubleFactor();
-
-		// generates all possible assignments for the node content
-		Map<Assignment, Double> flatTable = node.getFactor();
-		for (Assignment a : flatTable.keySet()) {
-
-			// verify that the assignment is consistent with the evidence
-			if (a.consistentWith(evidence)) {
-				// adding a new entry to the factor
-				Assignment a2 = new Assignment(a);
-				a2.removePairs(evidence.getVariables());
-
-				if (node instanceof ChanceNode || node instanceof ActionNode) {
-					factor.addEntry(a2, flatTable.get(a), 0.0f);
-				}
-				else if (node instanceof UtilityNode) {
-					factor.addEntry(a2, 1.0f, flatTable.get(a));
-				}
-			}
-		}
+	private DenseFactor makeFactor(BNode node, Map<Assignment, Double> table,
+			DomainIndex index, Assignment evidence) {
 
-		return factor;
+		if (node instanceof ChanceNode || node instanceof ActionNode) {
+			return DenseFactor.create(index, table, evidence, false);
+		}
+		else if (node instanceof UtilityNode) {
+			return DenseFactor.create(index, table, evidence, true);
+		}
+		return new DenseFactor(index, new int[0]);
 	}
 
 	/**
@@ -280,15 +283,13 @@ public class VariableElimination implements InferenceAlgorithm {
 	 * when a variable specified in the evidence also appears in the query), extends
 	 * the distribution to add the evidence assignment pairs.
 	 * 
-	 * @param query the query
-	 * @param distribution the computed distribution
+	 * @param factor the computed factor
+	 * @param evidence the evidence pairs to add
+	 * @return the extended factor
 	 */
-	private DoubleFactor addEvidencePairs(DoubleFactor factor, Query query) {
+	private DoubleFactor addEvidencePairs(DoubleFactor factor, Assignment evidence) {
 
-		Set<String> inter = new HashSet<String>(query.getQueryVars());
-		inter.retainAll(query.getEvidence().getVariables());
-		Assignment evidence = query.getEvidence().getTrimmed(inter);
-		if (!inter.isEmpty()) {
+		if (!evidence.isEmpty()) {
 			DoubleFactor newFactor = new DoubleFactor();
 			for (Assignment a : factor.getAssignments()) {
 				Assignment assign = new Assignment(a, evidence);
@@ -322,7 +323,7 @@ public class VariableElimination implements InferenceAlgorithm {
 		Collection<String> queryVars = query.getQueryVars();
 
 		// create the query factor
-		DoubleFactor queryFactor = createQueryFactor(query);
+		DenseFactor queryFactor = createQueryFactor(query);
 		BNetwork reduced = new BNetwork();
 
 		List<String> sortedNodesIds = network.getSortedNodesIds();
@@ -334,8 +335,8 @@ public class VariableElimination implements InferenceAlgorithm {
 			Set<String> directAncestors =
 					network.getNode(var).getAncestorsIds(queryVars);
 			// create the factor and distribution for the variable
-			DoubleFactor factor =
-					getRelevantFactor(queryFactor, var, directAncestors);
+			DoubleFactor factor = getRelevantFactor(queryFactor, var,
+					directAncestors, query.getEvidence());
 			ProbDistribution distrib = createProbDistribution(var, factor);
 
 			// create the new node
@@ -354,26 +355,27 @@ public class VariableElimination implements InferenceAlgorithm {
 	 * the given node in the Bayesian network. If the factor encode more than the
 	 * needed distribution, the surplus variables are summed out.
 	 * 
-	 * @param factors the collection of factors in which to search
-	 * @param toEstimate the variable to estimate
+	 * @param fullFactor the full factor for the query variables
+	 * @param headVar the variable to estimate
+	 * @param inputVars the input variables for the distribution
+	 * @param evidence the evidence
 	 * @return the relevant factor associated with the node could be found
 	 */
-	private DoubleFactor getRelevantFactor(DoubleFactor fullFactor, String headVar,
-			Set<String> inputVars) {
+	private DoubleFactor getRelevantFactor(DenseFactor fullFactor, String headVar,
+			Set<String> inputVars, Assignment evidence) {
 
 		// summing out unrelated variables
-		DoubleFactor factor = fullFactor.copy();
-		for (String otherVar : new ArrayList<String>(factor.getVariables())) {
+		DenseFactor factor = fullFactor;
+		for (String otherVar : fullFactor.getVariables()) {
 			if (!otherVar.equals(headVar) && !inputVars.contains(otherVar)) {
-				List<DoubleFactor> summedOut =
-						sumOut(otherVar, Arrays.asList(factor));
-				if (!summedOut.isEmpty()) {
-					factor = summedOut.get(0);
-				}
+				factor = factor.sumOut(otherVar);
 			}
 		}
 
-		return factor;
+		Set<String> factorVars = new HashSet<String>(inputVars);
+		factorVars.add(headVar);
+		return addEvidencePairs(factor.toDoubleFactor(),
+				evidence.getTrimmed(factorVars));
 	}
 
 	/**
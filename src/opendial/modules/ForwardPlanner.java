@@ -250,12 +250,11 @@ public class ForwardPlanner implements Module {
 			while (!state.getNewVariables().isEmpty()) {
 				Set<String> toProcess = state.getNewVariables();
 				state.reduce();
-				for (Model model : system.getDomain().getModels()) {
-					if (model.isTriggered(state, toProcess)) {
-						boolean change = model.trigger(state);
-						if (change && model.isBlocking()) {
-							break;
-						}
+				for (Model model : system.getDomain()
+						.getTriggeredModels(toProcess)) {
+					boolean change = model.trigger(state);
+					if (change && model.isBlocking()) {
+						break;
 					}
 				}
 			}
@@ -269,12 +268,9 @@ public class ForwardPlanner implements Module {
 		 * @return true if a transition is defined, false otherwise.
 		 */
 		private boolean hasTransition(Assignment action) {
-			for (Model m : system.getDomain().getModels()) {
-				if (m.isTriggered(action.removePrimes().getVariables())) {
-					return true;
-				}
-			}
-			return false;
+			return !system.getDomain()
+					.getTriggeredModels(action.removePrimes().getVariables())
+					.isEmpty();
 		}
 
 		/**
@@ -242,7 +242,7 @@ public class StatePruner {
 						state.queryProb(node.getId(), false).toDiscrete();
 				for (ChanceNode outputNode : node.getOutputNodes(ChanceNode.class)) {
 					MarginalDistribution newDistrib = new MarginalDistribution(
-							outputNode.getDistrib(), initDistrib);
+							outputNode.getDistribForUpdate(), initDistrib);
 					outputNode.setDistrib(newDistrib);
 				}
 				newState.removeNode(node.getId());
@@ -311,7 +311,8 @@ public class StatePruner {
 				Assignment onlyAssign = new Assignment(node.getId(), node.sample());
 				for (ChanceNode outputNode : node.getOutputNodes(ChanceNode.class)) {
 					if (!(outputNode.getDistrib() instanceof AnchoredRule)) {
-						ProbDistribution curDistrib = outputNode.getDistrib();
+						ProbDistribution curDistrib =
+								outputNode.getDistribForUpdate();
 						outputNode.removeInputNode(node.getId());
 						if (outputNode.getInputNodeIds().isEmpty()) {
 							outputNode.setDistrib(
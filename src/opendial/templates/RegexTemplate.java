@@ -54,7 +54,7 @@ class RegexTemplate implements Template {
 	final String rawString;
 
 	// the regular expression pattern corresponding to the template
-	Pattern pattern;
+	final Pattern pattern;
 
 	// underspecified slots, mapped to their group index in the regex
 	final Map<String, Integer> slots;
@@ -127,19 +127,33 @@ class RegexTemplate implements Template {
 	 */
 	@Override
 	public MatchResult match(String str) {
-		String input = str.trim();
+		return match(str.trim(), pattern);
+	}
+
+	/**
+	 * Tries to match the pattern against the provided string. If the match leads to
+	 * unbalanced slot values, the match is retried with a permutation of the pattern
+	 * (see {@link #permutatePattern(Pattern)}).
+	 * 
+	 * @param input the string
+	 * @param p the pattern
+	 * @return the matching result
+	 */
+	private MatchResult match(String input, Pattern p) {
 
-		Matcher matcher = pattern.matcher(input);
+		Matcher matcher = p.matcher(input);
 
 		if ((matcher.matches())) {
 
 			MatchResult result = new MatchResult(matcher.start(), matcher.end());
 			for (String slot : slots.keySet()) {
 				String filledValue = matcher.group(slots.get(slot));
-				if (!StringUtils.checkForm(filledValue) && permutatePattern()) {
-					return match(str);
+				if (!StringUtils.checkForm(filledValue)) {
+					Pattern permuted = permutatePattern(p);
+					if (permuted != null) {
+						return match(input, permuted);
+					}
 				}
-				log.info("RegexTemplate slot is " + slot + "; value is " + filledValue);
 				result.addPair(slot, filledValue);
 			}
 
@@ -148,6 +162,33 @@ class RegexTemplate implements Template {
 		return new MatchResult(false);
 	}
 
+	/**
+	 * Returns the leading letters, digits and underscores of the template (in lower
+	 * case), which must appear literally at the start of any matching string. The
+	 * prefix is empty if the template contains alternatives outside of
+	 * parentheses.
+	 */
+	@Override
+	public String getLiteralPrefix() {
+		int depth = 0;
+		for (int i = 0; i < rawString.length(); i++) {
+			char c = rawString.charAt(i);
+			depth += (c == '(') ? 1 : (c == ')') ? -1 : 0;
+			if (c == '|' && depth <= 0) {
+				return "";
+			}
+		}
+		StringBuilder prefix = new StringBuilder();
+		for (int i = 0; i < rawString.length(); i++) {
+			char c = rawString.charAt(i);
+			if (c >= 128 || !(Character.isLetterOrDigit(c) || c == '_')) {
+				break;
+			}
+			prefix.append(Character.toLowerCase(c));
+		}
+		return prefix.toString();
+	}
+
 	/**
 	 * Returns true.
 	 */
@@ -162,8 +203,21 @@ class RegexTemplate implements Template {
 	 */
 	@Override
 	public List<MatchResult> find(String str, int maxResults) {
-		str = str.trim();
-		Matcher matcher = pattern.matcher(str);
+		return find(str.trim(), maxResults, pattern);
+	}
+
+	/**
+	 * Tries to find all occurrences of the pattern in the provided string. If an
+	 * occurrence leads to unbalanced slot values, the search is retried with a
+	 * permutation of the pattern (see {@link #permutatePattern(Pattern)}).
+	 * 
+	 * @param str the string
+	 * @param maxResults the maximum number of results
+	 * @param p the pattern
+	 * @return the list of matching results
+	 */
+	private List<MatchResult> find(String str, int maxResults, Pattern p) {
+		Matcher matcher = p.matcher(str);
 		List<MatchResult> results = new ArrayList<MatchResult>();
 
 		while ((matcher.find())) {
@@ -181,8 +235,11 @@ class RegexTemplate implements Template {
 
 				// quick-fix to handle some rare cases where the occurrence found
 				// by the regex leads to unbalanced parentheses or brackets.
-				if (!StringUtils.checkForm(filledValue) && permutatePattern()) {
-					return find(str, maxResults);
+				if (!StringUtils.checkForm(filledValue)) {
+					Pattern permuted = permutatePattern(p);
+					if (permuted != null) {
+						return find(str, maxResults, permuted);
+					}
 				}
 				result.addPair(slot, filledValue);
 			}
@@ -263,19 +320,20 @@ class RegexTemplate implements Template {
 	 * instance, when the template pred({X},{Y}) is matched against a string
 	 * pred(foo,bar(1,2)), the resulting match is X="foo,bar(1" and Y="2)". We can
 	 * get the desired result X="foo", Y="bar(1,2)" by changing the patterns,
-	 * replacing greedy quantifiers by reluctant or possessive ones.
+	 * replacing greedy quantifiers by reluctant or possessive ones. The pattern of
+	 * the template itself is left unchanged, since the template may be shared.
 	 * 
-	 * @return true if the permutation resulted in a change in the pattern. else,
-	 *         false.
+	 * @param p the pattern to permutate
+	 * @return the permutated pattern, or null if the permutation did not result in
+	 *         any change
 	 */
-	private boolean permutatePattern() {
-		String newPattern = pattern.pattern().replaceFirst("\\(\\.\\+\\)", "(.+?)");
-		if (newPattern.equals(pattern.pattern())) {
-			newPattern = pattern.pattern().replaceFirst("\\(\\.\\?\\)", "(.++)");
+	private static Pattern permutatePattern(Pattern p) {
+		String newPattern = p.pattern().replaceFirst("\\(\\.\\+\\)", "(.+?)");
+		if (newPattern.equals(p.pattern())) {
+			newPattern = p.pattern().replaceFirst("\\(\\.\\?\\)", "(.++)");
 		}
-		boolean change = !(newPattern.equals(pattern.pattern()));
-		pattern = Pattern.compile(newPattern);
-		return change;
+		return newPattern.equals(p.pattern()) ? null
+				: Pattern.compile(newPattern, p.flags());
 	}
 
 	/**
@@ -86,7 +86,6 @@ public class StringTemplate implements Template {
 		String input = str.trim();
 
 		if (input.equalsIgnoreCase(string)) {
-			log.info("str is " + input + "; string is " + string);
 			return new MatchResult(0, string.length());
 		}
 		else {
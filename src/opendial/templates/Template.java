@@ -64,13 +64,26 @@ public interface Template extends Comparable<Template> {
 	final static Logger log = Logger.getLogger("OpenDial");
 
 	/**
-	 * Creates a new template based on the string value. This method finds the best
-	 * template representation for the string and returns the result.
+	 * Returns the template for the string value. The templates are shared through
+	 * a global cache (see {@link TemplateCache}), such that each string is only
+	 * compiled once.
 	 * 
 	 * @param value the string for the template
 	 * @return the corresponding template object
 	 */
 	public static Template create(String value) {
+		return TemplateCache.get(value);
+	}
+
+	/**
+	 * Creates a new template based on the string value, without going through the
+	 * cache. This method finds the best template representation for the string and
+	 * returns the result.
+	 * 
+	 * @param value the string for the template
+	 * @return the corresponding template object
+	 */
+	public static Template compile(String value) {
 		if (Settings.isFunction(value)) {
 			return new FunctionalTemplate(value);
 		}
@@ -179,6 +192,18 @@ public interface Template extends Comparable<Template> {
 	 */
 	public String fillSlots(Assignment fillers);
 
+	/**
+	 * Returns a literal prefix (in lower case) shared by all strings that fully
+	 * match the template, ignoring case. The prefix may be empty if the template
+	 * starts with an underspecified element. The default implementation returns an
+	 * empty string.
+	 * 
+	 * @return the literal prefix of the template
+	 */
+	public default String getLiteralPrefix() {
+		return "";
+	}
+
 	/**
 	 * Compares the templates (based on their string value)
 	 * 
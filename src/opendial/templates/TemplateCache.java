@@ -0,0 +1,216 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.templates;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Bounded cache of the templates created through {@link Template#create(String)},
+ * indexed by their raw string. Since templates are immutable once created, the
+ * same template object can be shared by all conditions, effects and distributions
+ * that refer to the same string, and its regular expression is only compiled
+ * once. When the maximum size is exceeded, the least recently used templates
+ * (approximately, based on a logical timestamp of their last access) are
+ * discarded.
+ * 
+ * <p>
+ * The cache is safe for concurrent use, and cache hits do not take any lock. The
+ * templates are created outside of the map, such that two threads may occasionally
+ * compile the same template (in which case only one of them is retained).
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ *
+ */
+public final class TemplateCache {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// maximum number of templates in the cache
+	public static int MAX_CACHE_SIZE = 5000;
+
+	// proportion of the templates discarded when the maximum size is exceeded
+	static final double EVICTION_RATIO = 0.1;
+
+	// the cached templates
+	static final Map<String, CacheEntry> templates =
+			new ConcurrentHashMap<String, CacheEntry>(256);
+
+	// logical clock used to timestamp the accesses to the templates
+	static final AtomicLong clock = new AtomicLong();
+
+	// lock ensuring that only one thread discards templates at a time
+	static final ReentrantLock evictionLock = new ReentrantLock();
+
+	// number of cache hits and misses
+	static final AtomicLong hits = new AtomicLong();
+	static final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the template for the string, creating it if it is not already in the
+	 * cache.
+	 * 
+	 * @param value the string for the template
+	 * @return the corresponding template object
+	 */
+	static Template get(String value) {
+		CacheEntry entry = templates.get(value);
+		if (entry != null) {
+			hits.incrementAndGet();
+			entry.lastAccess = clock.incrementAndGet();
+			return entry.template;
+		}
+		misses.incrementAndGet();
+		entry = new CacheEntry(Template.compile(value));
+		CacheEntry existing = templates.putIfAbsent(value, entry);
+		if (existing != null) {
+			return existing.template;
+		}
+		if (templates.size() > MAX_CACHE_SIZE) {
+			evict();
+		}
+		return entry.template;
+	}
+
+	/**
+	 * Discards the least recently used templates, such that the cache size falls
+	 * below the maximum size. If another thread is already discarding templates,
+	 * the method returns immediately.
+	 */
+	private static void evict() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			int nbToRemove = templates.size() - MAX_CACHE_SIZE
+					+ (int) (MAX_CACHE_SIZE * EVICTION_RATIO);
+			if (nbToRemove <= 0) {
+				return;
+			}
+			long[] accesses = templates.values().stream()
+					.mapToLong(e -> e.lastAccess).toArray();
+			if (accesses.length == 0) {
+				return;
+			}
+			Arrays.sort(accesses);
+			long threshold = accesses[Math.min(nbToRemove, accesses.length) - 1];
+			templates.values().removeIf(e -> e.lastAccess <= threshold);
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all templates from the cache. This method must be called when the
+	 * interpretation of strings changes (for instance, when a new custom function
+	 * is declared).
+	 */
+	public static void clear() {
+		templates.clear();
+	}
+
+	/**
+	 * Returns the number of templates in the cache
+	 * 
+	 * @return the number of cached templates
+	 */
+	public static int size() {
+		return templates.size();
+	}
+
+	/**
+	 * Returns the number of requests that were answered from the cache
+	 * 
+	 * @return the number of hits
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of requests that required the creation of a new template
+	 * 
+	 * @return the number of misses
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the proportion of requests that were answered from the cache (0.0 if
+	 * no request has been made yet)
+	 * 
+	 * @return the hit rate
+	 */
+	public static double getHitRate() {
+		long nbHits = hits.get();
+		long total = nbHits + misses.get();
+		return (total > 0) ? ((double) nbHits) / total : 0.0;
+	}
+
+	/**
+	 * Resets the hit and miss counters
+	 */
+	public static void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * Returns a string representation of the cache statistics
+	 */
+	public static String getStatistics() {
+		return "template cache: " + size() + " templates, " + getHits() + " hits, "
+				+ getMisses() + " misses (hit rate "
+				+ String.format("%.3f", getHitRate()) + ")";
+	}
+
+	/**
+	 * Cached template, together with the logical timestamp of its last access
+	 */
+	static final class CacheEntry {
+
+		// the template
+		final Template template;
+
+		// the timestamp of the last access
+		volatile long lastAccess;
+
+		/**
+		 * Creates a new entry for the template
+		 * 
+		 * @param template the template
+		 */
+		CacheEntry(Template template) {
+			this.template = template;
+			this.lastAccess = clock.incrementAndGet();
+		}
+	}
+}
@@ -37,6 +37,7 @@ import java.util.stream.Collectors;
 
 import opendial.bn.values.Value;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Combinations;
 
 /**
  * Utility functions for inference operations.
@@ -110,7 +111,9 @@ public class InferenceUtils {
 	 * values.
 	 * 
 	 * <p>
-	 * NB: use with caution, computational complexity is exponential!
+	 * NB: use with caution, computational complexity is exponential! When the
+	 * combinations only need to be traversed once, {@link Combinations} enumerates
+	 * them without storing them in memory.
 	 * 
 	 * @param valuesMatrix the set of values to combine
 	 * @return the list of all possible combinations
@@ -119,21 +122,9 @@ public class InferenceUtils {
 			Map<String, Set<Value>> valuesMatrix) {
 
 		try {
-			// start with a single, empty assignment
 			Set<Assignment> assignments = new HashSet<Assignment>();
-			assignments.add(new Assignment());
-
-			// at each iterator, we expand each assignment with a new
-			// combination
-			for (String label : valuesMatrix.keySet()) {
-				Set<Value> values = valuesMatrix.get(label);
-				assignments = assignments.stream()
-						.flatMap(a -> values.stream()
-								.map(v -> new Assignment(a, label, v)).sequential())
-						.collect(Collectors.toSet());
-			}
-			for (Assignment a : assignments) {
-				log.info("getAllCombinations() key is " + a.getPairs().keySet() + "; value is " + a.getPairs().values().stream().map(v -> v.toString()).collect(Collectors.toSet()));
+			for (Assignment a : new Combinations(valuesMatrix)) {
+				assignments.add(a);
 			}
 			return assignments;
 		}
@@ -163,9 +154,9 @@ public class InferenceUtils {
 		List<Map.Entry<T, Double>> entries =
 				new ArrayList<Map.Entry<T, Double>>(initTable.entrySet());
 
-		Random rand = new Random();
+		Random rand = RandomUtils.getRandom();
 
-		Collections.shuffle(entries);
+		Collections.shuffle(entries, rand);
 		Collections.sort(entries, (a, b) -> {
 			double result = a.getValue() - b.getValue();
 			if  (Math.abs(result) < 0.0001) {
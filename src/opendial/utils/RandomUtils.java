@@ -0,0 +1,105 @@
+// =================================================================                                                                   
+// Copyright (C) 2011-2015 Pierre Lison (plison@ifi.uio.no)
+
+// Permission is hereby granted, free of charge, to any person 
+// obtaining a copy of this software and associated documentation 
+// files (the "Software"), to deal in the Software without restriction, 
+// including without limitation the rights to use, copy, modify, merge, 
+// publish, distribute, sublicense, and/or sell copies of the Software, 
+// and to permit persons to whom the Software is furnished to do so, 
+// subject to the following conditions:
+
+// The above copyright notice and this permission notice shall be 
+// included in all copies or substantial portions of the Software.
+
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+// IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY 
+// CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, 
+// TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE 
+// SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+// =================================================================                                                                   
+
+package opendial.utils;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Central source of randomness for the sampling operations. By default, each
+ * thread draws its random numbers from its own generator (ThreadLocalRandom),
+ * which avoids any contention between the threads employed for sampling.
+ * 
+ * <p>
+ * A fixed seed can be set (see {@link #setSeed(long)}), in which case all random
+ * numbers are drawn from a single generator initialised with that seed, and the
+ * sampling algorithms draw their samples sequentially. The results of the
+ * inference are then reproducible from one run to the next. Alternatively, an
+ * arbitrary source can be plugged in with {@link #setSource(Supplier)}.
+ *
+ * @author Pierre Lison (plison@ifi.uio.no)
+ */
+public class RandomUtils {
+
+	// logger
+	final static Logger log = Logger.getLogger("OpenDial");
+
+	// default source (one generator per thread)
+	static final Supplier<Random> DEFAULT_SOURCE = ThreadLocalRandom::current;
+
+	// the current source of random generators
+	static volatile Supplier<Random> source = DEFAULT_SOURCE;
+
+	/**
+	 * Returns the random generator to use in the current thread.
+	 * 
+	 * @return the random generator
+	 */
+	public static Random getRandom() {
+		return source.get();
+	}
+
+	/**
+	 * Fixes the seed of the random numbers. All random numbers are subsequently
+	 * drawn from a single generator initialised with the seed.
+	 * 
+	 * @param seed the seed
+	 */
+	public static void setSeed(long seed) {
+		Random generator = new Random(seed);
+		source = () -> generator;
+	}
+
+	/**
+	 * Plugs in a new source of random generators. The supplier is called each time
+	 * a generator is required, and must therefore be cheap.
+	 * 
+	 * @param newSource the source of random generators
+	 */
+	public static void setSource(Supplier<Random> newSource) {
+		source = newSource;
+	}
+
+	/**
+	 * Resets the source to the default (unseeded) per-thread generators.
+	 */
+	public static void reset() {
+		source = DEFAULT_SOURCE;
+	}
+
+	/**
+	 * Returns true if the random numbers are drawn from a seeded or plugged-in
+	 * source, and false if the default per-thread generators are used. In the
+	 * former case, the sampling algorithms should draw their samples sequentially
+	 * to ensure their reproducibility.
+	 * 
+	 * @return true if the source is not the default one, false otherwise
+	 */
+	public static boolean isDeterministic() {
+		return source != DEFAULT_SOURCE;
+	}
+
+}
@@ -23,12 +23,23 @@
 
 package opendial.bn;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
+import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
+import opendial.datastructs.Combinations;
+import opendial.datastructs.ValueRange;
 
 import org.junit.Test;
 
@@ -62,4 +73,73 @@ public class AssignmentTest {
 		assertFalse(a1bis.equals(a2));
 		assertFalse(a1bis.hashCode() == a2.hashCode());
 	}
+
+	@Test
+	public void testPrimes() {
+		Assignment a = new Assignment(new Assignment("a_u'", "hi"), "a_m", "yes");
+		a.addPair("a_m'", "no");
+		assertEquals(new Assignment(new Assignment("a_u", "hi"), "a_m", "no"),
+				a.removePrimes());
+		assertTrue(a.addPrimes().containsVar("a_m''"));
+	}
+
+	@Test
+	public void testCompactAssignment() {
+		Assignment a = new Assignment();
+		for (int i = 0; i < 20; i++) {
+			a.addPair("v" + i, i);
+		}
+		Assignment copy = a.copy();
+		Assignment extended = new Assignment(a, "w", true);
+		copy.removePair("v3");
+		copy.addPair("v4", "changed");
+		assertEquals(20, a.size());
+		assertEquals(ValueFactory.create(4), a.getValue("v4"));
+		assertEquals(ValueFactory.create("changed"), copy.getValue("v4"));
+		assertFalse(copy.containsVar("v3"));
+		assertEquals(21, extended.size());
+		assertFalse(a.containsVar("w"));
+		assertEquals(a, extended.getPruned(Arrays.asList("w")));
+		assertEquals(a.hashCode(), extended.getPruned(Arrays.asList("w")).hashCode());
+
+		Map<String, Value> hashMap = new HashMap<String, Value>(a.getPairs());
+		assertEquals(hashMap, a.getPairs());
+		assertEquals(a.getPairs(), hashMap);
+		assertEquals(hashMap.hashCode(), a.hashCode());
+
+		a.trim(Arrays.asList("v1", "v2", "v5"));
+		assertEquals(3, a.size());
+		assertTrue(a.containsVars(Arrays.asList("v1", "v2", "v5")));
+		assertEquals(20, extended.size() - 1);
+	}
+
+	@Test
+	public void testCombinations() {
+		ValueRange range = new ValueRange();
+		range.addValues("a", Arrays.asList(ValueFactory.create(1),
+				ValueFactory.create(2), ValueFactory.create(3)));
+		range.addValues("b", Arrays.asList(ValueFactory.create(true),
+				ValueFactory.create(false)));
+		range.addValue("c", ValueFactory.create("x"));
+		Set<Assignment> lazy = range.getCombinations().stream()
+				.collect(Collectors.toSet());
+		assertEquals(range.linearise(), lazy);
+		assertEquals(6, lazy.size());
+		assertEquals(6, range.getCombinations().size());
+
+		Set<Assignment> filtered =
+				range.getCombinations(a -> !a.containsPair("a", ValueFactory.create(2)))
+						.stream().collect(Collectors.toSet());
+		assertEquals(4, filtered.size());
+		assertFalse(filtered.contains(new Assignment(
+				new Assignment(new Assignment("a", 2), "b", true), "c", "x")));
+
+		assertEquals(1, new ValueRange().getCombinations().stream().count());
+		assertTrue(new ValueRange().getCombinations().iterator().next().isEmpty());
+		Map<String, Set<Value>> withEmpty = new HashMap<String, Set<Value>>();
+		withEmpty.put("a", range.getValues("a"));
+		withEmpty.put("d", new HashSet<Value>());
+		assertFalse(new Combinations(withEmpty).iterator().hasNext());
+		assertEquals(0, new Combinations(withEmpty).stream().count());
+	}
 }
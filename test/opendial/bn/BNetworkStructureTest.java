@@ -27,7 +27,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.logging.Logger;
 
 import opendial.bn.distribs.CategoricalTable;
@@ -304,4 +308,47 @@ public class BNetworkStructureTest {
 		assertEquals(1, bn.getCliques().get(1).size());
 		assertEquals(1, bn.getCliques().get(0).size());
 	}
+	@Test
+	public void testCachedSortedNodes() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		List<BNode> expected = new ArrayList<BNode>(bn.getNodes());
+		Collections.sort(expected);
+		assertEquals(expected, bn.getSortedNodes());
+
+		ChanceNode node = new ChanceNode("Neighbour", bn.getChanceNode("Burglary")
+				.getDistrib());
+		bn.addNode(node);
+		bn.getNode("MaryCalls").addInputNode(node);
+		bn.getNode("Alarm").removeInputNode("Earthquake");
+		expected = new ArrayList<BNode>(bn.getNodes());
+		Collections.sort(expected);
+		assertEquals(expected, bn.getSortedNodes());
+		assertEquals(bn.getSortedNodes().get(0).getId(),
+				bn.getSortedNodesIds().get(0));
+
+		bn.getNode("Neighbour").setId("Neighbour'");
+		expected = new ArrayList<BNode>(bn.getNodes());
+		Collections.sort(expected);
+		assertEquals(expected, bn.getSortedNodes());
+		assertTrue(bn.getSortedNodesIds().contains("Neighbour'"));
+	}
+
+	@Test
+	public void testChanceNodePrefix() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		assertEquals(new HashSet<String>(Arrays.asList("JohnCalls")),
+				bn.getChanceNodeIds("john"));
+		assertEquals(bn.getChanceNodeIds(), bn.getChanceNodeIds(""));
+		assertTrue(bn.getChanceNodeIds("Action").isEmpty());
+
+		ChanceNode node = new ChanceNode("JohnLeaves", bn.getChanceNode("Burglary")
+				.getDistrib());
+		bn.addNode(node);
+		assertEquals(2, bn.getChanceNodeIds("John").size());
+		bn.getNode("JohnLeaves").setId("Neighbour");
+		assertEquals(1, bn.getChanceNodeIds("John").size());
+		assertTrue(bn.getChanceNodeIds("neigh").contains("Neighbour"));
+		bn.removeNode("Neighbour");
+		assertTrue(bn.getChanceNodeIds("neigh").isEmpty());
+	}
 }
@@ -25,15 +25,22 @@ package opendial.bn;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import opendial.Settings;
 import opendial.bn.distribs.CategoricalTable;
 import opendial.bn.distribs.ConditionalTable;
 import opendial.bn.distribs.ContinuousDistribution;
+import opendial.bn.distribs.EmpiricalDistribution;
 import opendial.bn.distribs.IndependentDistribution;
 import opendial.bn.distribs.MultivariateTable;
+import opendial.bn.distribs.ProbDistribution;
 import opendial.bn.distribs.densityfunctions.DirichletDensityFunction;
 import opendial.bn.distribs.densityfunctions.GaussianDensityFunction;
 import opendial.bn.distribs.densityfunctions.KernelDensityFunction;
@@ -45,9 +52,11 @@ import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.common.InferenceChecks;
 import opendial.datastructs.Assignment;
+import opendial.inference.approximate.AliasTable;
 import opendial.inference.approximate.SamplingAlgorithm;
 import opendial.inference.exact.VariableElimination;
 import opendial.utils.MathUtils;
+import opendial.utils.RandomUtils;
 
 import org.junit.Test;
 
@@ -85,6 +94,93 @@ public class DistributionsTest {
 				0.1, 0.001);
 	}
 
+	@Test
+	public void testTableSampling() {
+		CategoricalTable.Builder builder = new CategoricalTable.Builder("var1");
+		builder.addRow("val1", 0.6);
+		builder.addRow("val2", 0.3);
+		builder.addRow("val3", 0.1);
+		CategoricalTable table = builder.build().toDiscrete();
+		CategoricalTable copy = table.copy();
+		int[] counts = new int[3];
+		for (int i = 0; i < 10000; i++) {
+			counts[Integer.parseInt(table.sample().toString().substring(3)) - 1]++;
+		}
+		assertEquals(0.6, counts[0] / 10000.0, 0.03);
+		assertEquals(0.1, counts[2] / 10000.0, 0.03);
+		assertTrue(table.pruneValues(0.2));
+		assertEquals(2, table.size());
+		assertEquals(0.666, table.getProb("val1"), 0.01);
+		assertEquals(0.6, copy.getProb("val1"), 0.001);
+		assertEquals(3, copy.getTable().size());
+
+		ConditionalTable.Builder builder2 = new ConditionalTable.Builder("var2");
+		builder2.addRow(new Assignment("var1", "val1"), "a", 1.0);
+		builder2.addRow(new Assignment("var1", "val2"), "b", 0.8);
+		builder2.addRow(new Assignment("var1", "val2"), "c", 0.2);
+		ConditionalTable table2 = builder2.build();
+		Assignment cond = new Assignment(new Assignment("var1", "val2"), "var3", 2);
+		assertEquals(0.8, table2.getProb(cond, ValueFactory.create("b")), 0.001);
+		assertEquals(ValueFactory.create("a"),
+				table2.sample(new Assignment("var1", "val1")));
+		assertEquals(ValueFactory.none(),
+				table2.sample(new Assignment("var1", "val3")));
+		assertEquals(ValueFactory.none(), table2.sample(new Assignment()));
+		table2.modifyVariableId("var1", "var4");
+		assertEquals(ValueFactory.create("a"),
+				table2.sample(new Assignment("var4", "val1")));
+	}
+
+	@Test
+	public void testAliasTable() {
+		List<String> objects = Arrays.asList("a", "b", "c", "d");
+		Map<String, Double> weights = new HashMap<String, Double>();
+		weights.put("a", 2.0);
+		weights.put("b", 0.0);
+		weights.put("c", 6.0);
+		weights.put("d", -1.0);
+		AliasTable aliases = AliasTable.create(objects, o -> weights.get(o));
+		int[] counts = new int[4];
+		for (int i = 0; i < 10000; i++) {
+			counts[aliases.sample()]++;
+		}
+		assertEquals(0.25, counts[0] / 10000.0, 0.03);
+		assertEquals(0, counts[1]);
+		assertEquals(0.75, counts[2] / 10000.0, 0.03);
+		assertEquals(0, counts[3]);
+	}
+
+	@Test
+	public void testSeededSampling() {
+		CategoricalTable.Builder builder = new CategoricalTable.Builder("var1");
+		builder.addRow("val1", 0.5);
+		builder.addRow("val2", 0.3);
+		builder.addRow("val3", 0.2);
+		IndependentDistribution table = builder.build();
+		ContinuousDistribution gaussian = new ContinuousDistribution("var2",
+				new GaussianDensityFunction(1.0, 2.0));
+		try {
+			RandomUtils.setSeed(42);
+			assertTrue(RandomUtils.isDeterministic());
+			List<Object> samples1 = new ArrayList<Object>();
+			for (int i = 0; i < 50; i++) {
+				samples1.add(table.sample());
+				samples1.add(gaussian.sample());
+			}
+			RandomUtils.setSeed(42);
+			List<Object> samples2 = new ArrayList<Object>();
+			for (int i = 0; i < 50; i++) {
+				samples2.add(table.sample());
+				samples2.add(gaussian.sample());
+			}
+			assertEquals(samples1, samples2);
+		}
+		finally {
+			RandomUtils.reset();
+		}
+		assertFalse(RandomUtils.isDeterministic());
+	}
+
 	@Test
 	public void testMaths() {
 		assertEquals(4.0, MathUtils.getVolume(2, 1), 0.001);
@@ -316,6 +412,36 @@ public class DistributionsTest {
 
 	}
 
+	@Test
+	public void testEmpiricalMarginals() {
+		EmpiricalDistribution distrib = new EmpiricalDistribution();
+		for (int i = 0; i < 100; i++) {
+			Assignment sample = new Assignment("A", (i % 4 == 0) ? "a1" : "a2");
+			sample.addPair("B", (i % 2 == 0) ? "b1" : "b2");
+			if (i % 10 != 0) {
+				sample.addPair("C", (i == 99) ? "rare" : "c");
+			}
+			distrib.addSample(sample);
+		}
+		assertEquals(0.25, distrib.getMarginal("A").getProb("a1"), 0.0001);
+		assertEquals(0.5, distrib.getMarginal("B").getProb("b2"), 0.0001);
+		assertEquals(0.1, distrib.getMarginal("C").getProb(ValueFactory.none()),
+				0.0001);
+		assertEquals(1.0, distrib.getMarginal("D").getProb(ValueFactory.none()),
+				0.0001);
+		ProbDistribution cond = distrib.getMarginal("B",
+				new HashSet<String>(Arrays.asList("A")));
+		assertEquals(1.0, cond.getProb(new Assignment("A", "a1"),
+				ValueFactory.create("b1")), 0.0001);
+		assertEquals(2.0 / 3.0, cond.getProb(new Assignment("A", "a2"),
+				ValueFactory.create("b2")), 0.0001);
+		assertEquals(0.01, distrib.getProb(
+				Assignment.createFromString("A=a2 ^ B=b2 ^ C=rare")), 0.0001);
+		assertTrue(distrib.pruneValues(0.05));
+		assertEquals(99, distrib.size());
+		assertEquals(0.0, distrib.getMarginal("C").getProb("rare"), 0.0001);
+	}
+
 	@Test
 	public void empiricalDistribContinuous() {
 		ContinuousDistribution continuous = new ContinuousDistribution("var1",
@@ -116,6 +116,24 @@ public class ValueTest {
 
 	}
 
+	@Test
+	public void testInterning() {
+		assertTrue(ValueFactory.create(true) == ValueFactory.create("true"));
+		assertTrue(ValueFactory.create("False") == ValueFactory.create(false));
+		assertTrue(ValueFactory.create(3) == ValueFactory.create("3"));
+		assertTrue(ValueFactory.create("3.6") == ValueFactory.create("3.6"));
+		assertTrue(ValueFactory.create("blabla") == ValueFactory.create("blabla"));
+		assertFalse(ValueFactory.create(2.5) == ValueFactory.create(2.5));
+		assertEquals(ValueFactory.create("blabla"), ValueFactory.create("BlaBla"));
+		assertTrue(ValueFactory.isNumeric("-1.5e3", 0, 6));
+		assertTrue(ValueFactory.isNumeric(".5", 0, 2));
+		assertFalse(ValueFactory.isNumeric("1.", 0, 2));
+		assertFalse(ValueFactory.isNumeric("+", 0, 1));
+		assertFalse(ValueFactory.isNumeric("1e", 0, 2));
+		assertTrue(ValueFactory.create("[1, 2.5,3]") instanceof ArrayVal);
+		assertTrue(ValueFactory.create("[1,a]") instanceof SetVal);
+	}
+
 	public void testClosest() {
 		Builder builder = new CategoricalTable.Builder("v");
 		builder.addRow(new double[] { 0.2, 0.2 }, 0.3);
@@ -23,12 +23,21 @@
 
 package opendial.domains;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
 import java.util.logging.*;
 
 import opendial.DialogueState;
 import opendial.DialogueSystem;
+import opendial.bn.distribs.SingleValueDistribution;
+import opendial.bn.values.ValueFactory;
+import opendial.common.NetworkExamples;
 import opendial.common.InferenceChecks;
+import opendial.datastructs.Assignment;
 import opendial.domains.rules.effects.Effect;
+import opendial.inference.QueryCache;
 import opendial.modules.ForwardPlanner;
 import opendial.modules.StatePruner;
 import opendial.readers.XMLDomainReader;
@@ -103,4 +112,56 @@ public class DialogueStateTest {
 
 	}
 
+	@Test
+	public void testQueryCache() {
+
+		DialogueState state =
+				new DialogueState(NetworkExamples.constructBasicNetwork2());
+		state.addEvidence(new Assignment("JohnCalls", true));
+		QueryCache cache = state.getQueryCache();
+
+		double prob1 = state.queryProb("Burglary").getProb(true);
+		assertEquals(0, cache.getNbHits());
+		double prob2 = state.queryProb("Burglary").getProb(true);
+		assertEquals(1, cache.getNbHits());
+		assertEquals(prob1, prob2, 0.0001);
+
+		state.addEvidence(new Assignment("MaryCalls", true));
+		assertTrue(state.queryProb("Burglary").getProb(true) > prob1);
+		assertEquals(1, cache.getNbHits());
+		state.queryProb(Arrays.asList("Burglary", "Earthquake"));
+		state.queryProb(Arrays.asList("Burglary", "Earthquake"));
+		assertEquals(2, cache.getNbHits());
+		assertEquals(2, cache.size());
+
+		state.getChanceNode("Burglary").setDistrib(
+				new SingleValueDistribution("Burglary", ValueFactory.create(true)));
+		assertEquals(1.0, state.queryProb("Burglary").getProb(true), 0.0001);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testCopyOnWrite() {
+
+		DialogueState state =
+				new DialogueState(NetworkExamples.constructBasicNetwork2());
+		double johnCalls = state.queryProb("JohnCalls").getProb(true);
+		DialogueState copy = state.copy();
+		assertTrue(copy.getChanceNode("Alarm").getDistrib() == state
+				.getChanceNode("Alarm").getDistrib());
+
+		copy.getChanceNode("Burglary").pruneValues(0.5);
+		assertEquals(1, copy.getChanceNode("Burglary").getNbValues());
+		assertEquals(2, state.getChanceNode("Burglary").getNbValues());
+
+		copy.getChanceNode("Alarm").setId("Alarm2");
+		assertTrue(copy.getChanceNode("JohnCalls").getDistrib()
+				.getInputVariables().contains("Alarm2"));
+		assertTrue(state.getChanceNode("JohnCalls").getDistrib()
+				.getInputVariables().contains("Alarm"));
+		assertEquals(johnCalls, state.queryProb("JohnCalls").getProb(true), 0.0001);
+		assertEquals(johnCalls, state.copy().queryProb("JohnCalls").getProb(true),
+				0.0001);
+	}
+
 }
@@ -25,9 +25,25 @@ package opendial.domains;
 
 import java.util.logging.*;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
 import opendial.DialogueSystem;
 import opendial.bn.distribs.CategoricalTable;
 import opendial.common.InferenceChecks;
+import opendial.datastructs.Assignment;
+import opendial.domains.rules.Rule;
+import opendial.domains.rules.RuleOutput;
+import opendial.domains.rules.conditions.BasicCondition;
+import opendial.domains.rules.conditions.BasicCondition.Relation;
+import opendial.domains.rules.effects.BasicEffect;
+import opendial.domains.rules.effects.Effect;
 import opendial.modules.ForwardPlanner;
 import opendial.modules.StatePruner;
 import opendial.readers.XMLDomainReader;
@@ -180,4 +196,61 @@ public class RuleTest1 {
 		StatePruner.ENABLE_REDUCTION = true;
 	}
 
+	@Test
+	public void testTriggerIndex() {
+		Domain d = new Domain();
+		String[] triggers = { "a_u", "A_M", "u_{X}", "(a|b)_m", "{Y}" };
+		for (String trigger : triggers) {
+			Model model = new Model();
+			model.addTrigger(trigger);
+			model.addRule(new Rule("r", Rule.RuleType.PROB));
+			d.addModel(model);
+		}
+		d.addModel(new Model());
+		for (String var : Arrays.asList("a_u", "a_m", "u_foo", "b_m", "c")) {
+			List<String> vars = Arrays.asList(var);
+			assertEquals(d.getModels().stream().filter(m -> m.isTriggered(vars))
+					.collect(Collectors.toList()), d.getTriggeredModels(vars));
+		}
+		assertEquals(3, d.getTriggeredModels(Arrays.asList("a_m", "b_m")).size());
+
+		d.getModels().get(4).addTrigger("c");
+		d.getModels().remove(4);
+		assertTrue(d.getTriggeredModels(Arrays.asList("c")).isEmpty());
+	}
+
+	@Test
+	public void testRuleOutputCache() {
+		Rule rule = new Rule("r", Rule.RuleType.PROB);
+		RuleOutput output = new RuleOutput(Rule.RuleType.PROB);
+		Effect hello = new Effect(new BasicEffect("a_m", "Hello"));
+		output.addEffect(hello, 0.9);
+		rule.addCase(new BasicCondition("a_u", "Greeting", Relation.EQUAL), output);
+
+		// the grounded output also contains the void effect (with probability 0.1)
+		Assignment input = new Assignment("a_u", "Greeting");
+		RuleOutput first = rule.getOutput(input);
+		assertEquals(2, first.getEffects().size());
+		assertTrue(first.getEffects().contains(hello));
+		assertTrue(first.getEffects().contains(new Effect()));
+		assertTrue(first == rule.getOutput(new Assignment("a_u", "Greeting")));
+		RuleOutput bye = rule.getOutput(new Assignment("a_u", "Bye"));
+		assertTrue(bye.isVoid());
+		assertFalse(bye.getEffects().contains(hello));
+		assertEquals(2, rule.getOutputCache().size());
+		assertEquals(1, rule.getOutputCache().getHits());
+		assertEquals(2, rule.getOutputCache().getMisses());
+
+		// adding a case clears the cache, such that the new case is visible
+		Effect goodbye = new Effect(new BasicEffect("a_m", "Goodbye"));
+		RuleOutput byeOutput = new RuleOutput(Rule.RuleType.PROB);
+		byeOutput.addEffect(goodbye, 1.0);
+		rule.addCase(new BasicCondition("a_u", "Bye", Relation.EQUAL), byeOutput);
+		assertEquals(0, rule.getOutputCache().size());
+		RuleOutput second = rule.getOutput(input);
+		assertTrue(first != second);
+		assertEquals(first.getEffects(), second.getEffects());
+		assertEquals(new HashSet<Effect>(Arrays.asList(goodbye)),
+				rule.getOutput(new Assignment("a_u", "Bye")).getEffects());
+	}
 }
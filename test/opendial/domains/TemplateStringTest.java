@@ -36,9 +36,11 @@ import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.datastructs.Assignment;
 import opendial.datastructs.MathExpression;
+import opendial.domains.rules.conditions.BasicCondition;
 import opendial.readers.XMLDomainReader;
 import opendial.templates.FunctionalTemplate;
 import opendial.templates.Template;
+import opendial.templates.TemplateCache;
 
 import org.junit.Test;
 
@@ -370,4 +372,42 @@ public class TemplateStringTest {
 				t.fillSlots(Assignment.createFromString("X=3 ^ Y=1 ^ Z=4 ^ A=2")));
 	}
 
+	@Test
+	public void testGroundedConditions() {
+		BasicCondition cond = new BasicCondition("a_{X}", "{Y} is here",
+				BasicCondition.Relation.EQUAL);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(cond.isSatisfiedBy(Assignment.createFromString(
+					"X=u ^ Y=John ^ a_u=John is here")));
+			assertFalse(cond.isSatisfiedBy(Assignment.createFromString(
+					"X=u ^ Y=Mary ^ a_u=John is here")));
+			assertFalse(cond.isSatisfiedBy(Assignment.createFromString(
+					"X=m ^ Y=John ^ a_u=John is here")));
+		}
+		assertFalse(cond.isSatisfiedBy(Assignment.createFromString("X=u")));
+
+		cond = new BasicCondition("a_u", "{Y} is (here|there)",
+				BasicCondition.Relation.CONTAINS);
+		assertTrue(cond.isSatisfiedBy(Assignment
+				.createFromString("Y=John ^ a_u=well John is there now")));
+		assertFalse(cond.isSatisfiedBy(Assignment
+				.createFromString("Y=Mary ^ a_u=well John is there now")));
+	}
+
+	@Test
+	public void testTemplateCache() {
+		TemplateCache.resetStatistics();
+		Template t1 = Template.create("the (big)? {X} box");
+		Template t2 = Template.create("the (big)? {X} box");
+		assertTrue(t1 == t2);
+		assertTrue(TemplateCache.getHits() >= 1);
+		assertTrue(TemplateCache.getHitRate() > 0.0);
+		assertTrue(t1.match("the big red box").isMatching());
+		assertFalse(t1 == Template.compile("the (big)? {X} box"));
+		TemplateCache.clear();
+		assertEquals(0, TemplateCache.size());
+		assertFalse(t1 == Template.create("the (big)? {X} box"));
+		assertEquals(t1, Template.create("the (big)? {X} box"));
+	}
+
 }
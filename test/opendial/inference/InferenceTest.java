@@ -26,11 +26,15 @@ package opendial.inference;
 import java.util.logging.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.stream.Collectors;
 
+import opendial.Settings;
 import opendial.bn.BNetwork;
 import opendial.bn.distribs.CategoricalTable;
 import opendial.bn.distribs.ContinuousDistribution;
@@ -40,10 +44,19 @@ import opendial.bn.distribs.MultivariateTable;
 import opendial.bn.distribs.densityfunctions.GaussianDensityFunction;
 import opendial.bn.distribs.densityfunctions.UniformDensityFunction;
 import opendial.bn.nodes.ChanceNode;
+import opendial.bn.values.Value;
 import opendial.bn.values.ValueFactory;
 import opendial.common.NetworkExamples;
 import opendial.datastructs.Assignment;
+import opendial.inference.approximate.LikelihoodWeighting;
+import opendial.inference.approximate.SampleStore;
 import opendial.inference.approximate.SamplingAlgorithm;
+import opendial.inference.approximate.SamplingPlan;
+import opendial.inference.exact.DenseFactor;
+import opendial.inference.exact.DomainIndex;
+import opendial.inference.exact.DoubleFactor;
+import opendial.inference.exact.EliminationOrdering;
+import opendial.inference.exact.JunctionTree;
 import opendial.inference.exact.NaiveInference;
 import opendial.inference.exact.VariableElimination;
 
@@ -189,6 +202,266 @@ public class InferenceTest {
 				0.001f);
 	}
 
+	@Test
+	public void testDenseFactor() {
+
+		BNetwork bn = NetworkExamples.constructBasicNetwork();
+		Assignment evidence = new Assignment("JohnCalls");
+		DomainIndex index = new DomainIndex();
+		for (String var : Arrays.asList("Alarm", "MaryCalls", "JohnCalls")) {
+			index.addValues(bn.getNode(var).getFactor(), evidence);
+		}
+		DenseFactor f1 = DenseFactor.create(index,
+				bn.getNode("MaryCalls").getFactor(), evidence, false);
+		DenseFactor f2 = DenseFactor.create(index,
+				bn.getNode("JohnCalls").getFactor(), evidence, false);
+		assertEquals(2, f2.size());
+		assertEquals(4, f1.size());
+
+		DenseFactor product = f1.product(f2);
+		assertEquals(4, product.size());
+		DoubleFactor result = product.sumOut("Alarm").toDoubleFactor();
+		assertEquals(2, result.size());
+		assertEquals(0.7 * 0.9 + 0.01 * 0.05,
+				result.getProbEntry(new Assignment("MaryCalls")), 0.0001);
+		assertEquals(0.3 * 0.9 + 0.99 * 0.05,
+				result.getProbEntry(new Assignment("!MaryCalls")), 0.0001);
+
+		NaiveInference naive = new NaiveInference();
+		VariableElimination ve = new VariableElimination();
+		for (String var : Arrays.asList("Burglary", "Alarm", "Earthquake")) {
+			MultivariateDistribution d1 = ve.queryProb(bn, Arrays.asList(var),
+					new Assignment(Arrays.asList("JohnCalls", "!MaryCalls")));
+			MultivariateDistribution d2 = naive.queryProb(bn, Arrays.asList(var),
+					new Assignment(Arrays.asList("JohnCalls", "!MaryCalls")));
+			for (Assignment a : d2.getValues()) {
+				assertEquals(d2.getProb(a), d1.getProb(a), 0.0001);
+			}
+		}
+	}
+
+	@Test
+	public void testEliminationOrdering() {
+
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Query.ProbQuery query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+		NaiveInference naive = new NaiveInference();
+		MultivariateDistribution expected = naive.queryProb(query);
+
+		EliminationOrdering topological = new EliminationOrdering(query,
+				EliminationOrdering.Heuristic.TOPOLOGICAL);
+		for (EliminationOrdering.Heuristic h : EliminationOrdering.Heuristic
+				.values()) {
+			EliminationOrdering ordering = new EliminationOrdering(query, h);
+			assertEquals(new HashSet<String>(topological.getOrder()),
+					new HashSet<String>(ordering.getOrder()));
+			assertTrue(ordering.getPeakFactorSize() >= 2);
+			if (h == EliminationOrdering.Heuristic.MIN_WEIGHT) {
+				assertTrue(ordering.getPeakFactorSize() <= topological
+						.getPeakFactorSize());
+			}
+			MultivariateDistribution distrib =
+					new VariableElimination(h).queryProb(query);
+			for (Assignment a : expected.getValues()) {
+				assertEquals(expected.getProb(a), distrib.getProb(a), 0.0001);
+			}
+		}
+		assertEquals(EliminationOrdering.Heuristic.MIN_FILL,
+				EliminationOrdering.parseHeuristic("min-fill"));
+		assertEquals(EliminationOrdering.Heuristic.MIN_WEIGHT,
+				EliminationOrdering.parseHeuristic("minweight"));
+	}
+
+	@Test
+	public void testJunctionTree() {
+
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Assignment evidence =
+				new Assignment(Arrays.asList("JohnCalls", "MaryCalls"));
+		JunctionTree jt = new JunctionTree();
+		NaiveInference naive = new NaiveInference();
+
+		for (int i = 0; i < 3; i++) {
+			for (String var : Arrays.asList("Burglary", "Earthquake", "Alarm")) {
+				assertEquals(naive.queryProb(bn, var, evidence).getProb(true),
+						jt.queryProb(bn, var, evidence).getProb(true), 0.0001);
+			}
+		}
+		assertEquals(1, jt.getNbCalibrations());
+		MultivariateDistribution distrib =
+				jt.queryProb(bn, Arrays.asList("Burglary", "Alarm"), evidence);
+		MultivariateDistribution expected =
+				naive.queryProb(bn, Arrays.asList("Burglary", "Alarm"), evidence);
+		for (Assignment a : expected.getValues()) {
+			assertEquals(expected.getProb(a), distrib.getProb(a), 0.0001);
+		}
+
+		CategoricalTable.Builder builder = new CategoricalTable.Builder("Burglary");
+		builder.addRow(true, 0.2);
+		builder.addRow(false, 0.8);
+		bn.getChanceNode("Burglary").setDistrib(builder.build());
+		for (int i = 0; i < 2; i++) {
+			assertEquals(naive.queryProb(bn, "Alarm", evidence).getProb(true),
+					jt.queryProb(bn, "Alarm", evidence).getProb(true), 0.0001);
+		}
+		assertEquals(2, jt.getNbCalibrations());
+		assertEquals(naive.queryProb(bn, "Alarm").getProb(true),
+				jt.queryProb(bn, "Alarm").getProb(true), 0.0001);
+	}
+
+	@Test
+	public void testJunctionTreeSingleCalibration() {
+
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		JunctionTree jt = new JunctionTree();
+		NaiveInference naive = new NaiveInference();
+
+		for (int i = 0; i < 3; i++) {
+			for (String var : Arrays.asList("Burglary", "Earthquake", "Alarm",
+					"JohnCalls", "MaryCalls")) {
+				assertEquals(naive.queryProb(bn, var).getProb(true),
+						jt.queryProb(bn, var).getProb(true), 0.0001);
+			}
+		}
+		assertEquals(1, jt.getNbCalibrations());
+	}
+
+	@Test
+	public void testSamplingDeadline() throws InterruptedException {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Query.ProbQuery query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+
+		LikelihoodWeighting lw = new LikelihoodWeighting(query, 500, 2000);
+		assertTrue(lw.getSamples().size() > 0);
+		assertTrue(lw.getSamples().size() <= 500);
+		assertEquals(500, lw.getNbGeneratedSamples());
+
+		long start = System.currentTimeMillis();
+		lw = LikelihoodWeighting.start(query, 100000000, 60000, 0.0);
+		Thread.sleep(100);
+		assertFalse(lw.isDone());
+		lw.cancel();
+		lw.await();
+		assertTrue(lw.isDone());
+		assertTrue(System.currentTimeMillis() - start < 30000);
+		assertTrue(lw.getSamples().size() > 0);
+		assertTrue(lw.getSamples().size() < 100000000);
+		assertTrue(lw.getNbGeneratedSamples() >= lw.getSamples().size());
+		assertTrue(lw.getNbGeneratedSamples() < 100000000);
+
+		lw = new LikelihoodWeighting(query, 500, 0);
+		assertTrue(lw.isTerminated());
+		assertEquals(0, lw.getSamples().size());
+		assertEquals(0, lw.getNbGeneratedSamples());
+	}
+
+	@Test
+	public void testAdaptiveSampling() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Assignment evidence = new Assignment("JohnCalls", true);
+		Query.ProbQuery query =
+				new Query.ProbQuery(bn, Arrays.asList("Alarm"), evidence);
+
+		LikelihoodWeighting lw =
+				new LikelihoodWeighting(query, 100000, 5000, 0.01);
+		assertTrue(lw.getNbGeneratedSamples() < 100000);
+		assertTrue(lw.getEffectiveSampleSize() >= 50);
+		EmpiricalDistribution distrib = new EmpiricalDistribution(lw.getSamples());
+		double expected = new NaiveInference().queryProb(bn, "Alarm", evidence)
+				.getProb(true);
+		assertEquals(expected, distrib.getProb(new Assignment("Alarm", true)), 0.05);
+	}
+
+	@Test
+	public void testSamplingPlan() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Query.ProbQuery query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+		SamplingPlan plan = new SamplingPlan(query);
+		assertEquals(5, plan.getNbSlots());
+
+		Value[] values = new Value[plan.getNbSlots()];
+		double[] result = new double[2];
+		SampleStore store = plan.createStore();
+		int nbTrue = 0;
+		for (int i = 0; i < 20000; i++) {
+			assertTrue(plan.sample(values, 0.0, result, store));
+			assertEquals(new HashSet<String>(Arrays.asList("Burglary")),
+					store.getVariables());
+			nbTrue += (store.getValue(i, 0).equals(ValueFactory.create(true)))
+					? 1 : 0;
+			assertTrue(store.getWeight(i) > 0.0 && store.getWeight(i) <= 1.0);
+		}
+		assertTrue(nbTrue > 0 && nbTrue < 20000);
+		assertFalse(plan.sample(values, 1.0, result, store));
+		assertEquals(20000, store.size());
+	}
+
+	@Test
+	public void testSampleStore() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Query.ProbQuery query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+		SamplingPlan plan = new SamplingPlan(query);
+		SampleStore store = plan.createStore();
+		Value[] values = new Value[plan.getNbSlots()];
+		double[] result = new double[2];
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(plan.sample(values, 0.0, result, store));
+		}
+		assertEquals(1000, store.size());
+		assertEquals(new HashSet<String>(Arrays.asList("Burglary")),
+				store.getVariables());
+		assertTrue(store.getSample(3) == store.getSample(3));
+		assertEquals(store.getWeight(3), store.getSample(3).getWeight(), 0.0001);
+
+		SampleStore merged = plan.createStore();
+		merged.addAll(store);
+		merged.addAll(store);
+		assertEquals(2000, merged.size());
+		assertEquals(store.getValue(10, 0), merged.getValue(1010, 0));
+		assertEquals(2000, merged.redraw().size());
+
+		SampleStore tiny = new SampleStore(new String[] { "X" });
+		tiny.add(new Value[] { ValueFactory.create("a") }, new int[] { 0 }, -1000,
+				0.0);
+		tiny.add(new Value[] { ValueFactory.create("b") }, new int[] { 0 }, -2000,
+				0.0);
+		SampleStore redrawn = tiny.redraw();
+		assertEquals(ValueFactory.create("a"), redrawn.getValue(0, 0));
+		assertEquals(ValueFactory.create("a"), redrawn.getValue(1, 0));
+	}
+
+	@Test
+	public void testRelevantNodes() {
+		BNetwork bn = NetworkExamples.constructBasicNetwork2();
+		Query.ProbQuery query = new Query.ProbQuery(bn, Arrays.asList("JohnCalls"),
+				new Assignment(new Assignment("Alarm", true), "MaryCalls", true));
+		assertEquals(
+				new HashSet<String>(
+						Arrays.asList("JohnCalls", "Alarm", "Burglary", "Earthquake")),
+				query.getFilteredSortedNodes().stream().map(n -> n.getId())
+						.collect(Collectors.toSet()));
+
+		query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+				new Assignment("Earthquake", true));
+		assertEquals(1, query.getFilteredSortedNodes().size());
+		assertEquals(
+				new VariableElimination().queryProb(bn, "Burglary")
+						.getProb(ValueFactory.create(true)),
+				new VariableElimination().queryProb(query)
+						.getProb(new Assignment("Burglary", true)),
+				0.0001);
+
+		query = new Query.ProbQuery(bn, Arrays.asList("Burglary"),
+				new Assignment(new Assignment("Earthquake", true), "JohnCalls", true));
+		assertEquals(4, query.getFilteredSortedNodes().size());
+		bn.getNode("JohnCalls").removeInputNode("Alarm");
+		assertEquals(1, query.getFilteredSortedNodes().size());
+	}
+
 	@Test
 	public void testNetwork3bis() {
 
@@ -286,59 +559,73 @@ public class InferenceTest {
 
 	@Test
 	public void testSwitching() {
-		int oldFactor = SwitchingAlgorithm.MAX_BRANCHING_FACTOR;
-		SwitchingAlgorithm.MAX_BRANCHING_FACTOR = 4;
-		BNetwork network = NetworkExamples.constructBasicNetwork2();
-
-		MultivariateDistribution distrib = (new SwitchingAlgorithm()).queryProb(
-				network, Arrays.asList("Burglary"),
-				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
-		assertTrue(distrib instanceof MultivariateTable);
-
-		CategoricalTable.Builder builder = new CategoricalTable.Builder("n1");
-		builder.addRow(ValueFactory.create("aha"), 1.0);
-		ChanceNode n1 = new ChanceNode("n1", builder.build());
-		network.addNode(n1);
-		builder = new CategoricalTable.Builder("n2");
-		builder.addRow(ValueFactory.create("oho"), 0.7);
-		ChanceNode n2 = new ChanceNode("n2", builder.build());
-		network.addNode(n2);
-		builder = new CategoricalTable.Builder("n3");
-		builder.addRow(ValueFactory.create("ihi"), 0.7);
-		ChanceNode n3 = new ChanceNode("n3", builder.build());
-		network.addNode(n3);
-		network.getNode("Alarm").addInputNode(n1);
-		network.getNode("Alarm").addInputNode(n2);
-		network.getNode("Alarm").addInputNode(n3);
-
-		distrib = (new SwitchingAlgorithm()).queryProb(network,
-				Arrays.asList("Burglary"),
-				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
-		assertEquals(EmpiricalDistribution.class, distrib.getClass());
-
-		network.removeNode(n1.getId());
-		network.removeNode(n2.getId());
-
-		distrib = (new SwitchingAlgorithm()).queryProb(network,
-				Arrays.asList("Burglary"),
-				new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
-		assertTrue(distrib instanceof MultivariateTable);
-
-		n1 = new ChanceNode("n1",
-				new ContinuousDistribution("n1", new UniformDensityFunction(-2, 2)));
-		n2 = new ChanceNode("n2", new ContinuousDistribution("n2",
-				new GaussianDensityFunction(-1.0, 3.0)));
-		network.addNode(n1);
-		network.addNode(n2);
-		network.getNode("Earthquake").addInputNode(n1);
-		network.getNode("Earthquake").addInputNode(n2);
-
-		distrib = (new SwitchingAlgorithm().queryProb(network,
-				Arrays.asList("Burglary"),
-				new Assignment(Arrays.asList("JohnCalls", "MaryCalls"))));
-		assertTrue(distrib instanceof EmpiricalDistribution);
-
-		SwitchingAlgorithm.MAX_BRANCHING_FACTOR = oldFactor;
+		double oldFactor = Settings.maxFactorSize;
+		SwitchingAlgorithm.Mode oldMode = Settings.inferenceMode;
+		try {
+			BNetwork network = NetworkExamples.constructBasicNetwork2();
+
+			MultivariateDistribution distrib = (new SwitchingAlgorithm())
+					.queryProb(network, Arrays.asList("Burglary"),
+							new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+			assertTrue(distrib instanceof MultivariateTable);
+
+			CategoricalTable.Builder builder = new CategoricalTable.Builder("n1");
+			builder.addRow(ValueFactory.create("aha"), 1.0);
+			ChanceNode n1 = new ChanceNode("n1", builder.build());
+			network.addNode(n1);
+			builder = new CategoricalTable.Builder("n2");
+			builder.addRow(ValueFactory.create("oho"), 0.7);
+			ChanceNode n2 = new ChanceNode("n2", builder.build());
+			network.addNode(n2);
+			builder = new CategoricalTable.Builder("n3");
+			builder.addRow(ValueFactory.create("ihi"), 0.7);
+			ChanceNode n3 = new ChanceNode("n3", builder.build());
+			network.addNode(n3);
+			network.getNode("Alarm").addInputNode(n1);
+			network.getNode("Alarm").addInputNode(n2);
+			network.getNode("Alarm").addInputNode(n3);
+
+			Settings.maxFactorSize = 4;
+			SwitchingAlgorithm switching = new SwitchingAlgorithm();
+			distrib = switching.queryProb(network, Arrays.asList("Burglary"),
+					new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+			assertEquals(EmpiricalDistribution.class, distrib.getClass());
+			assertTrue(!switching.getLastDecision().isExact());
+			assertTrue(switching.getLastDecision().getReason().contains("peak"));
+			Settings.maxFactorSize = oldFactor;
+
+			Settings.inferenceMode = SwitchingAlgorithm.Mode.SAMPLING;
+			distrib = switching.queryProb(network, Arrays.asList("Burglary"),
+					new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+			assertEquals(EmpiricalDistribution.class, distrib.getClass());
+			Settings.inferenceMode = SwitchingAlgorithm.Mode.AUTO;
+
+			network.removeNode(n1.getId());
+			network.removeNode(n2.getId());
+
+			distrib = (new SwitchingAlgorithm()).queryProb(network,
+					Arrays.asList("Burglary"),
+					new Assignment(Arrays.asList("JohnCalls", "MaryCalls")));
+			assertTrue(distrib instanceof MultivariateTable);
+
+			n1 = new ChanceNode("n1", new ContinuousDistribution("n1",
+					new UniformDensityFunction(-2, 2)));
+			n2 = new ChanceNode("n2", new ContinuousDistribution("n2",
+					new GaussianDensityFunction(-1.0, 3.0)));
+			network.addNode(n1);
+			network.addNode(n2);
+			network.getNode("Earthquake").addInputNode(n1);
+			network.getNode("Earthquake").addInputNode(n2);
+
+			distrib = (new SwitchingAlgorithm().queryProb(network,
+					Arrays.asList("Burglary"),
+					new Assignment(Arrays.asList("JohnCalls", "MaryCalls"))));
+			assertTrue(distrib instanceof EmpiricalDistribution);
+		}
+		finally {
+			Settings.maxFactorSize = oldFactor;
+			Settings.inferenceMode = oldMode;
+		}
 	}
 
 	/**